@@ -22,7 +22,6 @@ import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.admin.DevicePolicyManager;
-import android.app.admin.NetworkEvent;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -42,25 +41,23 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 import com.afwsamples.testdpc.common.NotificationUtil;
+import com.afwsamples.testdpc.common.TimestampRingBuffer;
 import com.afwsamples.testdpc.common.Util;
 import com.afwsamples.testdpc.policy.UserRestriction;
+import com.afwsamples.testdpc.policy.networklogs.NetworkLogWriter;
+import com.afwsamples.testdpc.policy.securitylogs.SecurityLogsCollector;
 import com.afwsamples.testdpc.provision.PostProvisioningTask;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import com.afwsamples.testdpc.search.FragmentRegistry;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.List;
 
 /**
  * Handles events related to the managed profile.
@@ -71,12 +68,15 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
     public static final String ACTION_PASSWORD_REQUIREMENTS_CHANGED =
             "com.afwsamples.testdpc.policy.PASSWORD_REQUIREMENTS_CHANGED";
 
-    public static final String NETWORK_LOGS_FILE_PREFIX = "network_logs_";
-
     private static final String LOGS_DIR = "logs";
 
-    private static final String FAILED_PASSWORD_LOG_FILE =
+    private static final String FAILED_PASSWORD_LOG_FILE = "failed_pw_attempts_timestamps.ring";
+    /** Text log of the failed password attempts, replaced by {@link TimestampRingBuffer}. */
+    private static final String LEGACY_FAILED_PASSWORD_LOG_FILE =
             "failed_pw_attempts_timestamps.log";
+    private static final int FAILED_PASSWORD_LOG_CAPACITY = 64;
+    /** The inbox style of a notification shows at most this many lines. */
+    private static final int FAILED_PASSWORD_NOTIFICATION_LINES = 7;
 
     private static final int CHANGE_PASSWORD_NOTIFICATION_ID = 101;
     private static final int PASSWORD_FAILED_NOTIFICATION_ID = 102;
@@ -102,18 +102,20 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
 
     @TargetApi(Build.VERSION_CODES.N)
     @Override
-    public void onSecurityLogsAvailable(Context context, Intent intent) {
+    public void onSecurityLogsAvailable(final Context context, Intent intent) {
         Log.i(TAG, "onSecurityLogsAvailable() called");
         Toast.makeText(context,
                 context.getString(R.string.on_security_logs_available),
                 Toast.LENGTH_LONG)
                 .show();
+
+        SecurityLogsCollector.collect(context, goAsync());
     }
 
 
-    /*
-     * TODO: reconsider how to store and present the logs in the future, e.g. save the file into
-     * internal memory and show the content in a ListView
+    /**
+     * Hands the batch over to the {@link NetworkLogWriter}, which retrieves and saves it in
+     * internal storage.
      */
     @TargetApi(Build.VERSION_CODES.O)
     @Override
@@ -121,73 +123,12 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
             int networkLogsCount) {
         Log.i(TAG, "onNetworkLogsAvailable(), batchToken: " + batchToken
                 + ", event count: " + networkLogsCount);
-
-        DevicePolicyManager dpm =
-                (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-        List<NetworkEvent> events = null;
-        try {
-            events = dpm.retrieveNetworkLogs(getComponentName(context), batchToken);
-        } catch (SecurityException e) {
-            Log.e(TAG,
-                "Exception while retrieving network logs batch with batchToken: " + batchToken, e);
-        }
-
-        if (events == null) {
-            Log.e(TAG, "Failed to retrieve network logs batch with batchToken: " + batchToken);
-            Toast.makeText(context,
-                    context.getString(R.string.on_network_logs_available_token_failure, batchToken),
-                    Toast.LENGTH_LONG)
-                    .show();
-            return;
-        }
-
-        Toast.makeText(context,
-                context.getString(R.string.on_network_logs_available_success, batchToken),
-                Toast.LENGTH_LONG)
-                .show();
-
-        ArrayList<String> loggedEvents = new ArrayList<>();
-        if (BuildCompat.isAtLeastP()) {
-            for (NetworkEvent event : events) {
-                loggedEvents.add(event.toString());
-            }
-        } else {
-            events.forEach(event -> loggedEvents.add(event.toString()));
-        }
-        new EventSavingTask(context, batchToken, loggedEvents).execute();
-    }
-
-    private static class EventSavingTask extends AsyncTask<Void, Void, Void> {
-
-        private Context mContext;
-        private long mBatchToken;
-        private List<String> mLoggedEvents;
-
-        public EventSavingTask(Context context, long batchToken, ArrayList<String> loggedEvents) {
-            mContext = context;
-            mBatchToken = batchToken;
-            mLoggedEvents = loggedEvents;
-        }
-
-        @Override
-        protected Void doInBackground(Void... params) {
-            Date timestamp = new Date();
-            String filename = NETWORK_LOGS_FILE_PREFIX + mBatchToken + "_" + timestamp.getTime() + ".txt";
-            File file = new File(mContext.getExternalFilesDir(null), filename);
-            try (OutputStream os = new FileOutputStream(file)) {
-                for (String event : mLoggedEvents) {
-                    os.write((event + "\n").getBytes());
-                }
-                Log.d(TAG, "Saved network logs to file: " + filename);
-            } catch (IOException e) {
-                Log.e(TAG, "Failed saving network events to file" + filename, e);
-            }
-            return null;
-        }
+        NetworkLogWriter.getInstance(context).submit(batchToken, goAsync());
     }
 
     @Override
     public void onProfileProvisioningComplete(Context context, Intent intent) {
+        FragmentRegistry.getInstance().invalidateAvailability();
         PostProvisioningTask task = new PostProvisioningTask(context);
         if (!task.performPostProvisioningOperations(intent)) {
             return;
@@ -413,14 +354,15 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
         String title = context.getResources().getQuantityString(
                 R.plurals.password_failed_attempts_title, attempts, attempts);
 
-        ArrayList<Date> previousFailedAttempts = getFailedPasswordAttempts(context);
-        Date date = new Date();
-        previousFailedAttempts.add(date);
-        Collections.sort(previousFailedAttempts, Collections.<Date>reverseOrder());
+        final TimestampRingBuffer failedAttemptsLog = failedPasswordAttempts(context);
+        long[] previousFailedAttempts;
         try {
-            saveFailedPasswordAttempts(context, previousFailedAttempts);
+            failedAttemptsLog.append(System.currentTimeMillis());
+            previousFailedAttempts =
+                    failedAttemptsLog.readLatest(FAILED_PASSWORD_NOTIFICATION_LINES);
         } catch (IOException e) {
             Log.e(TAG, "Unable to save failed password attempts", e);
+            previousFailedAttempts = new long[0];
         }
 
         String content = maxAttempts == 0
@@ -440,8 +382,8 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
         inboxStyle.setBigContentTitle(title);
 
         final DateFormat dateFormat = SimpleDateFormat.getDateTimeInstance();
-        for(Date d : previousFailedAttempts) {
-            inboxStyle.addLine(dateFormat.format(d));
+        for (long timestamp : previousFailedAttempts) {
+            inboxStyle.addLine(dateFormat.format(new Date(timestamp)));
         }
         warn.setStyle(inboxStyle);
 
@@ -460,7 +402,9 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
     // @Override
     public void onPasswordSucceeded(Context context, Intent intent, UserHandle user) {
         if (Process.myUserHandle().equals(user)) {
-            logFile(context).delete();
+            failedPasswordAttempts(context).clear();
+            new File(context.getDir(LOGS_DIR, Context.MODE_PRIVATE),
+                    LEGACY_FAILED_PASSWORD_LOG_FILE).delete();
         }
     }
 
@@ -483,6 +427,12 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
         UserManager userManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         long serialNumber = userManager.getSerialNumberForUser(Binder.getCallingUserHandle());
         Log.i(TAG, "Device admin enabled in user with serial number: " + serialNumber);
+        FragmentRegistry.getInstance().invalidateAvailability();
+    }
+
+    @Override
+    public void onDisabled(Context context, Intent intent) {
+        FragmentRegistry.getInstance().invalidateAvailability();
     }
 
     private static File logFile(Context context) {
@@ -490,57 +440,8 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
         return new File(parent, FAILED_PASSWORD_LOG_FILE);
     }
 
-    private static ArrayList<Date> getFailedPasswordAttempts(Context context) {
-        File logFile = logFile(context);
-        ArrayList<Date> result = new ArrayList<Date>();
-
-        if(!logFile.exists()) {
-            return result;
-        }
-
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(logFile);
-            BufferedReader br = new BufferedReader(new InputStreamReader(fis));
-
-            String line = null;
-            while ((line = br.readLine()) != null && line.length() > 0) {
-                result.add(new Date(Long.parseLong(line)));
-            }
-
-            br.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Unable to read failed password attempts", e);
-        } finally {
-            if(fis != null) {
-                try {
-                    fis.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "Unable to close failed password attempts log file", e);
-                }
-            }
-        }
-
-        return result;
-    }
-
-    private static void saveFailedPasswordAttempts(Context context, ArrayList<Date> attempts)
-            throws IOException {
-        File logFile = logFile(context);
-
-        if(!logFile.exists()) {
-            logFile.createNewFile();
-        }
-
-        FileOutputStream fos = new FileOutputStream(logFile);
-        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos));
-
-        for(Date date : attempts) {
-            bw.write(Long.toString(date.getTime()));
-            bw.newLine();
-        }
-
-        bw.close();
+    private static TimestampRingBuffer failedPasswordAttempts(Context context) {
+        return new TimestampRingBuffer(logFile(context), FAILED_PASSWORD_LOG_CAPACITY);
     }
 
     private static void updatePasswordConstraintNotification(Context context) {
@@ -616,6 +517,7 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
 
     private void onProfileOwnerChanged(Context context) {
         Log.i(TAG, "onProfileOwnerChanged");
+        FragmentRegistry.getInstance().invalidateAvailability();
         NotificationUtil.showNotification(context,
                 R.string.transfer_ownership_profile_owner_changed_title,
                 context.getString(R.string.transfer_ownership_profile_owner_changed_title),
@@ -624,6 +526,7 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
 
     private void onDeviceOwnerChanged(Context context) {
         Log.i(TAG, "onDeviceOwnerChanged");
+        FragmentRegistry.getInstance().invalidateAvailability();
         NotificationUtil.showNotification(context,
                 R.string.transfer_ownership_device_owner_changed_title,
                 context.getString(R.string.transfer_ownership_device_owner_changed_title),
@@ -633,6 +536,7 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
     @TargetApi(Build.VERSION_CODES.P)
     public void onTransferOwnershipComplete(Context context, PersistableBundle bundle) {
         Log.i(TAG, "onTransferOwnershipComplete");
+        FragmentRegistry.getInstance().invalidateAvailability();
         NotificationUtil.showNotification(context,
                 R.string.transfer_ownership_complete_title,
                 context.getString(R.string.transfer_ownership_complete_message,
@@ -643,6 +547,7 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
     @TargetApi(Build.VERSION_CODES.P)
     public void onTransferAffiliatedProfileOwnershipComplete(Context context, UserHandle user) {
         Log.i(TAG, "onTransferAffiliatedProfileOwnershipComplete");
+        FragmentRegistry.getInstance().invalidateAvailability();
         NotificationUtil.showNotification(context,
                 R.string.transfer_ownership_affiliated_complete_title,
                 context.getString(R.string.transfer_ownership_affiliated_complete_message, user),
@@ -651,6 +556,7 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
 
     private void handleUserAction(Context context, UserHandle userHandle, int titleResId,
             int messageResId, int notificationId) {
+        FragmentRegistry.getInstance().invalidateAvailability();
         UserManager userManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
         String message = context.getString(messageResId,
                 userManager.getSerialNumberForUser(userHandle));
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.common;
+
+import android.support.annotation.MainThread;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands the items posted on the main thread to a consumer at most once per frame, e.g. so that a
+ * burst of appends to a list costs one layout pass rather than one per append.
+ */
+@MainThread
+public class FrameCoalescer<T> implements Choreographer.FrameCallback {
+    private final Consumer<T> mConsumer;
+    private List<T> mPending = new ArrayList<>();
+    private boolean mScheduled;
+
+    public FrameCoalescer(Consumer<T> consumer) {
+        mConsumer = consumer;
+    }
+
+    /**
+     * Queues an item for the next frame.
+     */
+    public void post(T item) {
+        mPending.add(item);
+        if (!mScheduled) {
+            mScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Drops the items not handed over yet.
+     */
+    public void cancel() {
+        if (mScheduled) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            mScheduled = false;
+        }
+        mPending.clear();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        final List<T> items = mPending;
+        mPending = new ArrayList<>();
+        mConsumer.accept(items);
+    }
+
+    /**
+     * Receives the items posted since the last frame, in order.
+     */
+    public interface Consumer<T> {
+        void accept(List<T> items);
+    }
+}
@@ -26,6 +26,7 @@ public class NotificationUtil {
     public static final int DEVICE_OWNER_CHANGED_ID = 9;
     public static final int TRANSFER_OWNERSHIP_COMPLETE_ID = 10;
     public static final int TRANSFER_AFFILIATED_PROFILE_OWNERSHIP_COMPLETE_ID = 11;
+    public static final int SECURITY_LOGS_EXPORT_NOTIFICATION_ID = 12;
 
     public static void showNotification(
             Context context, @StringRes int titleId, String msg, int notificationId) {
@@ -40,6 +41,24 @@ public class NotificationUtil {
         notificationManager.notify(notificationId, notification);
     }
 
+    /**
+     * Shows an ongoing notification with a progress bar, indeterminate if {@code max} is 0.
+     */
+    public static void showProgressNotification(Context context, @StringRes int titleId,
+            String msg, int progress, int max, int notificationId) {
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        Notification notification = getNotificationBuilder(context)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(context.getString(titleId))
+                .setContentText(msg)
+                .setProgress(max, progress, max == 0)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .build();
+        notificationManager.notify(notificationId, notification);
+    }
+
     public static NotificationCompat.Builder getNotificationBuilder(Context context) {
         if (BuildCompat.isAtLeastO()) {
             createDefaultNotificationChannel(context);
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Keeps the last timestamps appended to a file of fixed size, overwriting the oldest one once it
+ * is full, so that appending or reading the latest timestamps never depends on how many have been
+ * appended overall.
+ * <pre>
+ *   header     int magic | int capacity | int head | int count
+ *   records    long timestamp, capacity times
+ * </pre>
+ * {@code head} is the index of the record written next. A file with an unexpected header is
+ * started over.
+ */
+public class TimestampRingBuffer {
+    private static final int MAGIC = 0x54525242; // "TRRB"
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 8;
+
+    private final File mFile;
+    private final int mCapacity;
+
+    public TimestampRingBuffer(File file, int capacity) {
+        mFile = file;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Writes the timestamp over the oldest one if the buffer is full, then updates the header.
+     */
+    public void append(long timestamp) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            final int[] header = readHeader(file);
+            final int head = header[0];
+            final int count = header[1];
+            file.seek(HEADER_SIZE + (long) head * RECORD_SIZE);
+            file.writeLong(timestamp);
+            writeHeader(file, (head + 1) % mCapacity, Math.min(count + 1, mCapacity));
+        }
+    }
+
+    /**
+     * @return at most the given number of timestamps, the latest first
+     */
+    public long[] readLatest(int maxCount) throws IOException {
+        if (!mFile.exists()) {
+            return new long[0];
+        }
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            final int[] header = readHeader(file);
+            final int head = header[0];
+            final long[] timestamps = new long[Math.min(maxCount, header[1])];
+            for (int i = 0; i < timestamps.length; i++) {
+                final int index = (head - 1 - i + mCapacity) % mCapacity;
+                file.seek(HEADER_SIZE + (long) index * RECORD_SIZE);
+                timestamps[i] = file.readLong();
+            }
+            return timestamps;
+        }
+    }
+
+    public void clear() {
+        mFile.delete();
+    }
+
+    /**
+     * @return the head and count, both 0 for a new or unexpected file
+     */
+    private int[] readHeader(RandomAccessFile file) throws IOException {
+        if (file.length() == HEADER_SIZE + (long) mCapacity * RECORD_SIZE) {
+            file.seek(0);
+            final int magic = file.readInt();
+            final int capacity = file.readInt();
+            final int head = file.readInt();
+            final int count = file.readInt();
+            if (magic == MAGIC && capacity == mCapacity && head >= 0 && head < mCapacity
+                    && count >= 0 && count <= mCapacity) {
+                return new int[] {head, count};
+            }
+        }
+        return new int[] {0, 0};
+    }
+
+    private void writeHeader(RandomAccessFile file, int head, int count) throws IOException {
+        file.setLength(HEADER_SIZE + (long) mCapacity * RECORD_SIZE);
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeInt(mCapacity);
+        file.writeInt(head);
+        file.writeInt(count);
+    }
+}
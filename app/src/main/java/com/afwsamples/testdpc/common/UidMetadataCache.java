@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.common;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide cache of the packages, label and icon of uids, so that lists showing uids do not
+ * call {@link PackageManager} while they are scrolled.
+ * <ul>
+ * <li>Metadata is loaded on a background thread and handed to a callback on the main thread.</li>
+ * <li>Icons are drawn into bitmaps of the launcher icon size, and the cache is bounded by the
+ * size of these bitmaps.</li>
+ * <li>A receiver registered for the lifetime of the process invalidates the uids of the packages
+ * that are added, removed or replaced, whatever the admin state and API level.</li>
+ * </ul>
+ * All the methods must be called on the main thread.
+ */
+@MainThread
+public class UidMetadataCache {
+    private static final String TAG = "UidMetadataCache";
+    private static final int CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+    /** Rough size of an entry besides its icon. */
+    private static final int ENTRY_SIZE_BYTES = 256;
+
+    private static UidMetadataCache sInstance;
+
+    private final PackageManager mPackageManager;
+    private final int mIconSize;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<Integer, UidMetadata> mCache =
+            new LruCache<Integer, UidMetadata>(CACHE_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(Integer uid, UidMetadata metadata) {
+                    return ENTRY_SIZE_BYTES
+                            + (metadata.icon != null ? metadata.icon.getByteCount() : 0);
+                }
+            };
+    /** Callbacks waiting for the uids being loaded. */
+    private final SparseArray<List<Callback>> mPendingCallbacks = new SparseArray<>();
+    /**
+     * Incremented by every invalidation, a load started before is done again rather than cached.
+     */
+    private int mGeneration;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getData() == null) {
+                return;
+            }
+            // Replacing a package also sends these, with EXTRA_REPLACING.
+            invalidate(intent.getIntExtra(Intent.EXTRA_UID, -1),
+                    intent.getData().getSchemeSpecificPart());
+        }
+    };
+
+    private UidMetadataCache(Context context) {
+        mPackageManager = context.getPackageManager();
+        mIconSize = context.getResources().getDimensionPixelSize(android.R.dimen.app_icon_size);
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        // Registered on the application context, so that it lives as long as the cache.
+        context.registerReceiver(mPackageReceiver, filter);
+    }
+
+    public static synchronized UidMetadataCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new UidMetadataCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the metadata of the uid if it is cached, otherwise {@code null}, in which case it is
+     * loaded in the background and handed to the callback
+     */
+    public UidMetadata get(int uid, Callback callback) {
+        final UidMetadata metadata = mCache.get(uid);
+        if (metadata != null) {
+            return metadata;
+        }
+        List<Callback> callbacks = mPendingCallbacks.get(uid);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            mPendingCallbacks.put(uid, callbacks);
+            load(uid);
+        }
+        callbacks.add(callback);
+        return null;
+    }
+
+    /**
+     * Drops the uid and the uids holding the package, e.g. as the package has been added,
+     * removed or replaced.
+     */
+    public void invalidate(int uid, String packageName) {
+        mGeneration++;
+        mCache.remove(uid);
+        for (Map.Entry<Integer, UidMetadata> entry : mCache.snapshot().entrySet()) {
+            if (Arrays.asList(entry.getValue().packageNames).contains(packageName)) {
+                mCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    private void load(final int uid) {
+        final int generation = mGeneration;
+        mExecutor.execute(() -> {
+            final UidMetadata metadata = loadMetadata(uid);
+            mHandler.post(() -> {
+                if (generation != mGeneration) {
+                    // The packages may have changed while it was loading.
+                    load(uid);
+                    return;
+                }
+                mCache.put(uid, metadata);
+                final List<Callback> callbacks = mPendingCallbacks.get(uid);
+                mPendingCallbacks.remove(uid);
+                for (Callback callback : callbacks) {
+                    callback.onUidMetadataLoaded(metadata);
+                }
+            });
+        });
+    }
+
+    private UidMetadata loadMetadata(int uid) {
+        final String[] packageNames = mPackageManager.getPackagesForUid(uid);
+        if (packageNames == null) {
+            return new UidMetadata(uid, new String[0], null, null);
+        }
+        CharSequence label = null;
+        Drawable icon = null;
+        try {
+            if (packageNames.length == 1) {
+                final ApplicationInfo info = mPackageManager.getApplicationInfo(packageNames[0],
+                        0 /* no flags */);
+                label = info.loadLabel(mPackageManager);
+                icon = info.loadIcon(mPackageManager);
+            } else {
+                // Packages sharing a uid may name it with a shared user label.
+                for (String packageName : packageNames) {
+                    final PackageInfo packageInfo = mPackageManager.getPackageInfo(packageName,
+                            0 /* no flags */);
+                    if (packageInfo.sharedUserLabel != 0) {
+                        label = mPackageManager.getText(packageName,
+                                packageInfo.sharedUserLabel, packageInfo.applicationInfo);
+                        icon = packageInfo.applicationInfo.loadIcon(mPackageManager);
+                    }
+                }
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Package of uid " + uid + " not found", e);
+        }
+        return new UidMetadata(uid, packageNames, label, icon != null ? drawIcon(icon) : null);
+    }
+
+    private Bitmap drawIcon(Drawable drawable) {
+        final Bitmap bitmap = Bitmap.createBitmap(mIconSize, mIconSize, Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, mIconSize, mIconSize);
+        drawable.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    /**
+     * What is known of a uid. The label and icon are {@code null} if the uid has no package or
+     * its packages do not name it.
+     */
+    public static class UidMetadata {
+        public final int uid;
+        public final String[] packageNames;
+        public final CharSequence label;
+        public final Bitmap icon;
+
+        UidMetadata(int uid, String[] packageNames, CharSequence label, Bitmap icon) {
+            this.uid = uid;
+            this.packageNames = packageNames;
+            this.label = label;
+            this.icon = icon;
+        }
+    }
+
+    public interface Callback {
+        void onUidMetadataLoaded(UidMetadata metadata);
+    }
+}
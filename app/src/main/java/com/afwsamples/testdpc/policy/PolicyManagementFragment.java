@@ -108,6 +108,9 @@ import com.afwsamples.testdpc.policy.locktask.SetLockTaskFeaturesFragment;
 import com.afwsamples.testdpc.policy.networking.AlwaysOnVpnFragment;
 import com.afwsamples.testdpc.policy.networking.NetworkUsageStatsFragment;
 import com.afwsamples.testdpc.policy.resetpassword.ResetPasswordWithTokenFragment;
+import com.afwsamples.testdpc.policy.networklogs.NetworkLogRetentionManager;
+import com.afwsamples.testdpc.policy.networklogs.NetworkLogsFragment;
+import com.afwsamples.testdpc.policy.securitylogs.SecurityLogsFragment;
 import com.afwsamples.testdpc.policy.systemupdatepolicy.SystemUpdatePolicyFragment;
 import com.afwsamples.testdpc.policy.wifimanagement.WifiConfigCreationDialog;
 import com.afwsamples.testdpc.policy.wifimanagement.WifiEapTlsCreateDialogFragment;
@@ -529,6 +532,12 @@ public class PolicyManagementFragment extends BaseSearchablePolicyPreferenceFrag
             () -> isNetworkLoggingEnabled()
                 ? NO_CUSTOM_CONSTRIANT
                 : R.string.requires_network_logs);
+        for (String key : new String[] {NetworkLogRetentionManager.MAX_STORAGE_MB_KEY,
+                NetworkLogRetentionManager.MAX_AGE_DAYS_KEY}) {
+            EditTextPreference budgetPreference = (EditTextPreference) findPreference(key);
+            budgetPreference.setOnPreferenceChangeListener(this);
+            budgetPreference.setSummary(budgetPreference.getText());
+        }
         findPreference(SET_ACCESSIBILITY_SERVICES_KEY).setOnPreferenceClickListener(this);
         findPreference(SET_INPUT_METHODS_KEY).setOnPreferenceClickListener(this);
         findPreference(SET_NOTIFICATION_LISTENERS_KEY).setOnPreferenceClickListener(this);
@@ -1114,6 +1123,14 @@ public class PolicyManagementFragment extends BaseSearchablePolicyPreferenceFrag
             case OVERRIDE_KEY_SELECTION_KEY:
                 preference.setSummary((String) newValue);
                 return true;
+            case NetworkLogRetentionManager.MAX_STORAGE_MB_KEY:
+            case NetworkLogRetentionManager.MAX_AGE_DAYS_KEY:
+                if (NetworkLogRetentionManager.parseBudget((String) newValue) == -1) {
+                    showToast(R.string.network_logs_invalid_budget);
+                    return false;
+                }
+                preference.setSummary((String) newValue);
+                return true;
             case DISABLE_CAMERA_KEY:
                 setCameraDisabled((Boolean) newValue);
                 // Reload UI to verify the camera is enable / disable correctly.
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networking;
+
+import android.annotation.TargetApi;
+import android.app.usage.NetworkStats;
+import android.app.usage.NetworkStatsManager;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the per-uid usage history of {@link NetworkStatsManager#queryDetails} as hourly rollups,
+ * so that a range overlapping what was already loaded only costs queries for the missing hours.
+ * <p>
+ * Hours are cached once they are settled, i.e. old enough for the platform not to add to their
+ * buckets anymore. The hours after that are queried again every time. Daily and weekly rollups
+ * are summed from the hourly ones. Ranges are widened to whole hours, and a bucket counts in the
+ * hour it starts in.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class NetworkUsageCache extends SQLiteOpenHelper {
+    private static final String TAG = "NetworkUsageCache";
+    private static final String DATABASE_NAME = "network_usage_cache.db";
+    private static final int DATABASE_VERSION = 1;
+
+    public static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    public static final long WEEK_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * How long after its end an hour is considered settled. Uid buckets are usually two hours
+     * long and the platform only persists them every so often, so this leaves some slack.
+     */
+    private static final long SETTLE_MILLIS = TimeUnit.HOURS.toMillis(4);
+    /** Missing ranges are queried one slice at a time, to report progress and to cancel. */
+    private static final long SLICE_MILLIS = DAY_MILLIS;
+    /** Older rollups are dropped, the platform does not keep uid history for that long. */
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(120);
+
+    private static final String CREATE_TABLE_HOURLY_USAGE =
+            "CREATE TABLE " + HourlyUsageTable.TABLE_NAME + " (" +
+                    HourlyUsageTable.NETWORK_TYPE + " INTEGER NOT NULL," +
+                    HourlyUsageTable.UID + " INTEGER NOT NULL," +
+                    HourlyUsageTable.STATE + " INTEGER NOT NULL," +
+                    HourlyUsageTable.HOUR + " INTEGER NOT NULL," +
+                    HourlyUsageTable.RX_BYTES + " INTEGER NOT NULL," +
+                    HourlyUsageTable.RX_PACKETS + " INTEGER NOT NULL," +
+                    HourlyUsageTable.TX_BYTES + " INTEGER NOT NULL," +
+                    HourlyUsageTable.TX_PACKETS + " INTEGER NOT NULL" +
+                    ");";
+    private static final String CREATE_INDEX_HOURLY_USAGE =
+            "CREATE INDEX " + HourlyUsageTable.TABLE_NAME + "_hour ON " +
+                    HourlyUsageTable.TABLE_NAME + " (" + HourlyUsageTable.NETWORK_TYPE + ", " +
+                    HourlyUsageTable.HOUR + ");";
+    private static final String CREATE_TABLE_COVERAGE =
+            "CREATE TABLE " + CoverageTable.TABLE_NAME + " (" +
+                    CoverageTable.NETWORK_TYPE + " INTEGER NOT NULL," +
+                    CoverageTable.START_TIME + " INTEGER NOT NULL," +
+                    CoverageTable.END_TIME + " INTEGER NOT NULL" +
+                    ");";
+    private static final String INSERT_HOURLY_USAGE_SQL =
+            "INSERT INTO " + HourlyUsageTable.TABLE_NAME + "(" + HourlyUsageTable.NETWORK_TYPE +
+                    ", " + HourlyUsageTable.UID + ", " + HourlyUsageTable.STATE + ", " +
+                    HourlyUsageTable.HOUR + ", " + HourlyUsageTable.RX_BYTES + ", " +
+                    HourlyUsageTable.RX_PACKETS + ", " + HourlyUsageTable.TX_BYTES + ", " +
+                    HourlyUsageTable.TX_PACKETS + ") VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+    /** The period start is computed in the query, see {@link #buildRollupSQL}. */
+    private static final String ROLLUP_SQL = "SELECT " + HourlyUsageTable.UID + ", " +
+            HourlyUsageTable.STATE + ", %1$s AS period_start, SUM(" +
+            HourlyUsageTable.RX_BYTES + "), SUM(" + HourlyUsageTable.RX_PACKETS + "), SUM(" +
+            HourlyUsageTable.TX_BYTES + "), SUM(" + HourlyUsageTable.TX_PACKETS + ") FROM " +
+            HourlyUsageTable.TABLE_NAME + " WHERE " + HourlyUsageTable.NETWORK_TYPE + " = ? AND " +
+            HourlyUsageTable.HOUR + " >= ? AND " + HourlyUsageTable.HOUR + " < ? GROUP BY " +
+            HourlyUsageTable.UID + ", " + HourlyUsageTable.STATE + ", period_start ORDER BY " +
+            HourlyUsageTable.UID + ", period_start";
+
+    private static NetworkUsageCache sInstance;
+
+    private NetworkUsageCache(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static synchronized NetworkUsageCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkUsageCache(context);
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_HOURLY_USAGE);
+        db.execSQL(CREATE_INDEX_HOURLY_USAGE);
+        db.execSQL(CREATE_TABLE_COVERAGE);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything can be queried again from the platform.
+        db.execSQL("DROP TABLE IF EXISTS " + HourlyUsageTable.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CoverageTable.TABLE_NAME);
+        onCreate(db);
+    }
+
+    /**
+     * @return the rollup period used to show the history of the given range: hours for a couple
+     * of days, days for a couple of months and weeks beyond
+     */
+    public static long getRollupPeriod(long startTime, long endTime) {
+        final long length = endTime - startTime;
+        if (length <= 2 * DAY_MILLIS) {
+            return HOUR_MILLIS;
+        }
+        if (length <= 62 * DAY_MILLIS) {
+            return DAY_MILLIS;
+        }
+        return WEEK_MILLIS;
+    }
+
+    /**
+     * Queries the platform for the hours of the range that are not cached yet, then reads the
+     * usage history of the range from the cache.
+     *
+     * @param period length of the rollups, a multiple of {@link #HOUR_MILLIS}, counted from the
+     *               start of the range
+     * @return one row per uid, holding one bucket per period with usage, or {@code null} if the
+     * listener cancelled the query
+     */
+    @WorkerThread
+    public synchronized NetworkUsageStore queryHistory(NetworkStatsManager networkStatsManager,
+            int networkType, long startTime, long endTime, long period,
+            ProgressListener listener) throws RemoteException {
+        final long queryStartTime = SystemClock.elapsedRealtime();
+        final long firstHour = floorHour(startTime);
+        final long settledEnd = floorHour(System.currentTimeMillis() - SETTLE_MILLIS);
+        final long cachedEnd = Math.min(ceilHour(endTime), settledEnd);
+        final SQLiteDatabase db = getWritableDatabase();
+        prune(db, settledEnd - MAX_AGE_MILLIS);
+
+        final List<long[]> slices = getMissingSlices(db, networkType, firstHour, cachedEnd);
+        for (int i = 0; i < slices.size(); i++) {
+            if (listener.isCancelled()) {
+                return null;
+            }
+            final long[] slice = slices.get(i);
+            fetch(db, networkStatsManager, networkType, slice[0], slice[1], true, listener);
+            listener.onSliceFetched(i + 1, slices.size());
+        }
+        // Unsettled hours are queried every time and replace what the last query left.
+        final long liveStart = Math.max(firstHour, settledEnd);
+        if (endTime > liveStart) {
+            fetch(db, networkStatsManager, networkType, liveStart, endTime, false, listener);
+        }
+        if (listener.isCancelled()) {
+            return null;
+        }
+
+        final NetworkUsageStore store = new NetworkUsageStore(true /* groupByUid */);
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(buildRollupSQL(firstHour, period), new String[] {
+                    Integer.toString(networkType), Long.toString(firstHour),
+                    Long.toString(endTime)});
+            while (cursor.moveToNext()) {
+                final long periodStart = cursor.getLong(2);
+                store.add(cursor.getInt(0), cursor.getInt(1), periodStart,
+                        Math.min(periodStart + period, endTime), cursor.getLong(3),
+                        cursor.getLong(4), cursor.getLong(5), cursor.getLong(6));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        Log.d(TAG, "Queried " + slices.size() + " missing slices and read "
+                + store.getBucketCount() + " rollups in "
+                + (SystemClock.elapsedRealtime() - queryStartTime) + "ms");
+        return store;
+    }
+
+    private static String buildRollupSQL(long firstHour, long period) {
+        // Integer division in SQLite truncates, the hours are never before the first one.
+        final String periodStart = firstHour + " + (" + HourlyUsageTable.HOUR + " - " + firstHour
+                + ") / " + period + " * " + period;
+        return String.format(ROLLUP_SQL, periodStart);
+    }
+
+    /**
+     * @return the ranges of [start, end) that are not cached, cut in slices of at most
+     * {@link #SLICE_MILLIS}
+     */
+    private static List<long[]> getMissingSlices(SQLiteDatabase db, int networkType, long start,
+            long end) {
+        List<long[]> slices = new ArrayList<>();
+        if (start >= end) {
+            return slices;
+        }
+        long position = start;
+        Cursor cursor = null;
+        try {
+            cursor = db.query(CoverageTable.TABLE_NAME,
+                    new String[] {CoverageTable.START_TIME, CoverageTable.END_TIME},
+                    CoverageTable.NETWORK_TYPE + " = ? AND " + CoverageTable.END_TIME + " > ? AND "
+                            + CoverageTable.START_TIME + " < ?",
+                    new String[] {Integer.toString(networkType), Long.toString(start),
+                            Long.toString(end)},
+                    null, null, CoverageTable.START_TIME);
+            while (cursor.moveToNext()) {
+                final long coveredStart = cursor.getLong(0);
+                if (coveredStart > position) {
+                    addSlices(slices, position, coveredStart);
+                }
+                position = Math.max(position, cursor.getLong(1));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        if (position < end) {
+            addSlices(slices, position, end);
+        }
+        return slices;
+    }
+
+    private static void addSlices(List<long[]> slices, long start, long end) {
+        for (long sliceStart = start; sliceStart < end; sliceStart += SLICE_MILLIS) {
+            slices.add(new long[] {sliceStart, Math.min(sliceStart + SLICE_MILLIS, end)});
+        }
+    }
+
+    /**
+     * Replaces the rollups of the hours in [start, end) with the buckets starting in that range,
+     * and records the range as cached if it is settled.
+     */
+    private static void fetch(SQLiteDatabase db, NetworkStatsManager networkStatsManager,
+            int networkType, long start, long end, boolean settled, ProgressListener listener)
+            throws RemoteException {
+        final String[] networkTypeArgs = {Integer.toString(networkType)};
+        NetworkStats result = null;
+        SQLiteStatement insert = null;
+        db.beginTransaction();
+        try {
+            result = networkStatsManager.queryDetails(networkType, "", start, end);
+            // Unsettled hours are deleted up to the end of time, as they are never covered.
+            db.delete(HourlyUsageTable.TABLE_NAME, HourlyUsageTable.NETWORK_TYPE + " = ? AND "
+                            + HourlyUsageTable.HOUR + " >= " + start
+                            + (settled ? " AND " + HourlyUsageTable.HOUR + " < " + end : ""),
+                    networkTypeArgs);
+            insert = db.compileStatement(INSERT_HOURLY_USAGE_SQL);
+            // The bucket is only a cursor, its values are copied into the database.
+            final NetworkStats.Bucket bucket = new NetworkStats.Bucket();
+            while (result != null && result.hasNextBucket()) {
+                if (listener.isCancelled()) {
+                    return;
+                }
+                result.getNextBucket(bucket);
+                final long bucketStart = bucket.getStartTimeStamp();
+                // Buckets overlapping the range start belong to the previous range.
+                if (bucketStart < start || (settled && bucketStart >= end)) {
+                    continue;
+                }
+                insert.bindLong(1, networkType);
+                insert.bindLong(2, bucket.getUid());
+                insert.bindLong(3, bucket.getState());
+                insert.bindLong(4, floorHour(bucketStart));
+                insert.bindLong(5, bucket.getRxBytes());
+                insert.bindLong(6, bucket.getRxPackets());
+                insert.bindLong(7, bucket.getTxBytes());
+                insert.bindLong(8, bucket.getTxPackets());
+                insert.executeInsert();
+            }
+            if (settled) {
+                db.execSQL("INSERT INTO " + CoverageTable.TABLE_NAME + "("
+                        + CoverageTable.NETWORK_TYPE + ", " + CoverageTable.START_TIME + ", "
+                        + CoverageTable.END_TIME + ") VALUES(?, ?, ?)",
+                        new Object[] {networkType, start, end});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (insert != null) {
+                insert.close();
+            }
+            if (result != null) {
+                result.close();
+            }
+        }
+    }
+
+    private static void prune(SQLiteDatabase db, long oldestTime) {
+        db.delete(HourlyUsageTable.TABLE_NAME, HourlyUsageTable.HOUR + " < " + oldestTime, null);
+        db.delete(CoverageTable.TABLE_NAME, CoverageTable.END_TIME + " <= " + oldestTime, null);
+    }
+
+    private static long floorHour(long time) {
+        // Times are after the epoch, so the remainder is never negative.
+        return time - time % HOUR_MILLIS;
+    }
+
+    private static long ceilHour(long time) {
+        final long floor = floorHour(time);
+        return floor == time ? time : floor + HOUR_MILLIS;
+    }
+
+    /**
+     * Lets the caller of {@link #queryHistory} follow and cancel it.
+     */
+    public interface ProgressListener {
+        boolean isCancelled();
+
+        /**
+         * Called after each slice of the missing hours has been queried and cached.
+         */
+        void onSliceFetched(int fetchedSlices, int totalSlices);
+    }
+
+    private static class HourlyUsageTable {
+        private static final String TABLE_NAME = "hourly_usage";
+        /**
+         * One of the {@code ConnectivityManager.TYPE_*} network types.
+         */
+        private static final String NETWORK_TYPE = "network_type";
+        private static final String UID = "uid";
+        /**
+         * One of the {@code NetworkStats.Bucket.STATE_*} states.
+         */
+        private static final String STATE = "state";
+        /**
+         * Start of the hour, in milliseconds since the epoch. A uid may have several rows per
+         * hour, they are summed when read.
+         */
+        private static final String HOUR = "hour";
+        private static final String RX_BYTES = "rx_bytes";
+        private static final String RX_PACKETS = "rx_packets";
+        private static final String TX_BYTES = "tx_bytes";
+        private static final String TX_PACKETS = "tx_packets";
+    }
+
+    /**
+     * The settled ranges that have been queried from the platform, whether they had usage or not.
+     */
+    private static class CoverageTable {
+        private static final String TABLE_NAME = "coverage";
+        private static final String NETWORK_TYPE = "network_type";
+        private static final String START_TIME = "start_time";
+        private static final String END_TIME = "end_time";
+    }
+}
@@ -23,43 +23,47 @@ import android.app.ListFragment;
 import android.app.usage.NetworkStats;
 import android.app.usage.NetworkStatsManager;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.net.ConnectivityManager;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.text.Html;
 import android.text.Spanned;
 import android.text.format.Formatter;
-import android.util.SparseArray;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.DatePicker;
 import android.widget.ImageView;
 import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 
 import com.afwsamples.testdpc.R;
+import com.afwsamples.testdpc.common.UidMetadataCache;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
 
 /**
  * Fragment for checking network usage of apps using {@link android.app.usage.NetworkStatsManager}
+ * <p>
+ * Queries run in the background and are cancelled when the query or the date range changes. The
+ * per-app results are streamed into the list as the buckets are read. The per-app history is
+ * read from {@link NetworkUsageCache}, in hourly, daily or weekly rollups depending on the range.
+ * </p>
  */
 @TargetApi(Build.VERSION_CODES.M)
 public class NetworkUsageStatsFragment extends ListFragment implements View.OnClickListener,
@@ -73,8 +77,12 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
     private static final int QUERY_APPSUMMARY_POS = 3;
     private static final int QUERY_APPHISTORY_POS = 4;
 
+    /** Minimum interval between two updates of the list while buckets are read. */
+    private static final long PUBLISH_INTERVAL_MS = 100;
+
     private NetworkStatsManager mNetstatsManager;
     private PackageManager mPackageManager;
+    private UidMetadataCache mUidMetadataCache;
 
     private Spinner mQuerySpinner;
     private TextView mExplanation;
@@ -84,8 +92,11 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
     private Button mEndDateButton;
     private TextView mDataUsageSummary;
     private ListView mDataUsageList;
-    private List<List<NetworkStats.Bucket>> mListData;
-    private ArrayAdapter<List<NetworkStats.Bucket>> mListAdapter;
+    private NetworkUsageStore mStore = new NetworkUsageStore(false /* groupByUid */);
+    private BaseAdapter mListAdapter;
+    private ProgressBar mQueryProgress;
+    private TextView mQueryProgressText;
+    private QueryTask mQueryTask;
     private ListView mAppHistoryList;
     private Button mBackToAppsListButton;
     private DateFormat mDateStringFormat;
@@ -107,12 +118,26 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
         getActivity().getActionBar().setTitle(R.string.data_usage);
 
         mPackageManager = getActivity().getPackageManager();
+        mUidMetadataCache = UidMetadataCache.getInstance(getActivity());
         mNetstatsManager = (NetworkStatsManager)getActivity().getSystemService(
                 Context.NETWORK_STATS_SERVICE);
 
-        mListData = new ArrayList<>();
-        mListAdapter = new ArrayAdapter<List<NetworkStats.Bucket>>(getActivity(),
-                R.layout.data_usage_item, android.R.id.title, mListData) {
+        mListAdapter = new BaseAdapter() {
+            @Override
+            public int getCount() {
+                return mStore.getRowCount();
+            }
+
+            @Override
+            public NetworkUsageStore.UidUsage getItem(int position) {
+                return mStore.getRow(position);
+            }
+
+            @Override
+            public long getItemId(int position) {
+                return position;
+            }
+
             @Override
             public View getView(int position, View convertView, ViewGroup parent) {
                 View appView = convertView;
@@ -124,8 +149,7 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
                     ImageView imageView = (ImageView) appView.findViewById(android.R.id.icon);
                     appView.setTag(new ViewHolder(title, summary, state, imageView));
                 }
-                List<NetworkStats.Bucket> item = getItem(position);
-                bindView(appView, item);
+                bindView(appView, getItem(position));
                 return appView;
             }
         };
@@ -151,9 +175,17 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
         if (mBackToAppsListButton != null) {
             mBackToAppsListButton.setOnClickListener(this);
         }
+        mQueryProgress = (ProgressBar) view.findViewById(R.id.query_progress);
+        mQueryProgressText = (TextView) view.findViewById(R.id.query_progress_text);
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        cancelQuery();
+        super.onDestroyView();
+    }
+
     @Override
     public void onClick(View v) {
         switch (v.getId()) {
@@ -171,82 +203,50 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
 
     @Override
     public void onItemSelected(AdapterView<?> parent, View view, int pos, long id) {
-        NetworkStats result = null;
-        NetworkStats.Bucket bucket = null;
+        runQuery(pos);
+    }
+
+    /**
+     * Cancels the running query, if any, then starts the given one in the background.
+     */
+    private void runQuery(int pos) {
+        cancelQuery();
         mDataUsageSummary.setVisibility(View.GONE);
         mDataUsageList.setVisibility(View.GONE);
         mAppHistoryList.setVisibility(View.GONE);
         mBackToAppsListButton.setVisibility(View.GONE);
         mExplanation.setText("");
-        try {
-            switch (pos) {
-                case QUERY_DEVICE_POS: {
-                    bucket = mNetstatsManager.querySummaryForDevice(
-                            ConnectivityManager.TYPE_WIFI, "", mStartDate.getTime(),
-                            mEndDate.getTime());
-                    mExplanation.setText(R.string.network_stats_device_summary_explanation);
-                    mDataUsageSummary.setText(getString(R.string.network_stats_device_summary,
-                            formatSize(bucket.getRxBytes()), bucket.getRxPackets(),
-                            formatSize(bucket.getTxBytes()), bucket.getTxPackets()));
-                    mDataUsageSummary.setVisibility(View.VISIBLE);
-                } break;
-                case QUERY_PROFILE_POS: {
-                    bucket = mNetstatsManager.querySummaryForUser(
-                            ConnectivityManager.TYPE_WIFI, "", mStartDate.getTime(),
-                            mEndDate.getTime());
-                    mExplanation.setText(R.string.network_stats_profile_summary_explanation);
-                    mDataUsageSummary.setText(getString(R.string.network_stats_profile_summary,
-                            formatSize(bucket.getRxBytes()), bucket.getRxPackets(),
-                            formatSize(bucket.getTxBytes()), bucket.getTxPackets()));
-                    mDataUsageSummary.setVisibility(View.VISIBLE);
-                } break;
-                case QUERY_APPSUMMARY_POS: {
-                    result = mNetstatsManager.querySummary(
-                            ConnectivityManager.TYPE_WIFI, "", mStartDate.getTime(),
-                            mEndDate.getTime());
-                    mListData.clear();
-                    if (result != null) {
-                        while (result.hasNextBucket()) {
-                            bucket = new NetworkStats.Bucket();
-                            result.getNextBucket(bucket);
-                            mListData.add(Arrays.asList(new NetworkStats.Bucket[] { bucket }));
-                        }
-                    }
-                    mListAdapter.notifyDataSetChanged();
-                    mDataUsageList.setVisibility(View.VISIBLE);
-                } break;
-                case QUERY_APPHISTORY_POS: {
-                    result = mNetstatsManager.queryDetails(
-                            ConnectivityManager.TYPE_WIFI, "", mStartDate.getTime(),
-                            mEndDate.getTime());
-                    mListData.clear();
-                    SparseArray<List<NetworkStats.Bucket>> uidMap = new SparseArray<>();
-                    if (result != null) {
-                        while (result.hasNextBucket()) {
-                            bucket = new NetworkStats.Bucket();
-                            result.getNextBucket(bucket);
-                            final int uid = bucket.getUid();
-                            List<NetworkStats.Bucket> list = uidMap.get(uid);
-                            if (list == null) {
-                                list = new ArrayList<NetworkStats.Bucket>();
-                                mListData.add(list);
-                                uidMap.put(uid, list);
-                            }
-                            list.add(bucket);
-                        }
-                    }
-                    mListAdapter.notifyDataSetChanged();
-                    mDataUsageList.setVisibility(View.VISIBLE);
-                } break;
-            }
-        } catch (SecurityException e) {
-            showErrorDialog(getString(R.string.network_stats_security_error_msg));
-        } catch (RemoteException | NumberFormatException e) {
-            showErrorDialog(e.toString());
-        } finally {
-            if (result != null) {
-                result.close();
-            }
+        mStore = new NetworkUsageStore(pos == QUERY_APPHISTORY_POS /* groupByUid */);
+        mListAdapter.notifyDataSetChanged();
+        switch (pos) {
+            case QUERY_DEVICE_POS:
+                mExplanation.setText(R.string.network_stats_device_summary_explanation);
+                break;
+            case QUERY_PROFILE_POS:
+                mExplanation.setText(R.string.network_stats_profile_summary_explanation);
+                break;
+            case QUERY_APPSUMMARY_POS:
+            case QUERY_APPHISTORY_POS:
+                mDataUsageList.setVisibility(View.VISIBLE);
+                break;
+            default:
+                return;
+        }
+        mQueryProgress.setVisibility(View.VISIBLE);
+        mQueryProgressText.setText(R.string.network_stats_loading);
+        mQueryProgressText.setVisibility(View.VISIBLE);
+        mQueryTask = new QueryTask(getActivity(), pos, mStartDate.getTime(), mEndDate.getTime());
+        mQueryTask.execute();
+    }
+
+    private void cancelQuery() {
+        if (mQueryTask != null) {
+            mQueryTask.cancel(false);
+            mQueryTask = null;
+        }
+        if (mQueryProgress != null) {
+            mQueryProgress.setVisibility(View.GONE);
+            mQueryProgressText.setVisibility(View.GONE);
         }
     }
 
@@ -257,30 +257,44 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
 
     @Override
     public void onListItemClick (ListView l, View v, int position, long id) {
-        List<NetworkStats.Bucket> item = mListAdapter.getItem(position);
+        final NetworkUsageStore.UidUsage item = mStore.getRow(position);
         transitionAppHistoryView(View.GONE);
-        if (item != null && item.size() > 1) {
+        if (item.size() > 1) {
             transitionAppHistoryView(View.VISIBLE);
-            ArrayAdapter<NetworkStats.Bucket> adapter = new ArrayAdapter<NetworkStats.Bucket>(
-                    getActivity(), android.R.layout.two_line_list_item, android.R.id.title, item) {
-                        @Override
-                        public View getView(int position, View convertView, ViewGroup parent) {
-                            View view = convertView;
-                            if (convertView == null) {
-                                view = getActivity().getLayoutInflater().inflate(
-                                        R.layout.network_usage_app_history_item, parent, false);
-                            }
-                            NetworkStats.Bucket item = getItem(position);
-                            Date startDate = new Date(item.getStartTimeStamp());
-                            Date endDate = new Date(item.getEndTimeStamp());
-                            TextView text1 = (TextView) view.findViewById(R.id.text1);
-                            TextView text2 = (TextView) view.findViewById(R.id.text2);
-                            text1.setText(getDateString(startDate, endDate));
-                            text2.setText(getString(R.string.network_stats_bucket_usage,
-                                    formatSize(item.getRxBytes()), item.getRxPackets(),
-                                    formatSize(item.getTxBytes()), item.getTxPackets()));
-                            return view;
-                        }
+            // Rows are formatted from the columns of the store as they are scrolled into view.
+            BaseAdapter adapter = new BaseAdapter() {
+                @Override
+                public int getCount() {
+                    return item.size();
+                }
+
+                @Override
+                public Object getItem(int position) {
+                    return null;
+                }
+
+                @Override
+                public long getItemId(int position) {
+                    return position;
+                }
+
+                @Override
+                public View getView(int position, View convertView, ViewGroup parent) {
+                    View view = convertView;
+                    if (convertView == null) {
+                        view = getActivity().getLayoutInflater().inflate(
+                                R.layout.network_usage_app_history_item, parent, false);
+                    }
+                    Date startDate = new Date(item.getStartTime(position));
+                    Date endDate = new Date(item.getEndTime(position));
+                    TextView text1 = (TextView) view.findViewById(R.id.text1);
+                    TextView text2 = (TextView) view.findViewById(R.id.text2);
+                    text1.setText(getDateString(startDate, endDate));
+                    text2.setText(getString(R.string.network_stats_bucket_usage,
+                            formatSize(item.getRxBytes(position)), item.getRxPackets(position),
+                            formatSize(item.getTxBytes(position)), item.getTxPackets(position)));
+                    return view;
+                }
 
                 private Spanned getDateString(Date startDate, Date endDate) {
                     String startDateString = mDateStringFormat.format(startDate);
@@ -317,6 +331,7 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
                         calendar.set(Calendar.DAY_OF_MONTH, dayOfMonth);
                         target.setTime(calendar.getTimeInMillis());
                         updateButtonsText();
+                        runQuery(mQuerySpinner.getSelectedItemPosition());
                     }
                 }, calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH),
                 calendar.get(Calendar.DAY_OF_MONTH));
@@ -345,7 +360,7 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
         return calendar.getTime();
     }
 
-    private void bindView(View appView, List<NetworkStats.Bucket> item) {
+    private void bindView(View appView, NetworkUsageStore.UidUsage item) {
         final ViewHolder viewHolder = (ViewHolder) appView.getTag();
         final TextView title = viewHolder.title;
         final TextView summary = viewHolder.summary;
@@ -353,8 +368,9 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
         final ImageView imageView = viewHolder.image;
         final Resources res = getResources();
         Drawable icon = res.getDrawable(android.R.drawable.ic_dialog_info, null);
-        NetworkStats.Bucket bucket = item.get(0);
-        final int uid = bucket.getUid();
+        UidMetadataCache.UidMetadata metadata = null;
+        final int uid = item.uid;
+        viewHolder.uid = uid;
         switch (uid) {
             case NetworkStats.Bucket.UID_REMOVED: {
                 title.setText(R.string.network_stats_uid_removed);
@@ -368,45 +384,22 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
             default: {
                 title.setText(getString(R.string.network_stats_uid, uid));
                 icon = mPackageManager.getDefaultActivityIcon();
-                final String[] packageNames = mPackageManager.getPackagesForUid(uid);
-                final int length = packageNames != null ? packageNames.length : 0;
-                try {
-                    if (length == 1) {
-                        final String pkgName = packageNames[0];
-                        final ApplicationInfo info = mPackageManager.getApplicationInfo(pkgName,
-                                0 /* no flags */);
-                        if (info != null) {
-                            title.setText(info.loadLabel(mPackageManager));
-                            icon = info.loadIcon(mPackageManager);
-                        }
-                    } else {
-                        for (int i = 0; i < length; i++) {
-                            final String packageName = packageNames[i];
-                            final PackageInfo packageInfo = mPackageManager.getPackageInfo(
-                                    packageName, 0 /* no flags */);
-                            final ApplicationInfo appInfo = mPackageManager.getApplicationInfo(
-                                    packageName, 0 /* no flags */);
-
-                            if (appInfo != null && packageInfo != null) {
-                                if (packageInfo.sharedUserLabel != 0) {
-                                    title.setText(mPackageManager.getText(packageName,
-                                            packageInfo.sharedUserLabel,
-                                            packageInfo.applicationInfo));
-                                    icon = appInfo.loadIcon(mPackageManager);
-                                }
-                            }
-                        }
+                metadata = mUidMetadataCache.get(uid, loaded -> {
+                    // The view may have been bound to another uid while it was loading.
+                    if (viewHolder.uid == loaded.uid) {
+                        bindUidMetadata(viewHolder, loaded);
                     }
-                } catch (PackageManager.NameNotFoundException e) {
-                    // keep the default activity icon
-                }
+                });
             }
         }
         imageView.setImageDrawable(icon);
+        if (metadata != null) {
+            bindUidMetadata(viewHolder, metadata);
+        }
         final int bucketsCount = item.size();
         if (bucketsCount == 1) {
-            summary.setText(formatSize(bucket.getRxBytes() + bucket.getTxBytes()));
-            switch (bucket.getState()) {
+            summary.setText(formatSize(item.getRxBytes(0) + item.getTxBytes(0)));
+            switch (item.getState(0)) {
                 case NetworkStats.Bucket.STATE_FOREGROUND: {
                     state.setText(R.string.network_stats_foreground_state);
                 } break;
@@ -423,6 +416,15 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
         }
     }
 
+    private void bindUidMetadata(ViewHolder viewHolder, UidMetadataCache.UidMetadata metadata) {
+        if (metadata.label != null) {
+            viewHolder.title.setText(metadata.label);
+        }
+        if (metadata.icon != null) {
+            viewHolder.image.setImageBitmap(metadata.icon);
+        }
+    }
+
     private void transitionAppHistoryView(int appHistoryVisibility) {
         mAppHistoryList.setVisibility(appHistoryVisibility);
         mBackToAppsListButton.setVisibility(appHistoryVisibility);
@@ -434,11 +436,163 @@ public class NetworkUsageStatsFragment extends ListFragment implements View.OnCl
         return Formatter.formatFileSize(getActivity(), sizeBytes);
     }
 
+    /**
+     * Runs a query on {@link NetworkStatsManager}, publishing the buckets read so far at most
+     * every {@link #PUBLISH_INTERVAL_MS}, and stopping as soon as it is cancelled.
+     */
+    private class QueryTask extends AsyncTask<Void, NetworkUsageStore, String> {
+        private final Context mContext;
+        private final int mPos;
+        private final long mStartTime;
+        private final long mEndTime;
+        private NetworkStats.Bucket mSummary;
+        private volatile int mFetchedSlices;
+        private volatile int mTotalSlices;
+
+        QueryTask(Context context, int pos, long startTime, long endTime) {
+            mContext = context.getApplicationContext();
+            mPos = pos;
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+
+        /**
+         * @return an error message, or {@code null} if the query succeeded
+         */
+        @Override
+        protected String doInBackground(Void... voids) {
+            NetworkStats result = null;
+            try {
+                switch (mPos) {
+                    case QUERY_DEVICE_POS:
+                        mSummary = mNetstatsManager.querySummaryForDevice(
+                                ConnectivityManager.TYPE_WIFI, "", mStartTime, mEndTime);
+                        break;
+                    case QUERY_PROFILE_POS:
+                        mSummary = mNetstatsManager.querySummaryForUser(
+                                ConnectivityManager.TYPE_WIFI, "", mStartTime, mEndTime);
+                        break;
+                    case QUERY_APPSUMMARY_POS:
+                        result = mNetstatsManager.querySummary(
+                                ConnectivityManager.TYPE_WIFI, "", mStartTime, mEndTime);
+                        readBuckets(result);
+                        break;
+                    case QUERY_APPHISTORY_POS:
+                        queryHistory();
+                        break;
+                }
+            } catch (SecurityException e) {
+                return mContext.getString(R.string.network_stats_security_error_msg);
+            } catch (RemoteException | NumberFormatException e) {
+                return e.toString();
+            } finally {
+                if (result != null) {
+                    result.close();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads the history from {@link NetworkUsageCache}, which only queries the platform for
+         * the hours it has not cached yet.
+         */
+        private void queryHistory() throws RemoteException {
+            NetworkUsageStore history = NetworkUsageCache.getInstance(mContext).queryHistory(
+                    mNetstatsManager, ConnectivityManager.TYPE_WIFI, mStartTime, mEndTime,
+                    NetworkUsageCache.getRollupPeriod(mStartTime, mEndTime),
+                    new NetworkUsageCache.ProgressListener() {
+                        @Override
+                        public boolean isCancelled() {
+                            return QueryTask.this.isCancelled();
+                        }
+
+                        @Override
+                        public void onSliceFetched(int fetchedSlices, int totalSlices) {
+                            mFetchedSlices = fetchedSlices;
+                            mTotalSlices = totalSlices;
+                            // Without buckets, only the progress text is updated.
+                            publishProgress();
+                        }
+                    });
+            if (history != null && history.getBucketCount() > 0) {
+                publishProgress(history);
+            }
+        }
+
+        private void readBuckets(NetworkStats result) {
+            if (result == null) {
+                return;
+            }
+            final long startTime = SystemClock.elapsedRealtime();
+            final boolean groupByUid = mPos == QUERY_APPHISTORY_POS;
+            long lastPublishTime = startTime;
+            // The bucket is only a cursor, its values are copied into the store.
+            final NetworkStats.Bucket bucket = new NetworkStats.Bucket();
+            NetworkUsageStore buckets = new NetworkUsageStore(groupByUid);
+            while (result.hasNextBucket() && !isCancelled()) {
+                result.getNextBucket(bucket);
+                buckets.add(bucket);
+                final long now = SystemClock.elapsedRealtime();
+                if (now - lastPublishTime >= PUBLISH_INTERVAL_MS) {
+                    publishProgress(buckets);
+                    buckets = new NetworkUsageStore(groupByUid);
+                    lastPublishTime = now;
+                }
+            }
+            if (buckets.getBucketCount() > 0) {
+                publishProgress(buckets);
+            }
+            Log.d(TAG, "Read network stats buckets in "
+                    + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        }
+
+        @Override
+        protected void onProgressUpdate(NetworkUsageStore... chunks) {
+            if (isCancelled()) {
+                return;
+            }
+            if (chunks.length == 0) {
+                mQueryProgressText.setText(getString(R.string.network_stats_fetching_slices,
+                        mFetchedSlices, mTotalSlices));
+                return;
+            }
+            for (NetworkUsageStore buckets : chunks) {
+                mStore.addAll(buckets);
+            }
+            mListAdapter.notifyDataSetChanged();
+            mQueryProgressText.setText(getString(R.string.network_stats_loading_progress,
+                    mStore.getRowCount(), mStore.getBucketCount()));
+        }
+
+        @Override
+        protected void onPostExecute(String error) {
+            mQueryTask = null;
+            mQueryProgress.setVisibility(View.GONE);
+            mQueryProgressText.setVisibility(View.GONE);
+            if (error != null) {
+                showErrorDialog(error);
+                return;
+            }
+            if (mSummary == null) {
+                return;
+            }
+            mDataUsageSummary.setText(getString(mPos == QUERY_DEVICE_POS
+                            ? R.string.network_stats_device_summary
+                            : R.string.network_stats_profile_summary,
+                    formatSize(mSummary.getRxBytes()), mSummary.getRxPackets(),
+                    formatSize(mSummary.getTxBytes()), mSummary.getTxPackets()));
+            mDataUsageSummary.setVisibility(View.VISIBLE);
+        }
+    }
+
     private static class ViewHolder {
         public final TextView title;
         public final TextView summary;
         public final TextView state;
         public final ImageView image;
+        /** The uid the views are bound to. */
+        public int uid;
         public ViewHolder(final TextView title, final TextView summary, final TextView state,
                 final ImageView image) {
             this.title = title;
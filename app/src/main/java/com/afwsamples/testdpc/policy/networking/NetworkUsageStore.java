@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networking;
+
+import android.annotation.TargetApi;
+import android.app.usage.NetworkStats;
+import android.os.Build;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Network usage buckets stored column by column in primitive arrays, rather than as one
+ * {@link NetworkStats.Bucket} per bucket, so that a {@link NetworkStats.Bucket} can be reused
+ * while reading a {@link NetworkStats}.
+ * <p>
+ * Buckets are stored in rows, either one row per uid, or one row per bucket for summaries where
+ * a uid has a bucket per state.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class NetworkUsageStore {
+    private final boolean mGroupByUid;
+    private final List<UidUsage> mRows = new ArrayList<>();
+    private final SparseArray<UidUsage> mRowsByUid = new SparseArray<>();
+    private int mBucketCount;
+
+    /**
+     * @param groupByUid whether the buckets of a uid share a row
+     */
+    public NetworkUsageStore(boolean groupByUid) {
+        mGroupByUid = groupByUid;
+    }
+
+    public void add(NetworkStats.Bucket bucket) {
+        add(bucket.getUid(), bucket.getState(), bucket.getStartTimeStamp(),
+                bucket.getEndTimeStamp(), bucket.getRxBytes(), bucket.getRxPackets(),
+                bucket.getTxBytes(), bucket.getTxPackets());
+    }
+
+    public void add(int uid, int state, long startTime, long endTime, long rxBytes,
+            long rxPackets, long txBytes, long txPackets) {
+        UidUsage row = mGroupByUid ? mRowsByUid.get(uid) : null;
+        if (row == null) {
+            row = new UidUsage(uid);
+            mRows.add(row);
+            if (mGroupByUid) {
+                mRowsByUid.put(uid, row);
+            }
+        }
+        row.add(state, startTime, endTime, rxBytes, rxPackets, txBytes, txPackets);
+        mBucketCount++;
+    }
+
+    /**
+     * Appends the buckets of another store, e.g. read in the background.
+     */
+    public void addAll(NetworkUsageStore other) {
+        for (UidUsage row : other.mRows) {
+            for (int i = 0; i < row.mSize; i++) {
+                add(row.uid, row.mStates[i], row.mStartTimes[i], row.mEndTimes[i],
+                        row.mRxBytes[i], row.mRxPackets[i], row.mTxBytes[i], row.mTxPackets[i]);
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return mRows.size();
+    }
+
+    public UidUsage getRow(int index) {
+        return mRows.get(index);
+    }
+
+    public int getBucketCount() {
+        return mBucketCount;
+    }
+
+    public void clear() {
+        mRows.clear();
+        mRowsByUid.clear();
+        mBucketCount = 0;
+    }
+
+    /**
+     * The buckets of a row, all of the same uid, in the order they were added.
+     */
+    public static class UidUsage {
+        private static final int INITIAL_CAPACITY = 4;
+
+        public final int uid;
+        private int mSize;
+        private int[] mStates = new int[INITIAL_CAPACITY];
+        private long[] mStartTimes = new long[INITIAL_CAPACITY];
+        private long[] mEndTimes = new long[INITIAL_CAPACITY];
+        private long[] mRxBytes = new long[INITIAL_CAPACITY];
+        private long[] mRxPackets = new long[INITIAL_CAPACITY];
+        private long[] mTxBytes = new long[INITIAL_CAPACITY];
+        private long[] mTxPackets = new long[INITIAL_CAPACITY];
+
+        UidUsage(int uid) {
+            this.uid = uid;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @return one of the {@code NetworkStats.Bucket.STATE_*} states
+         */
+        public int getState(int position) {
+            return mStates[position];
+        }
+
+        public long getStartTime(int position) {
+            return mStartTimes[position];
+        }
+
+        public long getEndTime(int position) {
+            return mEndTimes[position];
+        }
+
+        public long getRxBytes(int position) {
+            return mRxBytes[position];
+        }
+
+        public long getRxPackets(int position) {
+            return mRxPackets[position];
+        }
+
+        public long getTxBytes(int position) {
+            return mTxBytes[position];
+        }
+
+        public long getTxPackets(int position) {
+            return mTxPackets[position];
+        }
+
+        private void add(int state, long startTime, long endTime, long rxBytes, long rxPackets,
+                long txBytes, long txPackets) {
+            if (mSize == mStartTimes.length) {
+                final int capacity = mSize * 2;
+                mStates = Arrays.copyOf(mStates, capacity);
+                mStartTimes = Arrays.copyOf(mStartTimes, capacity);
+                mEndTimes = Arrays.copyOf(mEndTimes, capacity);
+                mRxBytes = Arrays.copyOf(mRxBytes, capacity);
+                mRxPackets = Arrays.copyOf(mRxPackets, capacity);
+                mTxBytes = Arrays.copyOf(mTxBytes, capacity);
+                mTxPackets = Arrays.copyOf(mTxPackets, capacity);
+            }
+            mStates[mSize] = state;
+            mStartTimes[mSize] = startTime;
+            mEndTimes[mSize] = endTime;
+            mRxBytes[mSize] = rxBytes;
+            mRxPackets[mSize] = rxPackets;
+            mTxBytes[mSize] = txBytes;
+            mTxPackets[mSize] = txPackets;
+            mSize++;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Locations of hostnames, in a trie of their labels from the top-level domain down, so that all
+ * the subdomains of a domain are found in its subtree.
+ */
+class HostnameTrie {
+    private final Node mRoot = new Node();
+    private int mHostnameCount;
+
+    void add(String hostname, long location) {
+        Node node = mRoot;
+        final String[] labels = split(hostname);
+        for (int i = labels.length - 1; i >= 0; i--) {
+            Node child = node.children.get(labels[i]);
+            if (child == null) {
+                child = new Node();
+                node.children.put(labels[i], child);
+            }
+            node = child;
+        }
+        if (node.locations == null) {
+            node.locations = new LongList();
+            mHostnameCount++;
+        }
+        node.locations.add(location);
+    }
+
+    /**
+     * Collects the locations of a hostname, or of a domain and all its subdomains if
+     * {@code pattern} starts with {@code *.}.
+     */
+    void find(String pattern, LongList out) {
+        final boolean subdomains = pattern.startsWith("*.");
+        final String[] labels = split(subdomains ? pattern.substring(2) : pattern);
+        Node node = mRoot;
+        for (int i = labels.length - 1; i >= 0 && node != null; i--) {
+            node = node.children.get(labels[i]);
+        }
+        if (node == null) {
+            return;
+        }
+        if (!subdomains) {
+            if (node.locations != null) {
+                out.addAll(node.locations);
+            }
+            return;
+        }
+        final ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.add(node);
+        while (!pending.isEmpty()) {
+            final Node next = pending.poll();
+            if (next.locations != null) {
+                out.addAll(next.locations);
+            }
+            pending.addAll(next.children.values());
+        }
+    }
+
+    int getHostnameCount() {
+        return mHostnameCount;
+    }
+
+    private static String[] split(String hostname) {
+        String normalized = hostname.toLowerCase(Locale.US);
+        if (normalized.endsWith(".")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized.split("\\.");
+    }
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>(2);
+        /** Locations of the hostname ending at this node, if any. */
+        LongList locations;
+    }
+}
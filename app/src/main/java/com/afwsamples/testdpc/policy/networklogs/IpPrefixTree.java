@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import java.util.ArrayDeque;
+
+/**
+ * Locations of IP addresses, in a binary radix tree over the bits of the addresses so that all
+ * the addresses of a prefix are found in a single subtree.
+ * <p>
+ * Addresses are 128 bits, IPv4 addresses being mapped to {@code ::ffff:0:0/96}. Chains of nodes
+ * with a single child are collapsed, so that the tree has fewer than two nodes per address.
+ * </p>
+ */
+class IpPrefixTree {
+    static final int ADDRESS_BITS = 128;
+    /** Length of the prefix of IPv4 mapped addresses. */
+    static final int IPV4_MAPPED_PREFIX_LENGTH = 96;
+
+    private final Node mRoot = new Node(0, 0, 0);
+    private int mAddressCount;
+
+    /**
+     * @param address an IPv4 or IPv6 address, of {@code length} 4 or 16 bytes
+     */
+    void add(byte[] address, int length, long location) {
+        final long high = getHigh(address, length);
+        final long low = getLow(address, length);
+        Node node = mRoot;
+        while (node.length < ADDRESS_BITS) {
+            final int bit = getBit(high, low, node.length);
+            final Node child = node.children[bit];
+            if (child == null) {
+                node = node.children[bit] = new Node(high, low, ADDRESS_BITS);
+                mAddressCount++;
+                break;
+            }
+            final int common = Math.min(child.length,
+                    getCommonPrefixLength(high, low, child.high, child.low));
+            if (common == child.length) {
+                node = child;
+                continue;
+            }
+            // Splits the edge where the address leaves it.
+            final Node fork = new Node(mask(high, common, 0), mask(low, common, 64), common);
+            fork.children[getBit(child.high, child.low, common)] = child;
+            node.children[bit] = fork;
+            node = fork.children[getBit(high, low, common)] =
+                    new Node(high, low, ADDRESS_BITS);
+            mAddressCount++;
+            break;
+        }
+        if (node.locations == null) {
+            node.locations = new LongList();
+        }
+        node.locations.add(location);
+    }
+
+    /**
+     * Collects the locations of the addresses in the given prefix.
+     *
+     * @param prefixLength length in bits of the prefix, from 0 to 32 for IPv4 and from 0 to 128
+     *                     for IPv6
+     */
+    void find(byte[] prefix, int length, int prefixLength, LongList out) {
+        final long high = getHigh(prefix, length);
+        final long low = getLow(prefix, length);
+        if (length == 4) {
+            prefixLength += IPV4_MAPPED_PREFIX_LENGTH;
+        }
+        Node node = mRoot;
+        while (node != null) {
+            final int checkedLength = Math.min(node.length, prefixLength);
+            if (getCommonPrefixLength(high, low, node.high, node.low) < checkedLength) {
+                return;
+            }
+            if (node.length >= prefixLength) {
+                collect(node, out);
+                return;
+            }
+            node = node.children[getBit(high, low, node.length)];
+        }
+    }
+
+    int getAddressCount() {
+        return mAddressCount;
+    }
+
+    private static void collect(Node node, LongList out) {
+        final ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.add(node);
+        while (!pending.isEmpty()) {
+            final Node next = pending.poll();
+            if (next.locations != null) {
+                out.addAll(next.locations);
+            }
+            for (Node child : next.children) {
+                if (child != null) {
+                    pending.add(child);
+                }
+            }
+        }
+    }
+
+    private static long getHigh(byte[] address, int length) {
+        return length == 4 ? 0 : getLong(address, 0);
+    }
+
+    private static long getLow(byte[] address, int length) {
+        if (length == 4) {
+            return 0xffff00000000L | (getLong(address, 0) >>> 32);
+        }
+        return getLong(address, 8);
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            final int index = offset + i;
+            value = (value << 8) | (index < bytes.length ? bytes[index] & 0xff : 0);
+        }
+        return value;
+    }
+
+    private static int getBit(long high, long low, int index) {
+        return (int) (index < 64 ? high >>> (63 - index) : low >>> (127 - index)) & 1;
+    }
+
+    private static int getCommonPrefixLength(long high1, long low1, long high2, long low2) {
+        if (high1 != high2) {
+            return Long.numberOfLeadingZeros(high1 ^ high2);
+        }
+        return 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+    }
+
+    /**
+     * @return the bits of the 64 bit half of an address starting at bit {@code offset}, cleared
+     * past bit {@code length} of the address
+     */
+    private static long mask(long half, int length, int offset) {
+        final int kept = length - offset;
+        if (kept <= 0) {
+            return 0;
+        }
+        return kept >= 64 ? half : half & (-1L << (64 - kept));
+    }
+
+    private static class Node {
+        /** The first {@link #length} bits of the addresses under this node, then zeroes. */
+        final long high;
+        final long low;
+        final int length;
+        final Node[] children = new Node[2];
+        /** Locations of the address, for the nodes of full addresses. */
+        LongList locations;
+
+        Node(long high, long low, int length) {
+            this.high = high;
+            this.low = low;
+            this.length = length;
+        }
+    }
+}
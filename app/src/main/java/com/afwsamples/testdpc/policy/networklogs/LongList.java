@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of longs, without boxing.
+ */
+class LongList {
+    private long[] mValues;
+    private int mSize;
+
+    LongList() {
+        this(4);
+    }
+
+    LongList(int capacity) {
+        mValues = new long[capacity];
+    }
+
+    void add(long value) {
+        if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, Math.max(4, mSize * 2));
+        }
+        mValues[mSize++] = value;
+    }
+
+    void addAll(LongList other) {
+        for (int i = 0; i < other.mSize; i++) {
+            add(other.mValues[i]);
+        }
+    }
+
+    long get(int index) {
+        return mValues[index];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+
+    void sort() {
+        Arrays.sort(mValues, 0, mSize);
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Counts how often every uid talked to every host, folded from the saved network log batches one
+ * batch at a time and saved, so that batches are only ever read once.
+ * <p>
+ * Hostnames are interned in a single dictionary and counted per uid in a
+ * {@link SparseIntArray} keyed by hostname id. Connect events are attributed to the hostname an
+ * earlier DNS event resolved to their address, or else to the address itself. At most
+ * {@link #MAX_HOSTS} hosts are tracked, the others being counted together, so that memory stays
+ * bounded however many events are seen.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class NetworkLogAnalytics {
+    private static final String TAG = "NetworkLogAnalytics";
+
+    private static final String DIR = "network_logs_analytics";
+    private static final String FILE_NAME = "analytics.bin";
+    private static final int MAGIC = 0x4e4c414e; // "NLAN"
+    private static final int VERSION = 2;
+
+    static final int MAX_HOSTS = 20000;
+    private static final int MAX_ADDRESSES = 20000;
+
+    /** Id of the hosts past {@link #MAX_HOSTS}. */
+    public static final int OTHER_HOSTS = 0;
+    public static final int UNKNOWN_UID = -1;
+
+    public static final int SORT_BY_COUNT = 0;
+    public static final int SORT_BY_HOSTNAME = 1;
+    public static final int SORT_BY_UID = 2;
+
+    private static final int NOT_INTERNED = -1;
+
+    private static final Comparator<Row> BY_COUNT = (a, b) -> Integer.compare(a.count, b.count);
+
+    private static final Comparator<Row> BY_HOSTNAME = (a, b) -> {
+        if (a.hostname == null || b.hostname == null) {
+            // The other hosts last.
+            return a.hostname == null ? (b.hostname == null ? 0 : 1) : -1;
+        }
+        return a.hostname.compareTo(b.hostname);
+    };
+
+    private static final Comparator<Row> BY_UID = (a, b) -> a.uid != b.uid
+            ? Integer.compare(a.uid, b.uid) : Integer.compare(b.count, a.count);
+
+    private static NetworkLogAnalytics sInstance;
+
+    private final Context mContext;
+    private final File mFile;
+
+    /** Hostnames by id, the first one standing for {@link #OTHER_HOSTS}. */
+    private final List<String> mHostnames = new ArrayList<>();
+    private final Map<String, Integer> mHostIds = new HashMap<>();
+    private final SparseArray<SparseIntArray> mCountsByUid = new SparseArray<>();
+    /** Hostname ids by the address they resolved to, only kept in memory. */
+    private final Map<String, Integer> mHostIdsByAddress = new HashMap<>();
+
+    /**
+     * Keys of the batches folded in and still saved, rather than the last token folded in, as
+     * tokens restart after a reboot.
+     */
+    private final Set<String> mFoldedBatches = new HashSet<>();
+    private boolean mLoaded;
+
+    public static synchronized NetworkLogAnalytics getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkLogAnalytics(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NetworkLogAnalytics(Context context) {
+        mContext = context;
+        mFile = new File(context.getDir(DIR, Context.MODE_PRIVATE), FILE_NAME);
+        clear();
+    }
+
+    /**
+     * Folds in the batches saved since the last update, then saves the counters.
+     */
+    @WorkerThread
+    public synchronized void update() {
+        loadIfNeeded();
+        final Map<String, Integer> uidsByPackage = new HashMap<>();
+        final NetworkLogCatalog.Reader reader = new NetworkLogCatalog.Reader();
+        final Set<String> savedBatches = new HashSet<>();
+        int batchCount = 0;
+        for (NetworkLogCatalog.Entry entry : NetworkLogCatalog.list(mContext)) {
+            final String key = entry.getKey();
+            savedBatches.add(key);
+            if (!mFoldedBatches.add(key)) {
+                continue;
+            }
+            try {
+                addBatch(reader.open(entry), uidsByPackage);
+                batchCount++;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read network logs from " + entry.file, e);
+            }
+        }
+        // The counts of deleted batches are kept, only their keys are forgotten.
+        final boolean forgotBatches = mFoldedBatches.retainAll(savedBatches);
+        if (batchCount == 0 && !forgotBatches) {
+            return;
+        }
+        try {
+            save();
+            Log.d(TAG, "Folded " + batchCount + " network log batches, " + (mHostnames.size() - 1)
+                    + " hosts");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save network log analytics", e);
+        }
+    }
+
+    /**
+     * @return the {@code count} most frequent (uid, host) pairs, ordered by {@code sortOrder},
+     * one of the {@code SORT_BY_*} orders
+     */
+    public synchronized List<Row> getTop(int count, int sortOrder) {
+        loadIfNeeded();
+        final PriorityQueue<Row> top = new PriorityQueue<>(count + 1, BY_COUNT);
+        for (int i = 0; i < mCountsByUid.size(); i++) {
+            final int uid = mCountsByUid.keyAt(i);
+            final SparseIntArray counts = mCountsByUid.valueAt(i);
+            for (int j = 0; j < counts.size(); j++) {
+                if (top.size() == count && counts.valueAt(j) <= top.peek().count) {
+                    continue;
+                }
+                top.add(new Row(uid, counts.keyAt(j), mHostnames.get(counts.keyAt(j)),
+                        counts.valueAt(j)));
+                if (top.size() > count) {
+                    top.poll();
+                }
+            }
+        }
+        final List<Row> rows = new ArrayList<>(top);
+        switch (sortOrder) {
+            case SORT_BY_HOSTNAME:
+                Collections.sort(rows, BY_HOSTNAME);
+                break;
+            case SORT_BY_UID:
+                Collections.sort(rows, BY_UID);
+                break;
+            default:
+                Collections.sort(rows, Collections.reverseOrder(BY_COUNT));
+                break;
+        }
+        return rows;
+    }
+
+    private void addBatch(NetworkLogBatch batch, Map<String, Integer> uidsByPackage) {
+        // Resolved once per entry of the batch's dictionaries rather than once per event.
+        final int[] uids = new int[batch.getPackageCount()];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = getUid(batch.getPackageNameAt(i), uidsByPackage);
+        }
+        final int[] hostIds = new int[batch.getHostnameCount()];
+        Arrays.fill(hostIds, NOT_INTERNED);
+
+        final byte[] address = new byte[16];
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            final int packageIndex = batch.getPackageIndex(i);
+            final int uid =
+                    packageIndex == NetworkLogBatch.NO_INDEX ? UNKNOWN_UID : uids[packageIndex];
+            final int hostId;
+            switch (batch.getType(i)) {
+                case NetworkLogBatch.TYPE_DNS: {
+                    final int hostnameIndex = batch.getHostnameIndex(i);
+                    if (hostnameIndex == NetworkLogBatch.NO_INDEX) {
+                        continue;
+                    }
+                    if (hostIds[hostnameIndex] == NOT_INTERNED) {
+                        hostIds[hostnameIndex] = intern(batch.getHostnameAt(hostnameIndex));
+                    }
+                    hostId = hostIds[hostnameIndex];
+                    for (int j = 0; j < batch.getAddressCount(i); j++) {
+                        sb.setLength(0);
+                        NetworkLogBatch.appendAddress(sb, address,
+                                batch.getAddress(i, j, address));
+                        if (mHostIdsByAddress.size() < MAX_ADDRESSES
+                                || mHostIdsByAddress.containsKey(sb.toString())) {
+                            mHostIdsByAddress.put(sb.toString(), hostId);
+                        }
+                    }
+                    break;
+                }
+                case NetworkLogBatch.TYPE_CONNECT: {
+                    sb.setLength(0);
+                    NetworkLogBatch.appendAddress(sb, address, batch.getAddress(i, 0, address));
+                    final String addressText = sb.toString();
+                    final Integer resolvedHostId = mHostIdsByAddress.get(addressText);
+                    hostId = resolvedHostId != null ? resolvedHostId : intern(addressText);
+                    break;
+                }
+                default:
+                    continue;
+            }
+            SparseIntArray counts = mCountsByUid.get(uid);
+            if (counts == null) {
+                counts = new SparseIntArray();
+                mCountsByUid.put(uid, counts);
+            }
+            counts.put(hostId, counts.get(hostId) + 1);
+        }
+    }
+
+    private int intern(String hostname) {
+        final Integer hostId = mHostIds.get(hostname);
+        if (hostId != null) {
+            return hostId;
+        }
+        if (mHostnames.size() >= MAX_HOSTS) {
+            return OTHER_HOSTS;
+        }
+        mHostIds.put(hostname, mHostnames.size());
+        mHostnames.add(hostname);
+        return mHostnames.size() - 1;
+    }
+
+    private int getUid(String packageName, Map<String, Integer> uidsByPackage) {
+        if (packageName == null) {
+            return UNKNOWN_UID;
+        }
+        Integer uid = uidsByPackage.get(packageName);
+        if (uid == null) {
+            try {
+                uid = mContext.getPackageManager().getPackageUid(packageName, 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                // Uninstalled since.
+                uid = UNKNOWN_UID;
+            }
+            uidsByPackage.put(packageName, uid);
+        }
+        return uid;
+    }
+
+    private void clear() {
+        mHostnames.clear();
+        mHostIds.clear();
+        mHostnames.add(null);
+        mCountsByUid.clear();
+        mHostIdsByAddress.clear();
+        mFoldedBatches.clear();
+    }
+
+    private void loadIfNeeded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Discarding analytics saved in another format");
+                return;
+            }
+            final int batchCount = in.readInt();
+            for (int i = 0; i < batchCount; i++) {
+                mFoldedBatches.add(in.readUTF());
+            }
+            final int hostCount = in.readInt();
+            for (int i = 1; i < hostCount; i++) {
+                final String hostname = in.readUTF();
+                mHostIds.put(hostname, mHostnames.size());
+                mHostnames.add(hostname);
+            }
+            final int uidCount = in.readInt();
+            for (int i = 0; i < uidCount; i++) {
+                final int uid = in.readInt();
+                final int size = in.readInt();
+                final SparseIntArray counts = new SparseIntArray(size);
+                for (int j = 0; j < size; j++) {
+                    counts.append(in.readInt(), in.readInt());
+                }
+                mCountsByUid.put(uid, counts);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing folded in yet.
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load the network log analytics, starting over", e);
+            clear();
+        }
+    }
+
+    /**
+     * Saves the counters, replacing the file atomically.
+     */
+    private void save() throws IOException {
+        final File tempFile = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fileOutputStream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mFoldedBatches.size());
+            for (String key : mFoldedBatches) {
+                out.writeUTF(key);
+            }
+            out.writeInt(mHostnames.size());
+            for (int i = 1; i < mHostnames.size(); i++) {
+                out.writeUTF(mHostnames.get(i));
+            }
+            out.writeInt(mCountsByUid.size());
+            for (int i = 0; i < mCountsByUid.size(); i++) {
+                final SparseIntArray counts = mCountsByUid.valueAt(i);
+                out.writeInt(mCountsByUid.keyAt(i));
+                out.writeInt(counts.size());
+                for (int j = 0; j < counts.size(); j++) {
+                    out.writeInt(counts.keyAt(j));
+                    out.writeInt(counts.valueAt(j));
+                }
+            }
+            out.flush();
+            fileOutputStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+
+    /**
+     * How often a uid talked to a host.
+     */
+    public static class Row {
+        public final int uid;
+        public final int hostId;
+        /** The hostname or address, or {@code null} for the {@link #OTHER_HOSTS}. */
+        public final String hostname;
+        public final int count;
+
+        Row(int uid, int hostId, String hostname, int count) {
+            this.uid = uid;
+            this.hostId = hostId;
+            this.hostname = hostname;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.annotation.TargetApi;
+import android.app.ListFragment;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.widget.ArrayAdapter;
+import com.afwsamples.testdpc.R;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows which apps talk to which hosts the most, from the {@link NetworkLogAnalytics}.
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class NetworkLogAnalyticsFragment extends ListFragment {
+
+    private static final int TOP_COUNT = 100;
+
+    private ArrayAdapter<String> mAdapter;
+    private LoadTopTask mLoadTask;
+    private int mSortOrder = NetworkLogAnalytics.SORT_BY_COUNT;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+        mAdapter = new ArrayAdapter<>(getActivity(), android.R.layout.simple_list_item_1,
+                android.R.id.text1);
+        setListAdapter(mAdapter);
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        setEmptyText(getString(R.string.network_logs_analytics_empty));
+        if (mLoadTask == null) {
+            loadTop();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.network_logs_analytics_menu, menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_sort_by_count:
+                mSortOrder = NetworkLogAnalytics.SORT_BY_COUNT;
+                break;
+            case R.id.action_sort_by_host:
+                mSortOrder = NetworkLogAnalytics.SORT_BY_HOSTNAME;
+                break;
+            case R.id.action_sort_by_app:
+                mSortOrder = NetworkLogAnalytics.SORT_BY_UID;
+                break;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+        loadTop();
+        return true;
+    }
+
+    private void loadTop() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        mLoadTask = new LoadTopTask(getActivity(), mSortOrder);
+        mLoadTask.execute();
+    }
+
+    /**
+     * Folds in the batches saved since the last update, then formats the top rows.
+     */
+    private class LoadTopTask extends AsyncTask<Void, Void, List<String>> {
+        private final Context mContext;
+        private final int mSortOrder;
+
+        LoadTopTask(Context context, int sortOrder) {
+            mContext = context.getApplicationContext();
+            mSortOrder = sortOrder;
+        }
+
+        @Override
+        protected List<String> doInBackground(Void... voids) {
+            final NetworkLogAnalytics analytics = NetworkLogAnalytics.getInstance(mContext);
+            analytics.update();
+            final PackageManager packageManager = mContext.getPackageManager();
+            final SparseArray<String> appLabels = new SparseArray<>();
+            final List<String> rows = new ArrayList<>();
+            for (NetworkLogAnalytics.Row row : analytics.getTop(TOP_COUNT, mSortOrder)) {
+                String apps = appLabels.get(row.uid);
+                if (apps == null) {
+                    final String[] packages = row.uid == NetworkLogAnalytics.UNKNOWN_UID
+                            ? null : packageManager.getPackagesForUid(row.uid);
+                    apps = packages != null ? TextUtils.join(", ", packages)
+                            : mContext.getString(R.string.network_logs_analytics_unknown_app);
+                    appLabels.put(row.uid, apps);
+                }
+                rows.add(mContext.getString(R.string.network_logs_analytics_row,
+                        row.hostname != null ? row.hostname
+                                : mContext.getString(R.string.network_logs_analytics_other_hosts),
+                        apps, row.count));
+            }
+            return rows;
+        }
+
+        @Override
+        protected void onPostExecute(List<String> rows) {
+            mAdapter.clear();
+            mAdapter.addAll(rows);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The batches retrieved on one day, compacted into a single file by the
+ * {@link NetworkLogRetentionManager}.
+ * <p>
+ * An archive starts with an uncompressed table, so that its batches can be listed without
+ * decompressing it, followed by the gzipped batch files one after the other:
+ * <pre>
+ *   header  int magic | int version | long day | int batch count
+ *   table   long batch token | long retrieval time in millis | int length, per batch
+ *   data    gzip stream of the batches
+ * </pre>
+ * </p>
+ */
+public class NetworkLogArchive {
+    static final String FILE_PREFIX = "network_logs_day_";
+    static final String FILE_EXTENSION = ".seg";
+
+    private static final int MAGIC = 0x4e4c4441; // "NLDA"
+    private static final int VERSION = 1;
+
+    /**
+     * @return the archive of the given day, counted in days since the epoch
+     */
+    static File getFile(File dir, long day) {
+        return new File(dir, FILE_PREFIX + day + FILE_EXTENSION);
+    }
+
+    /**
+     * @return the day of the given archive file, or -1 if it is not an archive
+     */
+    static long parseDay(File file) {
+        final String name = file.getName();
+        if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(),
+                    name.length() - FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the table of an archive only.
+     */
+    static List<TableEntry> readTable(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            return readTable(file, in);
+        }
+    }
+
+    /**
+     * Decompresses all the batches of an archive.
+     *
+     * @return the batches in the order of the table
+     */
+    static List<NetworkLogBatch> readBatches(File file) throws IOException {
+        final List<NetworkLogBatch> batches = new ArrayList<>();
+        final List<byte[]> data = readData(file);
+        for (byte[] bytes : data) {
+            batches.add(NetworkLogBatch.wrap(file, ByteBuffer.wrap(bytes)));
+        }
+        return batches;
+    }
+
+    /**
+     * Decompresses the raw bytes of all the batches of an archive, in the order of the table.
+     */
+    static List<byte[]> readData(File file) throws IOException {
+        try (FileInputStream fileInputStream = new FileInputStream(file);
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(fileInputStream))) {
+            final List<TableEntry> table = readTable(file, in);
+            final List<byte[]> data = new ArrayList<>(table.size());
+            try (DataInputStream gzipIn = new DataInputStream(new GZIPInputStream(in))) {
+                for (TableEntry entry : table) {
+                    final byte[] bytes = new byte[entry.length];
+                    gzipIn.readFully(bytes);
+                    data.add(bytes);
+                }
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Writes an archive through a temporary file, synced then renamed over {@code file}, so
+     * that either the previous or the new archive is found after a crash.
+     *
+     * @param table the batches, in the same order as {@code data}
+     * @param data the raw bytes of every batch
+     */
+    static void write(File file, long day, List<TableEntry> table, List<byte[]> data)
+            throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+            final DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(day);
+            out.writeInt(table.size());
+            for (TableEntry entry : table) {
+                out.writeLong(entry.batchToken);
+                out.writeLong(entry.retrievedAtMillis);
+                out.writeInt(entry.length);
+            }
+            final GZIPOutputStream gzipOut = new GZIPOutputStream(out, 64 * 1024);
+            for (byte[] bytes : data) {
+                gzipOut.write(bytes);
+            }
+            gzipOut.finish();
+            out.flush();
+            fileOutputStream.getFD().sync();
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+    }
+
+    private static List<TableEntry> readTable(File file, DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a network log archive: " + file);
+        }
+        in.readLong(); // The day, also in the file name.
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupted network log archive: " + file);
+        }
+        final List<TableEntry> table = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final TableEntry entry = new TableEntry(in.readLong(), in.readLong(), in.readInt());
+            if (entry.length < 0) {
+                throw new IOException("Corrupted network log archive: " + file);
+            }
+            table.add(entry);
+        }
+        return table;
+    }
+
+    /**
+     * A batch in an archive.
+     */
+    static class TableEntry {
+        final long batchToken;
+        final long retrievedAtMillis;
+        final int length;
+
+        TableEntry(long batchToken, long retrievedAtMillis, int length) {
+            this.batchToken = batchToken;
+            this.retrievedAtMillis = retrievedAtMillis;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only view of a batch of network events saved by {@link NetworkLogBatchWriter}, backed by
+ * a memory-mapped file, or by the bytes decompressed from a {@link NetworkLogArchive}. Events are
+ * decoded on access and strings only for the hostnames and packages actually used, once each.
+ * <p>
+ * A batch file is laid out as follows, all integers being big endian:
+ * <pre>
+ *   header     int magic | int version | long batch token | long retrieval time in millis |
+ *              int event count | int address count | int hostname count | int package count |
+ *              int records offset | int addresses offset | int hostnames offset |
+ *              int packages offset
+ *   records    {@link #RECORD_SIZE} bytes per event:
+ *              long timestamp in millis | long id | byte type | byte flags | char port |
+ *              int package index | int hostname index | int address
+ *   addresses  {@link #ADDRESS_SIZE} bytes per address: byte length | 16 bytes
+ *   hostnames  int offset per hostname | char length and UTF-8 bytes per hostname
+ *   packages   same as the hostnames
+ * </pre>
+ * For DNS events, the flags hold the number of saved addresses, the port the total number of
+ * resolved addresses, and the address the index of the first saved address. For connect events,
+ * the address is the packed IPv4 address, or the index of the IPv6 address if
+ * {@link #FLAG_IPV6} is set.
+ * </p>
+ */
+public class NetworkLogBatch {
+    public static final String FILE_PREFIX = "network_logs_";
+    public static final String FILE_EXTENSION = ".bin";
+
+    static final int MAGIC = 0x4e4c4231; // "NLB1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 56;
+    static final int RECORD_SIZE = 32;
+    static final int ADDRESS_SIZE = 17;
+    static final int MAX_DNS_ADDRESSES = 255;
+
+    public static final byte TYPE_UNKNOWN = 0;
+    public static final byte TYPE_DNS = 1;
+    public static final byte TYPE_CONNECT = 2;
+    static final byte FLAG_IPV6 = 1;
+
+    public static final long NO_ID = -1;
+    static final int NO_INDEX = -1;
+
+    private static final int OFFSET_TIMESTAMP = 0;
+    private static final int OFFSET_ID = 8;
+    private static final int OFFSET_TYPE = 16;
+    private static final int OFFSET_FLAGS = 17;
+    private static final int OFFSET_PORT = 18;
+    private static final int OFFSET_PACKAGE = 20;
+    private static final int OFFSET_HOSTNAME = 24;
+    private static final int OFFSET_ADDRESS = 28;
+
+    private final File mFile;
+    private final ByteBuffer mBuffer;
+    private final long mBatchToken;
+    private final long mRetrievedAtMillis;
+    private final int mEventCount;
+    private final int mRecordsOffset;
+    private final int mAddressesOffset;
+    private final int mHostnamesOffset;
+    private final int mPackagesOffset;
+    private final String[] mHostnames;
+    private final String[] mPackages;
+
+    private NetworkLogBatch(File file, ByteBuffer buffer) throws IOException {
+        mFile = file;
+        mBuffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a network log batch: " + file);
+        }
+        mBatchToken = buffer.getLong(8);
+        mRetrievedAtMillis = buffer.getLong(16);
+        mEventCount = buffer.getInt(24);
+        mHostnames = new String[buffer.getInt(32)];
+        mPackages = new String[buffer.getInt(36)];
+        mRecordsOffset = buffer.getInt(40);
+        mAddressesOffset = buffer.getInt(44);
+        mHostnamesOffset = buffer.getInt(48);
+        mPackagesOffset = buffer.getInt(52);
+        if (mRecordsOffset + (long) mEventCount * RECORD_SIZE > mAddressesOffset
+                || mAddressesOffset > mHostnamesOffset || mHostnamesOffset > mPackagesOffset
+                || mPackagesOffset > buffer.limit()) {
+            throw new IOException("Corrupted network log batch: " + file);
+        }
+    }
+
+    /**
+     * Maps the given batch file. The mapping stays valid after the file is closed, until the
+     * batch is garbage collected.
+     */
+    public static NetworkLogBatch open(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+                FileChannel channel = randomAccessFile.getChannel()) {
+            return new NetworkLogBatch(file,
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads a batch from a buffer, e.g. decompressed from a {@link NetworkLogArchive}.
+     *
+     * @param source the file the batch was read from
+     * @param buffer the bytes of the batch, from position 0 to its limit
+     */
+    static NetworkLogBatch wrap(File source, ByteBuffer buffer) throws IOException {
+        return new NetworkLogBatch(source, buffer);
+    }
+
+    /**
+     * @return the file the batch was read from, which is an archive for compacted batches
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getBatchToken() {
+        return mBatchToken;
+    }
+
+    public long getRetrievedAtMillis() {
+        return mRetrievedAtMillis;
+    }
+
+    public int size() {
+        return mEventCount;
+    }
+
+    public long getTimestamp(int position) {
+        return mBuffer.getLong(recordOffset(position) + OFFSET_TIMESTAMP);
+    }
+
+    public long getId(int position) {
+        return mBuffer.getLong(recordOffset(position) + OFFSET_ID);
+    }
+
+    /**
+     * Binary searches the events, which are logged in order of time.
+     *
+     * @return the position of the first event at or after {@code timestampMillis}, or
+     * {@link #size()} if there is none
+     */
+    public int findFirstAtOrAfter(long timestampMillis) {
+        int low = 0;
+        int high = mEventCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getTimestamp(middle) < timestampMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public byte getType(int position) {
+        return mBuffer.get(recordOffset(position) + OFFSET_TYPE);
+    }
+
+    /**
+     * @return the port of a connect event
+     */
+    public int getPort(int position) {
+        return mBuffer.getChar(recordOffset(position) + OFFSET_PORT);
+    }
+
+    /**
+     * @return the total number of addresses resolved by a DNS event
+     */
+    public int getTotalResolvedAddressCount(int position) {
+        return mBuffer.getChar(recordOffset(position) + OFFSET_PORT);
+    }
+
+    /**
+     * @return the number of addresses saved for a DNS event, or 1 for a connect event
+     */
+    public int getAddressCount(int position) {
+        switch (getType(position)) {
+            case TYPE_DNS:
+                return mBuffer.get(recordOffset(position) + OFFSET_FLAGS) & 0xff;
+            case TYPE_CONNECT:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    public String getPackageName(int position) {
+        return getPackageNameAt(getPackageIndex(position));
+    }
+
+    /**
+     * @return the index of the package of the event in this batch's dictionary, shared by all
+     * the events of the same package.
+     */
+    public int getPackageIndex(int position) {
+        return mBuffer.getInt(recordOffset(position) + OFFSET_PACKAGE);
+    }
+
+    /**
+     * @return the number of distinct packages in this batch
+     */
+    public int getPackageCount() {
+        return mPackages.length;
+    }
+
+    /**
+     * @return the package at the given index of this batch's dictionary
+     */
+    public String getPackageNameAt(int index) {
+        if (index == NO_INDEX) {
+            return null;
+        }
+        if (mPackages[index] == null) {
+            mPackages[index] = readString(mPackagesOffset, index);
+        }
+        return mPackages[index];
+    }
+
+    /**
+     * @return the hostname of a DNS event
+     */
+    public String getHostname(int position) {
+        return getHostnameAt(getHostnameIndex(position));
+    }
+
+    /**
+     * @return the number of distinct hostnames in this batch
+     */
+    public int getHostnameCount() {
+        return mHostnames.length;
+    }
+
+    /**
+     * @return the hostname at the given index of this batch's dictionary
+     */
+    public String getHostnameAt(int index) {
+        if (index == NO_INDEX) {
+            return null;
+        }
+        if (mHostnames[index] == null) {
+            mHostnames[index] = readString(mHostnamesOffset, index);
+        }
+        return mHostnames[index];
+    }
+
+    /**
+     * @return the index of the hostname of a DNS event in this batch's dictionary
+     */
+    public int getHostnameIndex(int position) {
+        return mBuffer.getInt(recordOffset(position) + OFFSET_HOSTNAME);
+    }
+
+    /**
+     * Copies the raw bytes of an address of the event into {@code address}.
+     *
+     * @param address a buffer of at least 16 bytes
+     * @return the length of the address, 4 or 16
+     */
+    public int getAddress(int position, int addressIndex, byte[] address) {
+        final int record = recordOffset(position);
+        final byte type = mBuffer.get(record + OFFSET_TYPE);
+        if (type == TYPE_CONNECT && (mBuffer.get(record + OFFSET_FLAGS) & FLAG_IPV6) == 0) {
+            for (int i = 0; i < 4; i++) {
+                address[i] = mBuffer.get(record + OFFSET_ADDRESS + i);
+            }
+            return 4;
+        }
+        final int entry = mAddressesOffset
+                + (mBuffer.getInt(record + OFFSET_ADDRESS) + addressIndex) * ADDRESS_SIZE;
+        final int length = mBuffer.get(entry);
+        for (int i = 0; i < length; i++) {
+            address[i] = mBuffer.get(entry + 1 + i);
+        }
+        return length;
+    }
+
+    /**
+     * Appends the event at {@code position} to {@code sb}, in the format of
+     * {@code NetworkEvent#toString()}.
+     */
+    public void format(int position, StringBuilder sb) {
+        final byte[] address = new byte[16];
+        switch (getType(position)) {
+            case TYPE_DNS:
+                sb.append("DnsEvent(").append(getId(position)).append(", ")
+                        .append(getHostname(position)).append(", [");
+                for (int i = 0; i < getAddressCount(position); i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    appendAddress(sb, address, getAddress(position, i, address));
+                }
+                sb.append("], ").append(getTotalResolvedAddressCount(position)).append(", ")
+                        .append(getTimestamp(position)).append(", ")
+                        .append(getPackageName(position)).append(")");
+                break;
+            case TYPE_CONNECT:
+                sb.append("ConnectEvent(").append(getId(position)).append(", ");
+                appendAddress(sb, address, getAddress(position, 0, address));
+                sb.append(", ").append(getPort(position)).append(", ")
+                        .append(getTimestamp(position)).append(", ")
+                        .append(getPackageName(position)).append(")");
+                break;
+            default:
+                sb.append("NetworkEvent(").append(getId(position)).append(", ")
+                        .append(getTimestamp(position)).append(", ")
+                        .append(getPackageName(position)).append(")");
+                break;
+        }
+    }
+
+    /**
+     * Writes the events as text, one {@link #format formatted} event per line.
+     */
+    public void writeText(Writer writer) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mEventCount; i++) {
+            sb.setLength(0);
+            format(i, sb);
+            sb.append('\n');
+            writer.append(sb);
+        }
+    }
+
+    /**
+     * Appends an address in its usual textual form, without a reverse lookup.
+     */
+    public static void appendAddress(StringBuilder sb, byte[] address, int length) {
+        if (length == 4) {
+            for (int i = 0; i < 4; i++) {
+                if (i > 0) {
+                    sb.append('.');
+                }
+                sb.append(address[i] & 0xff);
+            }
+            return;
+        }
+        for (int i = 0; i < length; i += 2) {
+            if (i > 0) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(((address[i] & 0xff) << 8) | (address[i + 1] & 0xff)));
+        }
+    }
+
+    private int recordOffset(int position) {
+        if (position < 0 || position >= mEventCount) {
+            throw new IndexOutOfBoundsException("No event " + position + " in " + mFile);
+        }
+        return mRecordsOffset + position * RECORD_SIZE;
+    }
+
+    private String readString(int sectionOffset, int index) {
+        final int offset = sectionOffset + mBuffer.getInt(sectionOffset + index * 4);
+        final int length = mBuffer.getChar(offset);
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
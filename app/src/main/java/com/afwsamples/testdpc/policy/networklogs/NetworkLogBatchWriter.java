@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.annotation.TargetApi;
+import android.app.admin.ConnectEvent;
+import android.app.admin.DnsEvent;
+import android.app.admin.NetworkEvent;
+import android.content.Context;
+import android.os.Build;
+import android.support.v4.os.BuildCompat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes batches of network events in the binary format read by {@link NetworkLogBatch}.
+ * <p>
+ * A writer reuses its direct buffers and dictionaries from one batch to the next, so it must
+ * only be used by one thread, like the {@link NetworkLogWriter} thread.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class NetworkLogBatchWriter {
+    private static final String BATCH_DIR = "network_logs";
+
+    /** Enough for a typical batch of about 1200 events. */
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final Dictionary mHostnames = new Dictionary();
+    private final Dictionary mPackages = new Dictionary();
+    private final List<byte[]> mAddresses = new ArrayList<>();
+    private ByteBuffer mBuffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+
+    /**
+     * @return the directory holding the batch files
+     */
+    public static File getBatchDir(Context context) {
+        return context.getApplicationContext().getDir(BATCH_DIR, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the file of the batch retrieved with the given token at the given time
+     */
+    public static File getBatchFile(Context context, long batchToken, long retrievedAtMillis) {
+        return new File(getBatchDir(context), NetworkLogBatch.FILE_PREFIX + batchToken + "_"
+                + retrievedAtMillis + NetworkLogBatch.FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the events into {@code file}, through a temporary file renamed once complete.
+     *
+     * @param sync whether to wait for the data to reach the disk before renaming
+     * @return the size of the file
+     */
+    public int write(File file, long batchToken, long retrievedAtMillis,
+            List<NetworkEvent> events, boolean sync) throws IOException {
+        mHostnames.clear();
+        mPackages.clear();
+        mAddresses.clear();
+        final int count = events.size();
+        final int recordsOffset = NetworkLogBatch.HEADER_SIZE;
+        final int addressesOffset = recordsOffset + count * NetworkLogBatch.RECORD_SIZE;
+
+        // Records are written in place, the sizes of the following sections only being known
+        // once all the events are seen.
+        ensureCapacity(addressesOffset);
+        mBuffer.position(recordsOffset);
+        for (NetworkEvent event : events) {
+            final int start = mBuffer.position();
+            mBuffer.putLong(event.getTimestamp());
+            mBuffer.putLong(BuildCompat.isAtLeastP() ? getEventId(event) : NetworkLogBatch.NO_ID);
+            if (event instanceof DnsEvent) {
+                final DnsEvent dnsEvent = (DnsEvent) event;
+                final List<InetAddress> inetAddresses = dnsEvent.getInetAddresses();
+                final int addressCount =
+                        Math.min(inetAddresses.size(), NetworkLogBatch.MAX_DNS_ADDRESSES);
+                mBuffer.put(NetworkLogBatch.TYPE_DNS);
+                mBuffer.put((byte) addressCount);
+                mBuffer.putChar((char) Math.min(dnsEvent.getTotalResolvedAddressCount(),
+                        Character.MAX_VALUE));
+                mBuffer.putInt(mPackages.intern(event.getPackageName()));
+                mBuffer.putInt(mHostnames.intern(dnsEvent.getHostname()));
+                mBuffer.putInt(mAddresses.size());
+                for (int i = 0; i < addressCount; i++) {
+                    mAddresses.add(inetAddresses.get(i).getAddress());
+                }
+            } else if (event instanceof ConnectEvent) {
+                final ConnectEvent connectEvent = (ConnectEvent) event;
+                final byte[] address = connectEvent.getInetAddress().getAddress();
+                final boolean ipv6 = connectEvent.getInetAddress() instanceof Inet6Address;
+                mBuffer.put(NetworkLogBatch.TYPE_CONNECT);
+                mBuffer.put(ipv6 ? NetworkLogBatch.FLAG_IPV6 : 0);
+                mBuffer.putChar((char) connectEvent.getPort());
+                mBuffer.putInt(mPackages.intern(event.getPackageName()));
+                mBuffer.putInt(NetworkLogBatch.NO_INDEX);
+                if (ipv6) {
+                    mBuffer.putInt(mAddresses.size());
+                    mAddresses.add(address);
+                } else {
+                    // IPv4 addresses are packed in the record itself.
+                    mBuffer.put(address, 0, 4);
+                }
+            } else {
+                mBuffer.put(NetworkLogBatch.TYPE_UNKNOWN);
+                mBuffer.put((byte) 0);
+                mBuffer.putChar((char) 0);
+                mBuffer.putInt(mPackages.intern(event.getPackageName()));
+                mBuffer.putInt(NetworkLogBatch.NO_INDEX);
+                mBuffer.putInt(NetworkLogBatch.NO_INDEX);
+            }
+            mBuffer.position(start + NetworkLogBatch.RECORD_SIZE);
+        }
+
+        final int hostnamesOffset =
+                addressesOffset + mAddresses.size() * NetworkLogBatch.ADDRESS_SIZE;
+        final int packagesOffset = hostnamesOffset + mHostnames.getEncodedSize();
+        final int size = packagesOffset + mPackages.getEncodedSize();
+        ensureCapacity(size);
+        mBuffer.position(addressesOffset);
+        for (byte[] address : mAddresses) {
+            final int start = mBuffer.position();
+            mBuffer.put((byte) address.length);
+            mBuffer.put(address);
+            mBuffer.position(start + NetworkLogBatch.ADDRESS_SIZE);
+        }
+        mHostnames.encode(mBuffer);
+        mPackages.encode(mBuffer);
+
+        mBuffer.position(0);
+        mBuffer.putInt(NetworkLogBatch.MAGIC);
+        mBuffer.putInt(NetworkLogBatch.VERSION);
+        mBuffer.putLong(batchToken);
+        mBuffer.putLong(retrievedAtMillis);
+        mBuffer.putInt(count);
+        mBuffer.putInt(mAddresses.size());
+        mBuffer.putInt(mHostnames.size());
+        mBuffer.putInt(mPackages.size());
+        mBuffer.putInt(recordsOffset);
+        mBuffer.putInt(addressesOffset);
+        mBuffer.putInt(hostnamesOffset);
+        mBuffer.putInt(packagesOffset);
+        mBuffer.position(0);
+        mBuffer.limit(size);
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile);
+                FileChannel channel = outputStream.getChannel()) {
+            while (mBuffer.hasRemaining()) {
+                channel.write(mBuffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } finally {
+            mBuffer.clear();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+        return size;
+    }
+
+    /**
+     * Grows the buffer to at least {@code capacity} bytes, keeping its content up to its current
+     * position.
+     */
+    private void ensureCapacity(int capacity) {
+        if (mBuffer.capacity() >= capacity) {
+            return;
+        }
+        final ByteBuffer buffer =
+                ByteBuffer.allocateDirect(Math.max(capacity, mBuffer.capacity() * 2));
+        mBuffer.flip();
+        buffer.put(mBuffer);
+        mBuffer = buffer;
+    }
+
+    @TargetApi(28)
+    private static long getEventId(NetworkEvent event) {
+        return event.getId();
+    }
+
+    /**
+     * Interns strings, encoded as a table of offsets followed by the length prefixed UTF-8 bytes.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> mIndexes = new HashMap<>();
+        private final List<byte[]> mEntries = new ArrayList<>();
+        private int mDataSize;
+
+        void clear() {
+            mIndexes.clear();
+            mEntries.clear();
+            mDataSize = 0;
+        }
+
+        int intern(String value) {
+            if (value == null) {
+                return NetworkLogBatch.NO_INDEX;
+            }
+            Integer index = mIndexes.get(value);
+            if (index == null) {
+                index = mEntries.size();
+                mIndexes.put(value, index);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > Character.MAX_VALUE) {
+                    bytes = value.substring(0, Character.MAX_VALUE / 4)
+                            .getBytes(StandardCharsets.UTF_8);
+                }
+                mEntries.add(bytes);
+                mDataSize += 2 + bytes.length;
+            }
+            return index;
+        }
+
+        int size() {
+            return mEntries.size();
+        }
+
+        int getEncodedSize() {
+            return mEntries.size() * 4 + mDataSize;
+        }
+
+        void encode(ByteBuffer buffer) {
+            int offset = mEntries.size() * 4;
+            for (byte[] entry : mEntries) {
+                buffer.putInt(offset);
+                offset += 2 + entry.length;
+            }
+            for (byte[] entry : mEntries) {
+                buffer.putChar((char) entry.length);
+                buffer.put(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lists the saved network log batches, whether still in their own file or compacted into a
+ * {@link NetworkLogArchive}, in the order they were retrieved.
+ */
+public class NetworkLogCatalog {
+    private static final String TAG = "NetworkLogCatalog";
+
+    /**
+     * @return the saved batches, ordered by retrieval time then batch token. Tokens restart after
+     * a reboot or when network logging is enabled again, so they only order batches retrieved
+     * at the same time.
+     */
+    public static List<Entry> list(Context context) {
+        return list(NetworkLogBatchWriter.getBatchDir(context));
+    }
+
+    static List<Entry> list(File dir) {
+        final List<Entry> entries = new ArrayList<>();
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return entries;
+        }
+        final Set<String> archivedBatches = new HashSet<>();
+        for (File file : files) {
+            if (NetworkLogArchive.parseDay(file) == -1) {
+                continue;
+            }
+            try {
+                final List<NetworkLogArchive.TableEntry> table = NetworkLogArchive.readTable(file);
+                for (int i = 0; i < table.size(); i++) {
+                    final NetworkLogArchive.TableEntry tableEntry = table.get(i);
+                    entries.add(new Entry(file, tableEntry.batchToken,
+                            tableEntry.retrievedAtMillis, i));
+                    archivedBatches.add(
+                            getKey(tableEntry.batchToken, tableEntry.retrievedAtMillis));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read network log archive " + file, e);
+            }
+        }
+        for (File file : files) {
+            final Entry entry = Entry.parse(file);
+            // A batch is left behind if compaction was interrupted after writing its archive.
+            if (entry != null && !archivedBatches.contains(entry.getKey())) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries);
+        return entries;
+    }
+
+    static String getKey(long batchToken, long retrievedAtMillis) {
+        return batchToken + "_" + retrievedAtMillis;
+    }
+
+    /**
+     * A batch, either in a file named {@code network_logs_<token>_<retrieval time>.bin} or in an
+     * archive.
+     */
+    public static class Entry implements Comparable<Entry> {
+        /** The batch file, or the archive holding the batch. */
+        public final File file;
+        public final long batchToken;
+        public final long retrievedAtMillis;
+        /** Index of the batch in its archive, or -1 if it is in its own file. */
+        final int archiveIndex;
+
+        Entry(File file, long batchToken, long retrievedAtMillis, int archiveIndex) {
+            this.file = file;
+            this.batchToken = batchToken;
+            this.retrievedAtMillis = retrievedAtMillis;
+            this.archiveIndex = archiveIndex;
+        }
+
+        /**
+         * @return a key identifying the batch, unlike its token alone
+         */
+        public String getKey() {
+            return NetworkLogCatalog.getKey(batchToken, retrievedAtMillis);
+        }
+
+        public boolean isArchived() {
+            return archiveIndex != -1;
+        }
+
+        static Entry parse(File file) {
+            final String name = file.getName();
+            if (!name.startsWith(NetworkLogBatch.FILE_PREFIX)
+                    || !name.endsWith(NetworkLogBatch.FILE_EXTENSION)) {
+                return null;
+            }
+            final String[] parts = name.substring(NetworkLogBatch.FILE_PREFIX.length(),
+                    name.length() - NetworkLogBatch.FILE_EXTENSION.length()).split("_");
+            if (parts.length != 2) {
+                return null;
+            }
+            try {
+                return new Entry(file, Long.parseLong(parts[0]), Long.parseLong(parts[1]), -1);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring unexpected file " + file);
+                return null;
+            }
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (retrievedAtMillis != other.retrievedAtMillis) {
+                return Long.compare(retrievedAtMillis, other.retrievedAtMillis);
+            }
+            return Long.compare(batchToken, other.batchToken);
+        }
+    }
+
+    /**
+     * Opens the batches of a catalog, keeping the batches of the last archive read so that
+     * consecutive entries of an archive only decompress it once.
+     */
+    public static class Reader {
+        private File mArchive;
+        private List<NetworkLogBatch> mArchiveBatches;
+
+        public NetworkLogBatch open(Entry entry) throws IOException {
+            if (!entry.isArchived()) {
+                return NetworkLogBatch.open(entry.file);
+            }
+            if (!entry.file.equals(mArchive)) {
+                mArchiveBatches = NetworkLogArchive.readBatches(entry.file);
+                mArchive = entry.file;
+            }
+            if (entry.archiveIndex >= mArchiveBatches.size()) {
+                throw new IOException("No batch " + entry.archiveIndex + " in " + entry.file);
+            }
+            return mArchiveBatches.get(entry.archiveIndex);
+        }
+    }
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Finds the network events of a hostname, domain, address or address prefix across all the
+ * saved network log batches, without reading the batches that hold none.
+ * <p>
+ * Hostnames are indexed in a {@link HostnameTrie} and addresses in an {@link IpPrefixTree}, both
+ * pointing to the position of the events in their batch. The index is saved as one section per
+ * batch appended to a log, so that indexing a batch never rewrites the others, and is replayed
+ * into memory when first used. Sections of batches deleted since are dropped on the next load.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class NetworkLogIndex {
+    private static final String TAG = "NetworkLogIndex";
+
+    private static final String DIR = "network_logs_index";
+    private static final String FILE_NAME = "index.log";
+    private static final int MAGIC = 0x4e4c4958; // "NLIX"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    /** Length and checksum of a section. */
+    private static final int SECTION_HEADER_SIZE = 8;
+
+    /** Most events a query returns, the most recent ones. */
+    public static final int MAX_RESULTS = 1000;
+
+    private static NetworkLogIndex sInstance;
+
+    private final Context mContext;
+    private final File mFile;
+
+    /** Token and retrieval time of the indexed batches, by batch id. */
+    private final LongList mBatchTokens = new LongList();
+    private final LongList mBatchRetrievedAtMillis = new LongList();
+    private HostnameTrie mHostnames = new HostnameTrie();
+    private IpPrefixTree mAddresses = new IpPrefixTree();
+
+    /**
+     * Keys of the batches indexed or given up on, rather than the last token indexed, as tokens
+     * restart after a reboot.
+     */
+    private final Set<String> mIndexedBatches = new HashSet<>();
+    private boolean mLoaded;
+
+    public static synchronized NetworkLogIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkLogIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NetworkLogIndex(Context context) {
+        mContext = context;
+        mFile = new File(context.getDir(DIR, Context.MODE_PRIVATE), FILE_NAME);
+    }
+
+    /**
+     * Indexes the batches saved since the last update.
+     */
+    @WorkerThread
+    public synchronized void update() {
+        loadIfNeeded();
+        final NetworkLogCatalog.Reader reader = new NetworkLogCatalog.Reader();
+        final ByteArrayOutputStream section = new ByteArrayOutputStream();
+        int batchCount = 0;
+        try (FileOutputStream out = new FileOutputStream(mFile, true /* append */)) {
+            if (out.getChannel().size() == 0) {
+                final DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+            }
+            for (NetworkLogCatalog.Entry entry : NetworkLogCatalog.list(mContext)) {
+                if (mIndexedBatches.contains(entry.getKey())) {
+                    continue;
+                }
+                try {
+                    section.reset();
+                    writeSection(reader.open(entry), new DataOutputStream(section));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read network logs from " + entry.file, e);
+                    mIndexedBatches.add(entry.getKey());
+                    continue;
+                }
+                // Not synced: a torn section fails its checksum and is indexed again.
+                final byte[] bytes = section.toByteArray();
+                appendSection(out, bytes);
+                addSection(new DataInputStream(new ByteArrayInputStream(bytes)));
+                batchCount++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save the network log index", e);
+            // The sections appended so far are consistent, the rest is indexed on the next load.
+            mLoaded = false;
+            return;
+        }
+        if (batchCount > 0) {
+            Log.d(TAG, "Indexed " + batchCount + " network log batches, "
+                    + mHostnames.getHostnameCount() + " hostnames, "
+                    + mAddresses.getAddressCount() + " addresses");
+        }
+    }
+
+    /**
+     * Indexes the batches saved since the last update, then finds the events matching
+     * {@code query}.
+     *
+     * @return at most {@link #MAX_RESULTS} events, the most recent ones, grouped by batch in
+     * catalog order
+     */
+    @WorkerThread
+    public synchronized List<Result> query(Query query) {
+        update();
+        final long startTime = SystemClock.elapsedRealtime();
+        final LongList locations = new LongList();
+        if (query.mHostnamePattern != null) {
+            mHostnames.find(query.mHostnamePattern, locations);
+        } else if (query.mAddress != null) {
+            mAddresses.find(query.mAddress, query.mAddress.length, query.mPrefixLength,
+                    locations);
+        }
+        locations.sort();
+
+        final Map<String, NetworkLogCatalog.Entry> entries = new HashMap<>();
+        for (NetworkLogCatalog.Entry entry : NetworkLogCatalog.list(mContext)) {
+            entries.put(entry.getKey(), entry);
+        }
+        final NetworkLogCatalog.Reader reader = new NetworkLogCatalog.Reader();
+        final List<Result> results = new ArrayList<>();
+        int resultCount = 0;
+        // Walks the locations of the most recent batches first, one batch at a time.
+        int end = locations.size();
+        while (end > 0 && resultCount < MAX_RESULTS) {
+            final int batchId = getBatchId(locations.get(end - 1));
+            int start = end - 1;
+            while (start > 0 && getBatchId(locations.get(start - 1)) == batchId) {
+                start--;
+            }
+            final NetworkLogCatalog.Entry entry = entries.get(NetworkLogCatalog.getKey(
+                    mBatchTokens.get(batchId), mBatchRetrievedAtMillis.get(batchId)));
+            if (entry != null && entry.retrievedAtMillis >= query.mFromMillis) {
+                try {
+                    final Result result = findPositions(reader.open(entry), locations, start,
+                            end, query.mFromMillis, MAX_RESULTS - resultCount);
+                    if (result.positions.length > 0) {
+                        results.add(result);
+                        resultCount += result.positions.length;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read network logs from " + entry.file, e);
+                }
+            }
+            end = start;
+        }
+        Collections.reverse(results);
+        Log.d(TAG, "Found " + resultCount + " network events out of " + locations.size()
+                + " locations in " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        return results;
+    }
+
+    /**
+     * @return the last {@code maxCount} distinct positions of {@code locations[start, end)}, of
+     * events logged at or after {@code fromMillis}
+     */
+    private static Result findPositions(NetworkLogBatch batch, LongList locations, int start,
+            int end, long fromMillis, int maxCount) {
+        final int[] positions = new int[Math.min(end - start, maxCount)];
+        int count = 0;
+        int previous = -1;
+        for (int i = end - 1; i >= start && count < positions.length; i--) {
+            final int position = getPosition(locations.get(i));
+            // An event may be indexed under several of its addresses.
+            if (position != previous && position < batch.size()
+                    && batch.getTimestamp(position) >= fromMillis) {
+                positions[count++] = position;
+            }
+            previous = position;
+        }
+        final int[] ascending = new int[count];
+        for (int i = 0; i < count; i++) {
+            ascending[i] = positions[count - 1 - i];
+        }
+        return new Result(batch, ascending);
+    }
+
+    /**
+     * Writes the hostnames and addresses of a batch, with the positions of their events.
+     */
+    private static void writeSection(NetworkLogBatch batch, DataOutputStream out)
+            throws IOException {
+        out.writeLong(batch.getBatchToken());
+        out.writeLong(batch.getRetrievedAtMillis());
+        out.writeInt(batch.getHostnameCount());
+        for (int i = 0; i < batch.getHostnameCount(); i++) {
+            out.writeUTF(batch.getHostnameAt(i));
+        }
+        int hostnameCount = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getType(i) == NetworkLogBatch.TYPE_DNS
+                    && batch.getHostnameIndex(i) != NetworkLogBatch.NO_INDEX) {
+                hostnameCount++;
+            }
+        }
+        out.writeInt(hostnameCount);
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getType(i) == NetworkLogBatch.TYPE_DNS
+                    && batch.getHostnameIndex(i) != NetworkLogBatch.NO_INDEX) {
+                out.writeInt(batch.getHostnameIndex(i));
+                out.writeInt(i);
+            }
+        }
+        int addressCount = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            addressCount += getIndexedAddressCount(batch, i);
+        }
+        out.writeInt(addressCount);
+        final byte[] address = new byte[16];
+        for (int i = 0; i < batch.size(); i++) {
+            for (int j = 0; j < getIndexedAddressCount(batch, i); j++) {
+                final int length = batch.getAddress(i, j, address);
+                out.writeByte(length);
+                out.write(address, 0, length);
+                out.writeInt(i);
+            }
+        }
+    }
+
+    private static int getIndexedAddressCount(NetworkLogBatch batch, int position) {
+        switch (batch.getType(position)) {
+            case NetworkLogBatch.TYPE_DNS:
+                return batch.getAddressCount(position);
+            case NetworkLogBatch.TYPE_CONNECT:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Adds a section read back to the trees, under a new batch id.
+     */
+    private void addSection(DataInputStream in) throws IOException {
+        final long batchId = mBatchTokens.size();
+        final long batchToken = in.readLong();
+        final long retrievedAtMillis = in.readLong();
+        final String[] hostnames = new String[in.readInt()];
+        for (int i = 0; i < hostnames.length; i++) {
+            hostnames[i] = in.readUTF();
+        }
+        final int hostnameCount = in.readInt();
+        for (int i = 0; i < hostnameCount; i++) {
+            final String hostname = hostnames[in.readInt()];
+            mHostnames.add(hostname, getLocation(batchId, in.readInt()));
+        }
+        final int addressCount = in.readInt();
+        final byte[] address = new byte[16];
+        for (int i = 0; i < addressCount; i++) {
+            final int length = in.readUnsignedByte();
+            in.readFully(address, 0, length);
+            mAddresses.add(address, length, getLocation(batchId, in.readInt()));
+        }
+        mBatchTokens.add(batchToken);
+        mBatchRetrievedAtMillis.add(retrievedAtMillis);
+        mIndexedBatches.add(NetworkLogCatalog.getKey(batchToken, retrievedAtMillis));
+    }
+
+    private static void appendSection(FileOutputStream out, byte[] section) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(section);
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(section.length);
+        header.writeInt((int) crc.getValue());
+        out.write(section);
+    }
+
+    /**
+     * Replays the saved sections into memory. A torn last section is cut off, and the sections of
+     * batches no longer in the catalog are dropped from the file.
+     */
+    private void loadIfNeeded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        clear();
+        final long startTime = SystemClock.elapsedRealtime();
+        final Map<String, NetworkLogCatalog.Entry> entries = new HashMap<>();
+        for (NetworkLogCatalog.Entry entry : NetworkLogCatalog.list(mContext)) {
+            entries.put(entry.getKey(), entry);
+        }
+        // Offset and size of the sections of batches still saved.
+        final List<long[]> liveSections = new ArrayList<>();
+        long offset = FILE_HEADER_SIZE;
+        int staleCount = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Discarding a network log index saved in another format");
+                deleteFile();
+                return;
+            }
+            final CRC32 crc = new CRC32();
+            byte[] section = new byte[0];
+            while (true) {
+                final int length;
+                final int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException("Invalid section length " + length);
+                    }
+                    if (section.length < length) {
+                        section = new byte[length];
+                    }
+                    in.readFully(section, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(section, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                final DataInputStream sectionIn = new DataInputStream(
+                        new ByteArrayInputStream(section, 0, length));
+                final long batchToken = sectionIn.readLong();
+                final long retrievedAtMillis = sectionIn.readLong();
+                final String key = NetworkLogCatalog.getKey(batchToken, retrievedAtMillis);
+                if (entries.containsKey(key)) {
+                    sectionIn.reset();
+                    addSection(sectionIn);
+                    liveSections.add(new long[] {offset, SECTION_HEADER_SIZE + length});
+                } else {
+                    staleCount++;
+                    // Never index it again, should it still be in an archive being compacted.
+                    mIndexedBatches.add(key);
+                }
+                offset += SECTION_HEADER_SIZE + length;
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing indexed yet.
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load the network log index, starting over", e);
+            clear();
+            deleteFile();
+            return;
+        }
+        try {
+            if (staleCount > 0) {
+                compact(liveSections);
+            } else if (offset < mFile.length()) {
+                Log.w(TAG, "Cutting off a torn network log index section");
+                try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+                    file.setLength(offset);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compact the network log index, starting over", e);
+            clear();
+            deleteFile();
+            return;
+        }
+        Log.d(TAG, "Loaded the index of " + mBatchTokens.size() + " network log batches in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms, dropped " + staleCount);
+    }
+
+    /**
+     * Rewrites the file with the given sections only, replacing it atomically.
+     */
+    private void compact(List<long[]> sections) throws IOException {
+        final File tempFile = new File(mFile.getPath() + ".tmp");
+        try (RandomAccessFile in = new RandomAccessFile(mFile, "r");
+                FileOutputStream out = new FileOutputStream(tempFile)) {
+            final DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            byte[] buffer = new byte[0];
+            for (long[] section : sections) {
+                if (buffer.length < section[1]) {
+                    buffer = new byte[(int) section[1]];
+                }
+                in.seek(section[0]);
+                in.readFully(buffer, 0, (int) section[1]);
+                out.write(buffer, 0, (int) section[1]);
+            }
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+
+    private void clear() {
+        mBatchTokens.clear();
+        mBatchRetrievedAtMillis.clear();
+        mHostnames = new HostnameTrie();
+        mAddresses = new IpPrefixTree();
+        mIndexedBatches.clear();
+    }
+
+    private void deleteFile() {
+        if (!mFile.delete() && mFile.exists()) {
+            Log.e(TAG, "Failed to delete " + mFile);
+        }
+    }
+
+    private static long getLocation(long batchId, int position) {
+        return (batchId << 32) | position;
+    }
+
+    private static int getBatchId(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int getPosition(long location) {
+        return (int) location;
+    }
+
+    /**
+     * The events of a batch matching a query.
+     */
+    public static class Result {
+        public final NetworkLogBatch batch;
+        /** Positions of the events in the batch, in ascending order. */
+        public final int[] positions;
+
+        Result(NetworkLogBatch batch, int[] positions) {
+            this.batch = batch;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * A hostname, domain, address or address prefix to look up, optionally in a time range.
+     */
+    public static class Query {
+        private static final String SINCE_PREFIX = "since:";
+        private static final String WILDCARD_PREFIX = "*.";
+        private static final Pattern IPV4 = Pattern.compile("[0-9.]+");
+        private static final int IPV6_GROUP_COUNT = 8;
+        private static final Pattern HOSTNAME =
+                Pattern.compile("[0-9a-zA-Z_-]+(\\.[0-9a-zA-Z_-]+)*\\.?");
+
+        private String mHostnamePattern;
+        private byte[] mAddress;
+        private int mPrefixLength;
+        private long mFromMillis = Long.MIN_VALUE;
+
+        private Query() {}
+
+        /**
+         * Parses a query typed by the user, made of space separated terms:
+         * <ul>
+         *     <li>{@code www.example.com}, a hostname of DNS events</li>
+         *     <li>{@code *.example.com}, a domain and all its subdomains</li>
+         *     <li>{@code 10.2.0.0/16} or {@code 2001:db8::/32}, the addresses of a prefix, of
+         *     connect events and DNS answers alike, the prefix length defaulting to the whole
+         *     address</li>
+         *     <li>{@code since:7d}, with a number of {@code m}inutes, {@code h}ours or
+         *     {@code d}ays</li>
+         * </ul>
+         *
+         * @return the query, or {@code null} if {@code text} is not made of a single hostname,
+         * domain or prefix and an optional time range
+         */
+        public static Query parse(String text, long nowMillis) {
+            if (text == null) {
+                return null;
+            }
+            final Query query = new Query();
+            boolean hasKey = false;
+            for (String term : text.trim().split("\\s+")) {
+                if (term.startsWith(SINCE_PREFIX)) {
+                    final long durationMillis =
+                            parseDuration(term.substring(SINCE_PREFIX.length()));
+                    if (durationMillis < 0) {
+                        return null;
+                    }
+                    query.mFromMillis = nowMillis - durationMillis;
+                } else if (hasKey || !query.parseKey(term)) {
+                    return null;
+                } else {
+                    hasKey = true;
+                }
+            }
+            return hasKey ? query : null;
+        }
+
+        private boolean parseKey(String term) {
+            final int slash = term.indexOf('/');
+            final String address = slash == -1 ? term : term.substring(0, slash);
+            // Hostnames never hold a colon, and are not all digits.
+            if (address.indexOf(':') != -1 || IPV4.matcher(address).matches()) {
+                mAddress = address.indexOf(':') != -1 ? parseIpv6(address) : parseIpv4(address);
+                if (mAddress == null) {
+                    return false;
+                }
+                final int maxPrefixLength = mAddress.length * 8;
+                if (slash == -1) {
+                    mPrefixLength = maxPrefixLength;
+                    return true;
+                }
+                try {
+                    mPrefixLength = Integer.parseInt(term.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                return mPrefixLength >= 0 && mPrefixLength <= maxPrefixLength;
+            }
+            final String hostname = term.startsWith(WILDCARD_PREFIX)
+                    ? term.substring(WILDCARD_PREFIX.length()) : term;
+            if (slash != -1 || !HOSTNAME.matcher(hostname).matches()) {
+                return false;
+            }
+            mHostnamePattern = term;
+            return true;
+        }
+
+        /**
+         * Parses a dotted quad literal, without resolving anything.
+         *
+         * @return the address, or {@code null} if it is not a valid literal
+         */
+        private static byte[] parseIpv4(String text) {
+            final String[] parts = text.split("\\.", -1);
+            if (parts.length != 4) {
+                return null;
+            }
+            final byte[] address = new byte[4];
+            for (int i = 0; i < parts.length; i++) {
+                final int value = parseNumber(parts[i], 3, 10);
+                if (value < 0 || value > 255) {
+                    return null;
+                }
+                address[i] = (byte) value;
+            }
+            return address;
+        }
+
+        /**
+         * Parses an IPv6 literal, possibly with a {@code ::} and a trailing dotted quad, without
+         * resolving anything.
+         *
+         * @return the address, or {@code null} if it is not a valid literal
+         */
+        private static byte[] parseIpv6(String text) {
+            final int[] groups = new int[IPV6_GROUP_COUNT];
+            final int doubleColon = text.indexOf("::");
+            if (doubleColon == -1) {
+                if (parseGroups(text, true, groups) != IPV6_GROUP_COUNT) {
+                    return null;
+                }
+            } else {
+                if (text.indexOf("::", doubleColon + 1) != -1) {
+                    return null;
+                }
+                final int[] tailGroups = new int[IPV6_GROUP_COUNT];
+                final int headCount = parseGroups(text.substring(0, doubleColon), false, groups);
+                final int tailCount = parseGroups(text.substring(doubleColon + 2), true,
+                        tailGroups);
+                // The double colon stands for at least one group.
+                if (headCount < 0 || tailCount < 0
+                        || headCount + tailCount >= IPV6_GROUP_COUNT) {
+                    return null;
+                }
+                System.arraycopy(tailGroups, 0, groups, IPV6_GROUP_COUNT - tailCount, tailCount);
+            }
+            final byte[] address = new byte[IPV6_GROUP_COUNT * 2];
+            for (int i = 0; i < IPV6_GROUP_COUNT; i++) {
+                address[i * 2] = (byte) (groups[i] >> 8);
+                address[i * 2 + 1] = (byte) groups[i];
+            }
+            return address;
+        }
+
+        /**
+         * Parses colon separated groups of hexadecimal digits into {@code groups}.
+         *
+         * @param allowIpv4 whether the last group may be a dotted quad, taking two groups
+         * @return the number of groups, or -1 if they are not valid
+         */
+        private static int parseGroups(String text, boolean allowIpv4, int[] groups) {
+            if (text.isEmpty()) {
+                return 0;
+            }
+            final String[] parts = text.split(":", -1);
+            int count = 0;
+            for (int i = 0; i < parts.length; i++) {
+                if (allowIpv4 && i == parts.length - 1 && parts[i].indexOf('.') != -1) {
+                    final byte[] ipv4 = parseIpv4(parts[i]);
+                    if (ipv4 == null || count + 2 > groups.length) {
+                        return -1;
+                    }
+                    groups[count++] = (ipv4[0] & 0xff) << 8 | (ipv4[1] & 0xff);
+                    groups[count++] = (ipv4[2] & 0xff) << 8 | (ipv4[3] & 0xff);
+                    continue;
+                }
+                final int value = parseNumber(parts[i], 4, 16);
+                if (value < 0 || count == groups.length) {
+                    return -1;
+                }
+                groups[count++] = value;
+            }
+            return count;
+        }
+
+        /**
+         * @return the value of 1 to {@code maxDigits} digits, or -1 if they are not valid
+         */
+        private static int parseNumber(String digits, int maxDigits, int radix) {
+            if (digits.isEmpty() || digits.length() > maxDigits) {
+                return -1;
+            }
+            int value = 0;
+            for (int i = 0; i < digits.length(); i++) {
+                final char c = digits.charAt(i);
+                // Only ASCII digits, Character.digit also accepts other scripts.
+                final int digit = c < 0x80 ? Character.digit(c, radix) : -1;
+                if (digit < 0) {
+                    return -1;
+                }
+                value = value * radix + digit;
+            }
+            return value;
+        }
+
+        /**
+         * @return the duration in millis, or -1 if it can not be parsed
+         */
+        private static long parseDuration(String duration) {
+            if (duration.length() < 2) {
+                return -1;
+            }
+            final long value;
+            try {
+                value = Long.parseLong(duration.substring(0, duration.length() - 1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            switch (duration.charAt(duration.length() - 1)) {
+                case 'm':
+                    return TimeUnit.MINUTES.toMillis(value);
+                case 'h':
+                    return TimeUnit.HOURS.toMillis(value);
+                case 'd':
+                    return TimeUnit.DAYS.toMillis(value);
+                default:
+                    return -1;
+            }
+        }
+    }
+}
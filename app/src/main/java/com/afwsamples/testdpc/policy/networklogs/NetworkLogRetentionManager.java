@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the saved network logs within a storage and an age budget, set in the preferences.
+ * <p>
+ * Batches retrieved before today are compacted into one {@link NetworkLogArchive} per day, and
+ * the oldest batches and archives are deleted once past either budget. Every run does a bounded
+ * amount of work, compacting a single day, so that it can follow every saved batch.
+ * </p>
+ */
+public class NetworkLogRetentionManager {
+    private static final String TAG = "NetworkLogRetention";
+
+    public static final String MAX_STORAGE_MB_KEY = "network_logs_max_storage_mb";
+    public static final String MAX_AGE_DAYS_KEY = "network_logs_max_age_days";
+    public static final int DEFAULT_MAX_STORAGE_MB = 32;
+    public static final int DEFAULT_MAX_AGE_DAYS = 30;
+
+    private static final Object sLock = new Object();
+
+    private final File mDir;
+    private final SharedPreferences mSharedPreferences;
+
+    public NetworkLogRetentionManager(Context context) {
+        mDir = NetworkLogBatchWriter.getBatchDir(context);
+        mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * Compacts the oldest day not compacted yet, then deletes what is past the budgets.
+     */
+    @WorkerThread
+    public void run() {
+        synchronized (sLock) {
+            try {
+                compactOldestDay(System.currentTimeMillis());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to compact network logs", e);
+            }
+            enforceBudgets(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Parses a budget set in the preferences, which are edited as text.
+     *
+     * @return the budget, or -1 if it is not a positive number
+     */
+    public static int parseBudget(String value) {
+        try {
+            final int budget = Integer.parseInt(value.trim());
+            return budget > 0 ? budget : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int getBudget(String key, int defaultValue) {
+        final int budget = parseBudget(mSharedPreferences.getString(key, ""));
+        return budget == -1 ? defaultValue : budget;
+    }
+
+    /**
+     * Deletes the temporary files left by writes interrupted by a crash. Must not run while a
+     * batch or an archive is being written, {@link NetworkLogWriter} runs it before its first
+     * batch.
+     */
+    @WorkerThread
+    void deleteTemporaryFiles() {
+        final File[] files = mDir.listFiles((File dir, String name) -> name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Log.w(TAG, "Deleting incomplete file " + file);
+            file.delete();
+        }
+    }
+
+    private void compactOldestDay(long nowMillis) throws IOException {
+        // Not listed through the catalog, which hides the batches already archived.
+        final File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<NetworkLogCatalog.Entry> entries = new ArrayList<>();
+        long day = getDay(nowMillis);
+        for (File file : files) {
+            final NetworkLogCatalog.Entry entry = NetworkLogCatalog.Entry.parse(file);
+            if (entry != null) {
+                entries.add(entry);
+                day = Math.min(day, getDay(entry.retrievedAtMillis));
+            }
+        }
+        final List<NetworkLogCatalog.Entry> batches = new ArrayList<>();
+        for (NetworkLogCatalog.Entry entry : entries) {
+            if (getDay(entry.retrievedAtMillis) == day) {
+                batches.add(entry);
+            }
+        }
+        Collections.sort(batches);
+        if (day == getDay(nowMillis) || batches.isEmpty()) {
+            // Today's batches are only compacted once the day is over.
+            return;
+        }
+
+        final File archive = NetworkLogArchive.getFile(mDir, day);
+        final List<NetworkLogArchive.TableEntry> table = new ArrayList<>();
+        final List<byte[]> data = new ArrayList<>();
+        final Set<String> archivedBatches = new HashSet<>();
+        if (archive.exists()) {
+            // Batches retrieved late, or left behind by an interrupted compaction.
+            table.addAll(NetworkLogArchive.readTable(archive));
+            data.addAll(NetworkLogArchive.readData(archive));
+            for (NetworkLogArchive.TableEntry entry : table) {
+                archivedBatches.add(
+                        NetworkLogCatalog.getKey(entry.batchToken, entry.retrievedAtMillis));
+            }
+        }
+        for (NetworkLogCatalog.Entry entry : batches) {
+            if (archivedBatches.contains(entry.getKey())) {
+                continue;
+            }
+            final byte[] bytes = readFile(entry.file);
+            try {
+                NetworkLogBatch.wrap(entry.file, ByteBuffer.wrap(bytes));
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable network log batch " + entry.file, e);
+                continue;
+            }
+            table.add(new NetworkLogArchive.TableEntry(
+                    entry.batchToken, entry.retrievedAtMillis, bytes.length));
+            data.add(bytes);
+        }
+        NetworkLogArchive.write(archive, day, table, data);
+        // Only deleted once the archive holding them is in place.
+        for (NetworkLogCatalog.Entry entry : batches) {
+            entry.file.delete();
+        }
+        Log.i(TAG, "Compacted " + batches.size() + " network log batches into " + archive);
+    }
+
+    /**
+     * Deletes the batches and archives older than the age budget, then the oldest ones until
+     * the rest fits in the storage budget, always keeping the newest one.
+     */
+    private void enforceBudgets(long nowMillis) {
+        final long maxBytes = getBudget(MAX_STORAGE_MB_KEY, DEFAULT_MAX_STORAGE_MB) * 1024L * 1024L;
+        final long minRetrievedAtMillis = nowMillis
+                - TimeUnit.DAYS.toMillis(getBudget(MAX_AGE_DAYS_KEY, DEFAULT_MAX_AGE_DAYS));
+
+        // Retrieval time of the newest batch of every file.
+        final Map<File, Long> newestBatches = new HashMap<>();
+        for (NetworkLogCatalog.Entry entry : NetworkLogCatalog.list(mDir)) {
+            final Long retrievedAtMillis = newestBatches.get(entry.file);
+            if (retrievedAtMillis == null || retrievedAtMillis < entry.retrievedAtMillis) {
+                newestBatches.put(entry.file, entry.retrievedAtMillis);
+            }
+        }
+        final List<File> files = new ArrayList<>(newestBatches.keySet());
+        Collections.sort(files,
+                (a, b) -> Long.compare(newestBatches.get(b), newestBatches.get(a)));
+
+        long totalBytes = 0;
+        // Once a file is past a budget, so are the older ones, even if they would fit, so that
+        // what is kept never has gaps.
+        boolean pastBudget = false;
+        for (int i = 0; i < files.size(); i++) {
+            final File file = files.get(i);
+            final long length = file.length();
+            pastBudget = pastBudget || (i > 0 && (newestBatches.get(file) < minRetrievedAtMillis
+                    || totalBytes + length > maxBytes));
+            if (pastBudget) {
+                Log.i(TAG, "Deleting network logs past the retention budget: " + file);
+                file.delete();
+                continue;
+            }
+            totalBytes += length;
+        }
+    }
+
+    /**
+     * @return the local day of the given time, counted in days since the epoch
+     */
+    private static long getDay(long millis) {
+        return TimeUnit.MILLISECONDS.toDays(millis + TimeZone.getDefault().getOffset(millis));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            final byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.annotation.TargetApi;
+import android.app.Fragment;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.SearchView;
+import com.afwsamples.testdpc.R;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Looks a hostname, domain, address or address prefix up in the {@link NetworkLogIndex}, and
+ * shows the matching events grouped by batch.
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class NetworkLogSearchFragment extends Fragment {
+
+    private NetworkLogsAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private SearchTask mSearchTask;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+        mAdapter = new NetworkLogsAdapter();
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        mRecyclerView = (RecyclerView) inflater.inflate(R.layout.network_logs, container, false);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        mRecyclerView.setAdapter(mAdapter);
+        if (mAdapter.getItemCount() == 0) {
+            mAdapter.addMessage(getString(R.string.network_logs_search_help));
+        }
+        return mRecyclerView;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mSearchTask != null) {
+            mSearchTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.network_logs_search_menu, menu);
+        final MenuItem item = menu.findItem(R.id.action_search_network_logs);
+        final SearchView searchView = (SearchView) item.getActionView();
+        searchView.setQueryHint(getString(R.string.network_logs_search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String text) {
+                search(text);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                return false;
+            }
+        });
+        item.expandActionView();
+    }
+
+    private void search(String text) {
+        if (mSearchTask != null) {
+            mSearchTask.cancel(false);
+        }
+        mAdapter.clear();
+        mAdapter.addMessage(getString(R.string.network_logs_search_message, text));
+        mSearchTask = new SearchTask(getActivity(), text);
+        mSearchTask.execute();
+    }
+
+    /**
+     * Parses the query, then brings the index up to date and runs the query on it.
+     */
+    private class SearchTask extends AsyncTask<Void, Void, List<NetworkLogIndex.Result>> {
+        private final Context mContext;
+        private final String mText;
+
+        SearchTask(Context context, String text) {
+            mContext = context.getApplicationContext();
+            mText = text;
+        }
+
+        /**
+         * @return the results, or {@code null} if the query is not valid
+         */
+        @Override
+        protected List<NetworkLogIndex.Result> doInBackground(Void... voids) {
+            final NetworkLogIndex.Query query =
+                    NetworkLogIndex.Query.parse(mText, System.currentTimeMillis());
+            if (query == null) {
+                return null;
+            }
+            return NetworkLogIndex.getInstance(mContext).query(query);
+        }
+
+        @Override
+        protected void onPostExecute(List<NetworkLogIndex.Result> results) {
+            if (!isAdded()) {
+                return;
+            }
+            if (results == null) {
+                mAdapter.clear();
+                mAdapter.addMessage(getString(R.string.network_logs_search_invalid, mText));
+                mAdapter.addMessage(getString(R.string.network_logs_search_help));
+                return;
+            }
+            int count = 0;
+            for (NetworkLogIndex.Result result : results) {
+                count += result.positions.length;
+            }
+            mAdapter.addMessage(getString(count < NetworkLogIndex.MAX_RESULTS
+                    ? R.string.network_logs_search_results
+                    : R.string.network_logs_search_results_truncated, count));
+            final DateFormat dateFormat = DateFormat.getDateTimeInstance();
+            for (NetworkLogIndex.Result result : results) {
+                mAdapter.addPage(new NetworkLogsAdapter.Page(result.batch, result.positions,
+                        getString(R.string.network_logs_batch_header,
+                                result.batch.getBatchToken(),
+                                dateFormat.format(new Date(result.batch.getRetrievedAtMillis())),
+                                result.positions.length)));
+            }
+            if (mAdapter.getItemCount() > 0) {
+                mRecyclerView.scrollToPosition(mAdapter.getItemCount() - 1);
+            }
+        }
+    }
+}
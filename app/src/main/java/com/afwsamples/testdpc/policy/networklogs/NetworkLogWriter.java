@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.annotation.TargetApi;
+import android.app.admin.DevicePolicyManager;
+import android.app.admin.NetworkEvent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+import android.widget.Toast;
+import com.afwsamples.testdpc.DeviceAdminReceiver;
+import com.afwsamples.testdpc.R;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retrieves and saves the network log batches on a dedicated thread, so that neither the main
+ * thread nor the shared {@link android.os.AsyncTask} executor wait for the disk.
+ * <p>
+ * The broadcast announcing a batch is held with {@link BroadcastReceiver#goAsync()} until the
+ * batch is saved, and the writer thread does nothing but retrieve and save batches, so a batch
+ * only ever waits for the batches submitted before it.
+ * </p>
+ * <p>
+ * Retention, analytics and indexing, which may take much longer, run on a thread of their own.
+ * Batches saved while they run are taken into account by a single later pass.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class NetworkLogWriter {
+    private static final String TAG = "NetworkLogWriter";
+
+    /**
+     * Whether every batch is synced to the disk before being renamed into place. Otherwise the
+     * kernel flushes it later, and a crash may lose the latest batches.
+     */
+    public static final String SYNC_EVERY_BATCH_KEY = "network_logs_sync_every_batch";
+
+    /**
+     * Local broadcast sent once a batch is saved and listed by the {@link NetworkLogCatalog}.
+     */
+    public static final String ACTION_BATCH_SAVED =
+            "com.afwsamples.testdpc.NETWORK_LOG_BATCH_SAVED";
+
+    /** Window of the recent throughput. */
+    private static final long RATE_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static NetworkLogWriter sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final ExecutorService mDerivedExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /** Only used on the writer thread. */
+    private final NetworkLogBatchWriter mBatchWriter = new NetworkLogBatchWriter();
+
+    // Metrics, guarded by this.
+    private int mQueuedBatches;
+    private int mMaxQueuedBatches;
+    private long mBatchCount;
+    private long mEventCount;
+    private long mByteCount;
+    private long mWriteMillis;
+    private long mMaxQueueMillis;
+    /** Time, events and bytes of every batch saved within the rate window. */
+    private final ArrayDeque<long[]> mRecentBatches = new ArrayDeque<>();
+    /** Whether a pass of retention, analytics and indexing is waiting to start. */
+    private boolean mDerivedUpdatePending;
+
+    public static synchronized NetworkLogWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NetworkLogWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private NetworkLogWriter(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        // Before the first batch, as it may delete what is being written.
+        mHandler.post(() -> new NetworkLogRetentionManager(mContext).deleteTemporaryFiles());
+    }
+
+    /**
+     * Retrieves and saves a batch on the writer thread, finishing {@code result} once it is
+     * saved, then schedules an update of what is derived from the saved batches.
+     */
+    public void submit(long batchToken, BroadcastReceiver.PendingResult result) {
+        final long queuedAt = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            mQueuedBatches++;
+            mMaxQueuedBatches = Math.max(mMaxQueuedBatches, mQueuedBatches);
+        }
+        mHandler.post(() -> {
+            boolean saved = false;
+            try {
+                saved = saveBatch(batchToken, queuedAt);
+            } finally {
+                synchronized (this) {
+                    mQueuedBatches--;
+                }
+                result.finish();
+            }
+            if (saved) {
+                scheduleDerivedUpdate();
+            }
+        });
+    }
+
+    /**
+     * Runs retention, analytics and indexing on their own thread, unless a pass is already
+     * waiting to start, in which case it covers the latest batch too.
+     */
+    private void scheduleDerivedUpdate() {
+        synchronized (this) {
+            if (mDerivedUpdatePending) {
+                return;
+            }
+            mDerivedUpdatePending = true;
+        }
+        mDerivedExecutor.execute(() -> {
+            synchronized (this) {
+                mDerivedUpdatePending = false;
+            }
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            new NetworkLogRetentionManager(mContext).run();
+            NetworkLogAnalytics.getInstance(mContext).update();
+            NetworkLogIndex.getInstance(mContext).update();
+        });
+    }
+
+    /**
+     * @return the metrics of the batches saved since the process started
+     */
+    public synchronized Metrics getMetrics() {
+        final long now = SystemClock.elapsedRealtime();
+        pruneRecentBatches(now);
+        Metrics metrics = new Metrics();
+        metrics.batchCount = mBatchCount;
+        metrics.eventCount = mEventCount;
+        metrics.byteCount = mByteCount;
+        metrics.queuedBatches = mQueuedBatches;
+        metrics.maxQueuedBatches = mMaxQueuedBatches;
+        metrics.maxQueueMillis = mMaxQueueMillis;
+        if (mWriteMillis > 0) {
+            metrics.writeEventsPerSecond = mEventCount * 1000 / mWriteMillis;
+            metrics.writeBytesPerSecond = mByteCount * 1000 / mWriteMillis;
+        }
+        for (long[] batch : mRecentBatches) {
+            metrics.recentEventsPerSecond += batch[1];
+            metrics.recentBytesPerSecond += batch[2];
+        }
+        metrics.recentEventsPerSecond /= TimeUnit.MILLISECONDS.toSeconds(RATE_WINDOW_MS);
+        metrics.recentBytesPerSecond /= TimeUnit.MILLISECONDS.toSeconds(RATE_WINDOW_MS);
+        return metrics;
+    }
+
+    /**
+     * @return whether the batch was saved
+     */
+    private boolean saveBatch(long batchToken, long queuedAt) {
+        final long startTime = SystemClock.elapsedRealtime();
+        final DevicePolicyManager dpm =
+                (DevicePolicyManager) mContext.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        List<NetworkEvent> events = null;
+        try {
+            events = dpm.retrieveNetworkLogs(
+                    DeviceAdminReceiver.getComponentName(mContext), batchToken);
+        } catch (SecurityException e) {
+            Log.e(TAG,
+                "Exception while retrieving network logs batch with batchToken: " + batchToken, e);
+        }
+
+        if (events == null) {
+            Log.e(TAG, "Failed to retrieve network logs batch with batchToken: " + batchToken);
+            showToast(mContext.getString(
+                    R.string.on_network_logs_available_token_failure, batchToken));
+            return false;
+        }
+        showToast(mContext.getString(R.string.on_network_logs_available_success, batchToken));
+
+        final boolean sync = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getBoolean(SYNC_EVERY_BATCH_KEY, true);
+        final long retrievedAtMillis = System.currentTimeMillis();
+        final File file =
+                NetworkLogBatchWriter.getBatchFile(mContext, batchToken, retrievedAtMillis);
+        final long writeStartTime = SystemClock.elapsedRealtime();
+        final int size;
+        try {
+            size = mBatchWriter.write(file, batchToken, retrievedAtMillis, events, sync);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed saving network events to file " + file, e);
+            return false;
+        }
+        final long endTime = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            mBatchCount++;
+            mEventCount += events.size();
+            mByteCount += size;
+            mWriteMillis += endTime - writeStartTime;
+            mMaxQueueMillis = Math.max(mMaxQueueMillis, startTime - queuedAt);
+            mRecentBatches.add(new long[] {endTime, events.size(), size});
+            pruneRecentBatches(endTime);
+        }
+        Log.d(TAG, "Saved " + events.size() + " network events, " + size + " bytes, to " + file
+                + " in " + (endTime - writeStartTime) + "ms after waiting "
+                + (startTime - queuedAt) + "ms");
+        LocalBroadcastManager.getInstance(mContext).sendBroadcast(new Intent(ACTION_BATCH_SAVED));
+        return true;
+    }
+
+    private void pruneRecentBatches(long now) {
+        while (!mRecentBatches.isEmpty() && mRecentBatches.peek()[0] < now - RATE_WINDOW_MS) {
+            mRecentBatches.poll();
+        }
+    }
+
+    private void showToast(String message) {
+        mMainHandler.post(() -> Toast.makeText(mContext, message, Toast.LENGTH_LONG).show());
+    }
+
+    /**
+     * A snapshot of the writer metrics.
+     */
+    public static class Metrics {
+        public long batchCount;
+        public long eventCount;
+        public long byteCount;
+        /** Throughput of the writes alone, i.e. what the disk can take. */
+        public long writeEventsPerSecond;
+        public long writeBytesPerSecond;
+        /** Throughput over the last minute, i.e. what the writer is given. */
+        public long recentEventsPerSecond;
+        public long recentBytesPerSecond;
+        public int queuedBatches;
+        public int maxQueuedBatches;
+        /** Longest time a batch waited for the writer thread. */
+        public long maxQueueMillis;
+    }
+}
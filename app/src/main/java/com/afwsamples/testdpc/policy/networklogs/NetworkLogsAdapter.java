@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows status messages followed by pages of events, each page being a range of a
+ * {@link NetworkLogBatch} under a header row. Events are read from the mapped batches and
+ * formatted only when their row is bound.
+ */
+public class NetworkLogsAdapter extends RecyclerView.Adapter<NetworkLogsAdapter.ViewHolder> {
+    private final List<String> mMessages = new ArrayList<>();
+    private final List<Page> mPages = new ArrayList<>();
+    private final StringBuilder mStringBuilder = new StringBuilder();
+    /** Number of rows taken by all the pages. */
+    private int mPageRows;
+
+    public void addMessage(String message) {
+        mMessages.add(message);
+        notifyItemInserted(mMessages.size() - 1);
+    }
+
+    /**
+     * Appends a page, e.g. streamed in from a background thread.
+     */
+    public void addPage(Page page) {
+        page.mStartRow = mPageRows;
+        mPages.add(page);
+        mPageRows += page.getRowCount();
+        notifyItemRangeInserted(mMessages.size() + page.mStartRow, page.getRowCount());
+    }
+
+    /**
+     * Appends pages with a single change notification.
+     */
+    public void addPages(List<Page> pages) {
+        final int startRow = mPageRows;
+        for (Page page : pages) {
+            page.mStartRow = mPageRows;
+            mPages.add(page);
+            mPageRows += page.getRowCount();
+        }
+        notifyItemRangeInserted(mMessages.size() + startRow, mPageRows - startRow);
+    }
+
+    public List<Page> getPages() {
+        return Collections.unmodifiableList(mPages);
+    }
+
+    /**
+     * @return the position of the header row of the given page
+     */
+    public int getPosition(Page page) {
+        return mMessages.size() + page.mStartRow;
+    }
+
+    public void clear() {
+        mMessages.clear();
+        mPages.clear();
+        mPageRows = 0;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(android.R.layout.simple_list_item_1, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        if (position < mMessages.size()) {
+            holder.text.setText(mMessages.get(position));
+            return;
+        }
+        final int row = position - mMessages.size();
+        final Page page = mPages.get(findPage(row));
+        if (row == page.mStartRow) {
+            holder.text.setText(page.header);
+            return;
+        }
+        mStringBuilder.setLength(0);
+        page.batch.format(page.getPosition(row - page.mStartRow - 1), mStringBuilder);
+        holder.text.setText(mStringBuilder.toString());
+    }
+
+    @Override
+    public int getItemCount() {
+        return mMessages.size() + mPageRows;
+    }
+
+    /**
+     * @return the index of the page holding the given row, by binary search on the start rows
+     */
+    private int findPage(int row) {
+        int low = 0;
+        int high = mPages.size() - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (mPages.get(middle).mStartRow <= row) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The events of a batch in [{@link #from}, {@link #to}), or the events at the given positions
+     * of a batch.
+     */
+    public static class Page {
+        public final NetworkLogBatch batch;
+        public final int from;
+        public final int to;
+        public final String header;
+        private final int[] mPositions;
+        private int mStartRow;
+
+        public Page(NetworkLogBatch batch, int from, int to, String header) {
+            this(batch, from, to, null, header);
+        }
+
+        /**
+         * @param positions positions of the events in the batch, in ascending order
+         */
+        public Page(NetworkLogBatch batch, int[] positions, String header) {
+            this(batch, 0, positions.length, positions, header);
+        }
+
+        private Page(NetworkLogBatch batch, int from, int to, int[] positions, String header) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+            this.header = header;
+            mPositions = positions;
+        }
+
+        int getRowCount() {
+            return 1 + to - from;
+        }
+
+        /**
+         * @return the position in the batch of the event shown in the given row of the page
+         */
+        int getPosition(int row) {
+            return mPositions != null ? mPositions[from + row] : from + row;
+        }
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            text = itemView.findViewById(android.R.id.text1);
+        }
+    }
+}
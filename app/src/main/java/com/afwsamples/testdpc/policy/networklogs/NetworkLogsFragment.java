@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.networklogs;
+
+import android.annotation.TargetApi;
+import android.app.AlertDialog;
+import android.app.Fragment;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.AsyncTask;
+import android.os.Build.VERSION_CODES;
+import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Toast;
+import com.afwsamples.testdpc.R;
+import com.afwsamples.testdpc.common.FrameCoalescer;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Display the retrieved batches of NetworkEvents, oldest first. Batches are opened in the
+ * background and streamed into the list one page at a time.
+ * <p>
+ * In live tail mode, the batches saved by the {@link NetworkLogWriter} are appended as they come.
+ * Pages are appended at most once per frame, however many batches arrive at once.
+ * </p>
+ */
+@TargetApi(VERSION_CODES.O)
+public class NetworkLogsFragment extends Fragment {
+
+    private static final String TAG = "NetworkLogsFragment";
+
+    private static final String TEXT_FILE_EXTENSION = ".txt";
+
+    /** Choices of R.array.network_logs_time_range_choices, 0 meaning no limit. */
+    private static final long[] TIME_RANGES_MILLIS = {
+            0,
+            TimeUnit.HOURS.toMillis(1),
+            TimeUnit.HOURS.toMillis(6),
+            TimeUnit.DAYS.toMillis(1),
+            TimeUnit.DAYS.toMillis(7)
+    };
+
+    private NetworkLogsAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private LinearLayoutManager mLayoutManager;
+    private LoadBatchesTask mLoadTask;
+    private long mTimeRangeMillis;
+    private FrameCoalescer<NetworkLogsAdapter.Page> mPageCoalescer;
+
+    private boolean mLiveTail;
+    /** Whether new batches were saved while batches were being loaded. */
+    private boolean mTailPending;
+    /**
+     * The keys of the batches of the catalog already loaded, the live tail loading the others.
+     * Tokens restart after a reboot, so the last token loaded does not tell which batches are new.
+     */
+    private Set<String> mLoadedBatches = new HashSet<>();
+
+    private final BroadcastReceiver mBatchSavedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            loadNewBatches();
+        }
+    };
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+        mAdapter = new NetworkLogsAdapter();
+        mPageCoalescer = new FrameCoalescer<>(this::appendPages);
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        mRecyclerView = (RecyclerView) inflater.inflate(R.layout.network_logs, container, false);
+        mLayoutManager = new LinearLayoutManager(getActivity());
+        mRecyclerView.setLayoutManager(mLayoutManager);
+        mRecyclerView.setAdapter(mAdapter);
+        return mRecyclerView;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        if (mLoadTask == null) {
+            loadBatches();
+        }
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (mLiveTail) {
+            startLiveTail();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        if (mLiveTail) {
+            stopLiveTail();
+        }
+        super.onStop();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        mPageCoalescer.cancel();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.network_logs_menu, menu);
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_network_logs_live_tail).setChecked(mLiveTail);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_network_logs_live_tail:
+                mLiveTail = !mLiveTail;
+                item.setChecked(mLiveTail);
+                if (mLiveTail) {
+                    startLiveTail();
+                } else {
+                    stopLiveTail();
+                }
+                return true;
+            case R.id.action_network_logs_jump_to_batch:
+                showJumpToBatchDialog();
+                return true;
+            case R.id.action_network_logs_time_range:
+                showTimeRangeDialog();
+                return true;
+            case R.id.action_network_logs_search:
+                getFragmentManager().beginTransaction()
+                        .addToBackStack(NetworkLogsFragment.class.getName())
+                        .replace(R.id.container, new NetworkLogSearchFragment())
+                        .commit();
+                return true;
+            case R.id.action_network_logs_analytics:
+                getFragmentManager().beginTransaction()
+                        .addToBackStack(NetworkLogsFragment.class.getName())
+                        .replace(R.id.container, new NetworkLogAnalyticsFragment())
+                        .commit();
+                return true;
+            case R.id.action_network_logs_writer_stats:
+                showWriterStats();
+                return true;
+            case R.id.action_export_network_logs_text:
+                List<NetworkLogBatch> batches = new ArrayList<>();
+                for (NetworkLogsAdapter.Page page : mAdapter.getPages()) {
+                    batches.add(page.batch);
+                }
+                if (!batches.isEmpty()) {
+                    new ExportTextTask(getActivity(), batches).execute();
+                }
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void loadBatches() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        mPageCoalescer.cancel();
+        mAdapter.clear();
+        mLoadedBatches = new HashSet<>();
+        mTailPending = false;
+        mLoadTask = new LoadBatchesTask(getActivity(), getFromMillis(), mLoadedBatches);
+        mLoadTask.execute();
+    }
+
+    /**
+     * Loads the batches not loaded yet, once the batches being loaded are.
+     */
+    private void loadNewBatches() {
+        if (mLoadTask != null && mLoadTask.getStatus() != AsyncTask.Status.FINISHED) {
+            mTailPending = true;
+            return;
+        }
+        mLoadTask = new LoadBatchesTask(getActivity(), getFromMillis(), mLoadedBatches);
+        mLoadTask.execute();
+    }
+
+    private long getFromMillis() {
+        return mTimeRangeMillis == 0 ? 0 : System.currentTimeMillis() - mTimeRangeMillis;
+    }
+
+    private void startLiveTail() {
+        LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mBatchSavedReceiver,
+                new IntentFilter(NetworkLogWriter.ACTION_BATCH_SAVED));
+        // Catches up with the batches saved while not tailing.
+        loadNewBatches();
+    }
+
+    private void stopLiveTail() {
+        LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mBatchSavedReceiver);
+        mTailPending = false;
+    }
+
+    /**
+     * Appends the pages loaded since the last frame, keeping the end of the list in view if it
+     * was.
+     */
+    private void appendPages(List<NetworkLogsAdapter.Page> pages) {
+        final boolean atEnd =
+                mLayoutManager.findLastVisibleItemPosition() >= mAdapter.getItemCount() - 1;
+        mAdapter.addPages(pages);
+        if (atEnd) {
+            mRecyclerView.scrollToPosition(mAdapter.getItemCount() - 1);
+        }
+    }
+
+    private void showWriterStats() {
+        final NetworkLogWriter.Metrics metrics =
+                NetworkLogWriter.getInstance(getActivity()).getMetrics();
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.menu_network_logs_writer_stats_title)
+                .setMessage(getString(R.string.network_logs_writer_stats, metrics.batchCount,
+                        metrics.eventCount, metrics.byteCount, metrics.writeEventsPerSecond,
+                        metrics.writeBytesPerSecond, metrics.recentEventsPerSecond,
+                        metrics.recentBytesPerSecond, metrics.queuedBatches,
+                        metrics.maxQueuedBatches, metrics.maxQueueMillis))
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    private void showJumpToBatchDialog() {
+        final List<NetworkLogsAdapter.Page> pages = mAdapter.getPages();
+        if (pages.isEmpty()) {
+            return;
+        }
+        final String[] headers = new String[pages.size()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = pages.get(i).header;
+        }
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.menu_network_logs_jump_to_batch_title)
+                .setItems(headers, (dialog, which) -> mLayoutManager.scrollToPositionWithOffset(
+                        mAdapter.getPosition(pages.get(which)), 0))
+                .show();
+    }
+
+    private void showTimeRangeDialog() {
+        int checkedItem = 0;
+        for (int i = 0; i < TIME_RANGES_MILLIS.length; i++) {
+            if (TIME_RANGES_MILLIS[i] == mTimeRangeMillis) {
+                checkedItem = i;
+            }
+        }
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.menu_network_logs_time_range_title)
+                .setSingleChoiceItems(R.array.network_logs_time_range_choices, checkedItem,
+                        (dialog, which) -> {
+                            dialog.dismiss();
+                            mTimeRangeMillis = TIME_RANGES_MILLIS[which];
+                            loadBatches();
+                        })
+                .show();
+    }
+
+    /**
+     * Opens the batches not loaded yet in catalog order, publishing the events at or after the
+     * start of the time range as one page per batch.
+     */
+    private class LoadBatchesTask extends AsyncTask<Void, NetworkLogsAdapter.Page, Integer> {
+        private final Context mContext;
+        private final long mFromMillis;
+        private final DateFormat mDateFormat = DateFormat.getDateTimeInstance();
+        private final boolean mInitialLoad;
+        private final Set<String> mLoadedBatches;
+
+        LoadBatchesTask(Context context, long fromMillis, Set<String> loadedBatches) {
+            mContext = context.getApplicationContext();
+            mFromMillis = fromMillis;
+            mInitialLoad = loadedBatches.isEmpty();
+            // Copied, as it is updated on the background thread.
+            mLoadedBatches = new HashSet<>(loadedBatches);
+        }
+
+        /**
+         * @return the number of saved batches
+         */
+        @Override
+        protected Integer doInBackground(Void... voids) {
+            final List<NetworkLogCatalog.Entry> entries = NetworkLogCatalog.list(mContext);
+            final NetworkLogCatalog.Reader reader = new NetworkLogCatalog.Reader();
+            for (NetworkLogCatalog.Entry entry : entries) {
+                if (isCancelled()) {
+                    break;
+                }
+                if (!mLoadedBatches.add(entry.getKey())) {
+                    continue;
+                }
+                if (entry.retrievedAtMillis < mFromMillis) {
+                    // Only holds events logged before it was retrieved.
+                    continue;
+                }
+                try {
+                    final NetworkLogBatch batch = reader.open(entry);
+                    final int from = batch.findFirstAtOrAfter(mFromMillis);
+                    if (from == batch.size()) {
+                        continue;
+                    }
+                    publishProgress(new NetworkLogsAdapter.Page(batch, from, batch.size(),
+                            mContext.getString(R.string.network_logs_batch_header,
+                                    batch.getBatchToken(),
+                                    mDateFormat.format(new Date(batch.getRetrievedAtMillis())),
+                                    batch.size() - from)));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read network logs from " + entry.file, e);
+                }
+            }
+            return entries.size();
+        }
+
+        @Override
+        protected void onProgressUpdate(NetworkLogsAdapter.Page... pages) {
+            // Pages published before a cancellation may still be delivered.
+            if (!isCancelled() && isAdded()) {
+                mPageCoalescer.post(pages[0]);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer batchCount) {
+            if (!isAdded()) {
+                return;
+            }
+            NetworkLogsFragment.this.mLoadedBatches = mLoadedBatches;
+            if (mInitialLoad && batchCount == 0) {
+                mAdapter.addMessage(getString(R.string.network_logs_no_batches));
+            }
+            if (mTailPending && mLiveTail) {
+                mTailPending = false;
+                loadNewBatches();
+            }
+        }
+    }
+
+    /**
+     * Saves batches in the text format of earlier versions, one event per line and one file per
+     * batch, to the external files directory.
+     */
+    private static class ExportTextTask extends AsyncTask<Void, Void, File> {
+        private final Context mContext;
+        private final List<NetworkLogBatch> mBatches;
+
+        ExportTextTask(Context context, List<NetworkLogBatch> batches) {
+            mContext = context.getApplicationContext();
+            mBatches = batches;
+        }
+
+        /**
+         * @return the directory the batches were saved to, or {@code null} if one failed
+         */
+        @Override
+        protected File doInBackground(Void... voids) {
+            File dir = mContext.getExternalFilesDir(null);
+            if (dir == null) {
+                Log.e(TAG, "External storage is not available");
+                return null;
+            }
+            for (NetworkLogBatch batch : mBatches) {
+                File file = new File(dir, NetworkLogBatch.FILE_PREFIX + batch.getBatchToken()
+                        + "_" + batch.getRetrievedAtMillis() + TEXT_FILE_EXTENSION);
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                    batch.writeText(writer);
+                    Log.d(TAG, "Saved network logs to file: " + file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed saving network events to file " + file, e);
+                    return null;
+                }
+            }
+            return dir;
+        }
+
+        @Override
+        protected void onPostExecute(File dir) {
+            Toast.makeText(mContext, dir != null
+                    ? mContext.getString(R.string.network_logs_text_export_done, dir.getPath())
+                    : mContext.getString(R.string.network_logs_text_export_failed),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+}
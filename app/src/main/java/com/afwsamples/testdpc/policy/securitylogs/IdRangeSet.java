@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import java.util.Arrays;
+
+/**
+ * Set of ids stored as sorted, disjoint, inclusive ranges. Security event ids are mostly
+ * consecutive, so a whole buffer of events usually takes a single range.
+ */
+public class IdRangeSet {
+    private long[] mStarts = new long[4];
+    private long[] mEnds = new long[4];
+    private int mRangeCount;
+
+    public boolean contains(long id) {
+        final int range = findRange(id);
+        return range >= 0 && id <= mEnds[range];
+    }
+
+    /**
+     * @return whether the id was not in the set yet
+     */
+    public boolean add(long id) {
+        final int range = findRange(id);
+        if (range >= 0 && id <= mEnds[range]) {
+            return false;
+        }
+        final boolean extendsPrevious = range >= 0 && mEnds[range] == id - 1;
+        final boolean extendsNext = range + 1 < mRangeCount && mStarts[range + 1] == id + 1;
+        if (extendsPrevious && extendsNext) {
+            // The id fills the gap between two ranges, merge them.
+            mEnds[range] = mEnds[range + 1];
+            removeRange(range + 1);
+        } else if (extendsPrevious) {
+            mEnds[range] = id;
+        } else if (extendsNext) {
+            mStarts[range + 1] = id;
+        } else {
+            insertRange(range + 1, id);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the ids from {@code start} to {@code end}, inclusive, which must all be greater than
+     * the ids in the set, e.g. to restore the ranges of a saved set.
+     */
+    public void appendRange(long start, long end) {
+        if (start > end || (mRangeCount > 0 && start <= mEnds[mRangeCount - 1] + 1)) {
+            throw new IllegalArgumentException("Range " + start + "-" + end + " out of order");
+        }
+        insertRange(mRangeCount, start);
+        mEnds[mRangeCount - 1] = end;
+    }
+
+    public int getRangeCount() {
+        return mRangeCount;
+    }
+
+    public long getStart(int range) {
+        return mStarts[range];
+    }
+
+    public long getEnd(int range) {
+        return mEnds[range];
+    }
+
+    /**
+     * @return the last range starting at or before {@code id}, or -1 if there is none
+     */
+    private int findRange(long id) {
+        // Ids are usually added in increasing order, check the last range first.
+        if (mRangeCount > 0 && mStarts[mRangeCount - 1] <= id) {
+            return mRangeCount - 1;
+        }
+        int low = 0;
+        int high = mRangeCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (mStarts[middle] <= id) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private void insertRange(int position, long id) {
+        if (mRangeCount == mStarts.length) {
+            mStarts = Arrays.copyOf(mStarts, mRangeCount * 2);
+            mEnds = Arrays.copyOf(mEnds, mRangeCount * 2);
+        }
+        System.arraycopy(mStarts, position, mStarts, position + 1, mRangeCount - position);
+        System.arraycopy(mEnds, position, mEnds, position + 1, mRangeCount - position);
+        mStarts[position] = id;
+        mEnds[position] = id;
+        mRangeCount++;
+    }
+
+    private void removeRange(int position) {
+        System.arraycopy(mStarts, position + 1, mStarts, position, mRangeCount - position - 1);
+        System.arraycopy(mEnds, position + 1, mEnds, position, mRangeCount - position - 1);
+        mRangeCount--;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts of security events per tag and per hour, updated as events are appended to the
+ * {@link SecurityEventJournal} and saved next to its segments, so that they never have to be
+ * computed from the events again.
+ * <p>
+ * The counts of the last {@link #HOURS} hours are kept in a ring of hour buckets, each a row of
+ * one counter per tag, in a single int array. All-time totals per tag are kept as well.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityEventAggregates {
+    private static final String TAG = "SecurityEventAggregates";
+
+    private static final String FILE_NAME = "aggregates.bin";
+    private static final int MAGIC = 0x53414747; // "SAGG"
+    private static final int VERSION = 1;
+
+    /** Number of hour buckets kept, one week. */
+    public static final int HOURS = 7 * 24;
+
+    /** One counter per known tag, and a last one for the unknown tags. */
+    private static final int SLOTS = SecurityLogTags.LAST_TAG - SecurityLogTags.FIRST_TAG + 2;
+    private static final int OTHER_SLOT = SLOTS - 1;
+
+    private static final long NO_HOUR = -1;
+
+    private final File mFile;
+    /** Hour since the epoch held by every bucket of the ring, or {@link #NO_HOUR}. */
+    private final long[] mBucketHours = new long[HOURS];
+    private final int[] mCounts = new int[HOURS * SLOTS];
+    private final long[] mTotals = new long[SLOTS];
+    private boolean mDirty;
+
+    SecurityEventAggregates(File dir) {
+        mFile = new File(dir, FILE_NAME);
+        Arrays.fill(mBucketHours, NO_HOUR);
+        load();
+    }
+
+    /**
+     * Counts one more event, O(1).
+     */
+    synchronized void add(int tag, long timeNanos) {
+        final int slot = getSlot(tag);
+        mTotals[slot]++;
+        mDirty = true;
+        final long hour = TimeUnit.NANOSECONDS.toHours(timeNanos);
+        if (hour < 0) {
+            return;
+        }
+        final int bucket = (int) (hour % HOURS);
+        if (mBucketHours[bucket] > hour) {
+            // Older than the window, only counted in the totals.
+            return;
+        }
+        if (mBucketHours[bucket] != hour) {
+            mBucketHours[bucket] = hour;
+            Arrays.fill(mCounts, bucket * SLOTS, (bucket + 1) * SLOTS, 0);
+        }
+        mCounts[bucket * SLOTS + slot]++;
+    }
+
+    /**
+     * Saves the counters if they changed, replacing the file atomically.
+     */
+    synchronized void saveIfNeeded() throws IOException {
+        if (!mDirty) {
+            return;
+        }
+        final File tempFile = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fileOutputStream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(HOURS);
+            out.writeInt(SLOTS);
+            for (long bucketHour : mBucketHours) {
+                out.writeLong(bucketHour);
+            }
+            for (int count : mCounts) {
+                out.writeInt(count);
+            }
+            for (long total : mTotals) {
+                out.writeLong(total);
+            }
+            out.flush();
+            fileOutputStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Failed to replace " + mFile);
+        }
+        mDirty = false;
+    }
+
+    /**
+     * @return a summary of every tag seen so far, in tag order
+     */
+    public synchronized List<TagSummary> getSummaries(long nowMillis) {
+        final long currentHour = TimeUnit.MILLISECONDS.toHours(nowMillis);
+        List<TagSummary> summaries = new ArrayList<>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (mTotals[slot] == 0) {
+                continue;
+            }
+            TagSummary summary = new TagSummary(
+                    slot == OTHER_SLOT ? -1 : SecurityLogTags.FIRST_TAG + slot, mTotals[slot]);
+            for (int bucket = 0; bucket < HOURS; bucket++) {
+                final long age = currentHour - mBucketHours[bucket];
+                if (mBucketHours[bucket] == NO_HOUR || age < 0 || age >= HOURS) {
+                    continue;
+                }
+                final int count = mCounts[bucket * SLOTS + slot];
+                summary.lastWeek += count;
+                if (age < 24) {
+                    summary.lastDay += count;
+                    summary.hourly[(int) (23 - age)] = count;
+                }
+                if (age == 0) {
+                    summary.lastHour = count;
+                }
+                summary.peakPerHour = Math.max(summary.peakPerHour, count);
+            }
+            summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    private static int getSlot(int tag) {
+        if (tag < SecurityLogTags.FIRST_TAG || tag > SecurityLogTags.LAST_TAG) {
+            return OTHER_SLOT;
+        }
+        return tag - SecurityLogTags.FIRST_TAG;
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != HOURS
+                    || in.readInt() != SLOTS) {
+                Log.w(TAG, "Discarding aggregates saved in another format");
+                return;
+            }
+            long[] bucketHours = new long[HOURS];
+            int[] counts = new int[HOURS * SLOTS];
+            long[] totals = new long[SLOTS];
+            for (int i = 0; i < bucketHours.length; i++) {
+                bucketHours[i] = in.readLong();
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = in.readInt();
+            }
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = in.readLong();
+            }
+            System.arraycopy(bucketHours, 0, mBucketHours, 0, HOURS);
+            System.arraycopy(counts, 0, mCounts, 0, counts.length);
+            System.arraycopy(totals, 0, mTotals, 0, SLOTS);
+        } catch (FileNotFoundException e) {
+            // Nothing aggregated yet.
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load the aggregates, starting over", e);
+        }
+    }
+
+    /**
+     * Counts of one tag.
+     */
+    public static class TagSummary {
+        /** The tag, or -1 for all the unknown tags. */
+        public final int tag;
+        public final long total;
+        public int lastHour;
+        public int lastDay;
+        public int lastWeek;
+        public int peakPerHour;
+        /** Counts of the last 24 hours, the current hour last. */
+        public final int[] hourly = new int[24];
+
+        TagSummary(int tag, long total) {
+            this.tag = tag;
+            this.total = total;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports security events as gzipped NDJSON or CSV.
+ * <p>
+ * Events are encoded straight from a {@link SecurityEventStore} into a fixed size byte buffer,
+ * without building a string per event, and the buffer is flushed into the gzip stream whenever
+ * it fills up.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityEventExporter {
+    public static final int FORMAT_NDJSON = 0;
+    public static final int FORMAT_CSV = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] CSV_HEADER =
+            "id,time_nanos,tag,data\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final int mFormat;
+    private final GZIPOutputStream mOutputStream;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private final char[] mDigits = new char[20];
+    private int mPosition;
+    private int mEventCount;
+
+    /**
+     * @param outputStream where to write the compressed export, closed by {@link #close()}
+     */
+    public SecurityEventExporter(OutputStream outputStream, int format) throws IOException {
+        mFormat = format;
+        mOutputStream = new GZIPOutputStream(outputStream, BUFFER_SIZE);
+        if (format == FORMAT_CSV) {
+            writeBytes(CSV_HEADER);
+        }
+    }
+
+    public static String getFileExtension(int format) {
+        return format == FORMAT_CSV ? ".csv.gz" : ".ndjson.gz";
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    public void write(SecurityEventStore events) throws IOException {
+        for (int i = 0; i < events.size(); i++) {
+            if (mFormat == FORMAT_CSV) {
+                writeCsv(events, i);
+            } else {
+                writeJson(events, i);
+            }
+            mEventCount++;
+        }
+    }
+
+    /**
+     * Flushes the buffer, finishes the gzip stream and closes it.
+     */
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            mOutputStream.finish();
+        } finally {
+            mOutputStream.close();
+        }
+    }
+
+    private void writeJson(SecurityEventStore events, int position) throws IOException {
+        writeAscii("{\"id\":");
+        writeLong(events.getId(position));
+        writeAscii(",\"time_nanos\":");
+        writeLong(events.getTimeNanos(position));
+        writeAscii(",\"tag\":\"");
+        writeAscii(SecurityLogTags.getName(events.getTag(position)));
+        writeAscii("\",\"tag_id\":");
+        writeLong(events.getTag(position));
+        writeAscii(",\"data\":");
+        writeJsonValue(events.getData(position));
+        writeByte('}');
+        writeByte('\n');
+    }
+
+    private void writeJsonValue(Object data) throws IOException {
+        if (data instanceof Integer || data instanceof Long) {
+            writeLong(((Number) data).longValue());
+        } else if (data instanceof Float) {
+            final float value = (Float) data;
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                writeAscii("null");
+            } else {
+                writeAscii(Float.toString(value));
+            }
+        } else if (data instanceof String) {
+            writeByte('"');
+            writeEscaped((String) data, false /* csv */);
+            writeByte('"');
+        } else if (data instanceof Object[]) {
+            final Object[] items = (Object[]) data;
+            writeByte('[');
+            for (int i = 0; i < items.length; i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                writeJsonValue(items[i]);
+            }
+            writeByte(']');
+        } else {
+            writeAscii("null");
+        }
+    }
+
+    private void writeCsv(SecurityEventStore events, int position) throws IOException {
+        writeLong(events.getId(position));
+        writeByte(',');
+        writeLong(events.getTimeNanos(position));
+        writeByte(',');
+        writeAscii(SecurityLogTags.getName(events.getTag(position)));
+        writeAscii(",\"");
+        writeCsvValues(events.getData(position), true /* first */);
+        writeByte('"');
+        writeByte('\n');
+    }
+
+    /**
+     * Writes the values of the payload separated by spaces, as in the on-screen logs.
+     *
+     * @return whether nothing has been written yet
+     */
+    private boolean writeCsvValues(Object data, boolean first) throws IOException {
+        if (data instanceof Object[]) {
+            for (Object item : (Object[]) data) {
+                first = writeCsvValues(item, first);
+            }
+            return first;
+        }
+        if (data == null) {
+            return first;
+        }
+        if (!first) {
+            writeByte(' ');
+        }
+        if (data instanceof Integer || data instanceof Long) {
+            writeLong(((Number) data).longValue());
+        } else if (data instanceof Float) {
+            writeAscii(Float.toString((Float) data));
+        } else {
+            writeEscaped(data.toString(), true /* csv */);
+        }
+        return false;
+    }
+
+    /**
+     * Writes {@code value} as UTF-8, escaped for a JSON string or a quoted CSV field.
+     */
+    private void writeEscaped(String value, boolean csv) throws IOException {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c == '"') {
+                writeByte(csv ? '"' : '\\');
+                writeByte('"');
+            } else if (!csv && c == '\\') {
+                writeByte('\\');
+                writeByte('\\');
+            } else if (!csv && c < 0x20) {
+                writeAscii("\\u00");
+                writeByte(Character.forDigit(c >> 4, 16));
+                writeByte(Character.forDigit(c & 0xf, 16));
+            } else if (c < 0x80) {
+                writeByte(c);
+            } else if (c < 0x800) {
+                writeByte(0xc0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xf0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                writeByte(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, not representable in UTF-8.
+                writeByte('?');
+            } else {
+                writeByte(0xe0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3f));
+                writeByte(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            mDigits[count++] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            writeByte(mDigits[--count]);
+        }
+    }
+
+    private void writeAscii(String value) throws IOException {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mPosition == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mPosition++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        mOutputStream.write(mBuffer, 0, mPosition);
+        mPosition = 0;
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent, append-only journal of security events.
+ * <p>
+ * Events are appended to the active segment file, which is rotated once it exceeds
+ * {@link #SEGMENT_MAX_BYTES}. The oldest segments are deleted when the journal exceeds
+ * {@link #JOURNAL_MAX_BYTES}, so both memory and disk usage stay bounded while appends remain
+ * O(1).
+ * </p>
+ * A segment starts with a header of {@link #SEGMENT_HEADER_SIZE} bytes:
+ * <pre>
+ *   int magic | int version | long creation time in millis
+ * </pre>
+ * followed by records, each with a fixed header of {@link #RECORD_HEADER_SIZE} bytes and a
+ * variable length payload:
+ * <pre>
+ *   int payload length | int crc32 of payload | int tag | long time in nanos | long id | payload
+ * </pre>
+ * The payload is the tree of values returned by {@code SecurityEvent#getData()}, with integers
+ * encoded as zigzag varints, see {@link SecurityEventPayload}.
+ * <p>
+ * Events already in the journal are skipped. Ids restart with every boot, so what is journaled is
+ * tracked per boot, in a file next to the segments: on P and above the ids of the events, in an
+ * {@link IdRangeSet}, before P, where events have no id, the time of the last event. Only the
+ * current and the previous boot are tracked, as the pre-reboot buffer only holds the events of
+ * the previous boot.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityEventJournal {
+    private static final String TAG = "SecurityEventJournal";
+
+    private static final String JOURNAL_DIR = "security_journal";
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String BOOTS_FILE = "boots.bin";
+
+    static final int MAGIC = 0x534c4a4e; // "SLJN"
+    static final int VERSION = 1;
+    private static final int BOOTS_MAGIC = 0x534c4a42; // "SLJB"
+    private static final int BOOTS_VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 28;
+
+    /** Records larger than this are considered corrupted. */
+    static final int MAX_PAYLOAD_BYTES = 64 * 1024;
+
+    private static final long SEGMENT_MAX_BYTES = 1024 * 1024;
+    private static final long JOURNAL_MAX_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Boot of the events when the boot count is not known, their ids are then ignored and they
+     * are only deduplicated by time.
+     */
+    public static final int UNKNOWN_BOOT = -1;
+
+    private static SecurityEventJournal sInstance;
+
+    private final File mDir;
+    private final SecurityEventPayload.Writer mPayloadWriter = new SecurityEventPayload.Writer();
+    private final CRC32 mCrc = new CRC32();
+
+    private SecurityEventAggregates mAggregates;
+
+    private File mActiveSegment;
+    private long mActiveSegmentSize;
+    /** Size of the active segment when it was last synced, the records after it may be torn. */
+    private long mSyncedSize;
+    private FileOutputStream mFileOutputStream;
+    private DataOutputStream mOutputStream;
+
+    /** What is journaled of each boot, by boot count, loaded on first use. */
+    private SparseArray<BootState> mBoots;
+
+    private SecurityEventJournal(File dir) {
+        mDir = dir;
+    }
+
+    public static synchronized SecurityEventJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SecurityEventJournal(
+                    context.getApplicationContext().getDir(JOURNAL_DIR, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the counters of the journaled events, loaded on first use
+     */
+    public synchronized SecurityEventAggregates getAggregates() {
+        if (mAggregates == null) {
+            mAggregates = new SecurityEventAggregates(mDir);
+        }
+        return mAggregates;
+    }
+
+    /**
+     * Appends the events that are not in the journal yet, in order, and syncs them to disk. The
+     * {@link SecurityEventAggregates} are updated with the appended events.
+     * <p>
+     * If a write fails, the active segment is cut back to its last sync and closed, so that later
+     * appends never follow a torn record, and what was not synced is forgotten.
+     * </p>
+     *
+     * @param boot the boot count when the events were logged, see
+     *             {@link android.provider.Settings.Global#BOOT_COUNT}, or {@link #UNKNOWN_BOOT}
+     * @return the number of appended events
+     */
+    public synchronized int append(SecurityEventStore events, int boot) throws IOException {
+        openIfNeeded();
+        final SecurityEventAggregates aggregates = getAggregates();
+        final BootState bootState = getBootState(boot);
+        int appended = 0;
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                final long id = events.getId(i);
+                final long timeNanos = events.getTimeNanos(i);
+                final long dedupId = boot == UNKNOWN_BOOT ? SecurityEventStore.NO_ID : id;
+                if (bootState.contains(dedupId, timeNanos)) {
+                    continue;
+                }
+                if (mActiveSegmentSize >= SEGMENT_MAX_BYTES) {
+                    rotate();
+                }
+                writeRecord(events.getTag(i), timeNanos, id, events.getData(i));
+                aggregates.add(events.getTag(i), timeNanos);
+                bootState.add(dedupId, timeNanos);
+                appended++;
+            }
+            sync();
+        } catch (IOException e) {
+            abandonSegment();
+            throw e;
+        }
+        aggregates.saveIfNeeded();
+        if (appended > 0) {
+            saveBoots();
+        }
+        return appended;
+    }
+
+    /**
+     * @return the segment files from the oldest to the newest, the last one being the one events
+     * are appended to.
+     */
+    public synchronized List<File> getSegments() {
+        final File[] files = mDir.listFiles(
+                (dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        // Sequence numbers are zero padded, so the names sort in creation order.
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Reads every event of the given segment into {@code events}. A truncated or corrupted tail,
+     * e.g. left by a crash while appending, is ignored.
+     *
+     * @return the size of the segment up to the end of its last valid record
+     */
+    public static long readSegment(File segment, SecurityEventStore events) throws IOException {
+        return readSegment(segment, (offset, tag, timeNanos, id, data) ->
+                events.add(tag, timeNanos, id, data));
+    }
+
+    /**
+     * Hands every valid record of the given segment to {@code visitor}, in file order.
+     *
+     * @return the size of the segment up to the end of its last valid record
+     */
+    public static long readSegment(File segment, RecordVisitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(segment)))) {
+            try {
+                readSegmentHeader(in);
+            } catch (EOFException e) {
+                throw new IOException("Truncated header in " + segment);
+            }
+            long validSize = SEGMENT_HEADER_SIZE;
+            final CRC32 crc = new CRC32();
+            byte[] payload = new byte[256];
+            try {
+                while (true) {
+                    final int payloadLength;
+                    try {
+                        payloadLength = in.readInt();
+                    } catch (EOFException e) {
+                        return validSize;
+                    }
+                    final int expectedCrc = in.readInt();
+                    final int tag = in.readInt();
+                    final long timeNanos = in.readLong();
+                    final long id = in.readLong();
+                    if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_BYTES) {
+                        Log.w(TAG, "Corrupted record in " + segment + ", ignoring the rest");
+                        return validSize;
+                    }
+                    if (payload.length < payloadLength) {
+                        payload = new byte[Math.max(payloadLength, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, payloadLength);
+                    crc.reset();
+                    crc.update(payload, 0, payloadLength);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        Log.w(TAG, "Corrupted record in " + segment + ", ignoring the rest");
+                        return validSize;
+                    }
+                    final Object data;
+                    try {
+                        data = SecurityEventPayload.read(payload, 0, payloadLength);
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "Corrupted payload in " + segment + ", ignoring the rest", e);
+                        return validSize;
+                    }
+                    visitor.onRecord(validSize, tag, timeNanos, id, data);
+                    validSize += RECORD_HEADER_SIZE + payloadLength;
+                }
+            } catch (EOFException e) {
+                Log.w(TAG, "Truncated record at the end of " + segment);
+                return validSize;
+            }
+        }
+    }
+
+    /**
+     * Reads the record starting at {@code offset}, as reported by {@link RecordVisitor}, into
+     * {@code events}.
+     */
+    public static void readRecord(RandomAccessFile segment, long offset, SecurityEventStore events)
+            throws IOException {
+        segment.seek(offset);
+        final int payloadLength = segment.readInt();
+        segment.readInt(); // The crc was checked when the record was visited.
+        final int tag = segment.readInt();
+        final long timeNanos = segment.readLong();
+        final long id = segment.readLong();
+        if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_BYTES) {
+            throw new IOException("Corrupted record at " + offset);
+        }
+        final byte[] payload = new byte[payloadLength];
+        segment.readFully(payload);
+        try {
+            events.add(tag, timeNanos, id, SecurityEventPayload.read(payload, 0, payloadLength));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted payload at " + offset, e);
+        }
+    }
+
+    private static void readSegmentHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unsupported security journal segment");
+        }
+        in.readLong();
+    }
+
+    private BootState getBootState(int boot) {
+        if (mBoots == null) {
+            mBoots = loadBoots();
+        }
+        BootState bootState = mBoots.get(boot);
+        if (bootState == null) {
+            // The boots before the previous one are not in the buffers anymore.
+            for (int i = mBoots.size() - 1; i >= 0; i--) {
+                if (mBoots.keyAt(i) < boot - 1) {
+                    mBoots.removeAt(i);
+                }
+            }
+            bootState = new BootState();
+            mBoots.put(boot, bootState);
+        }
+        return bootState;
+    }
+
+    private SparseArray<BootState> loadBoots() {
+        final SparseArray<BootState> boots = new SparseArray<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(new File(mDir, BOOTS_FILE))))) {
+            if (in.readInt() != BOOTS_MAGIC || in.readInt() != BOOTS_VERSION) {
+                Log.w(TAG, "Discarding boots saved in another format");
+                return boots;
+            }
+            final int bootCount = in.readInt();
+            for (int i = 0; i < bootCount; i++) {
+                final int boot = in.readInt();
+                final BootState bootState = new BootState();
+                bootState.lastTimeNanos = in.readLong();
+                final int rangeCount = in.readInt();
+                for (int range = 0; range < rangeCount; range++) {
+                    bootState.ids.appendRange(in.readLong(), in.readLong());
+                }
+                boots.put(boot, bootState);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing journaled yet.
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Failed to load the boots, starting over", e);
+            boots.clear();
+        }
+        return boots;
+    }
+
+    /**
+     * Saves the boots, replacing the file atomically.
+     */
+    private void saveBoots() throws IOException {
+        final File file = new File(mDir, BOOTS_FILE);
+        final File tempFile = new File(mDir, BOOTS_FILE + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fileOutputStream))) {
+            out.writeInt(BOOTS_MAGIC);
+            out.writeInt(BOOTS_VERSION);
+            out.writeInt(mBoots.size());
+            for (int i = 0; i < mBoots.size(); i++) {
+                final BootState bootState = mBoots.valueAt(i);
+                out.writeInt(mBoots.keyAt(i));
+                out.writeLong(bootState.lastTimeNanos);
+                out.writeInt(bootState.ids.getRangeCount());
+                for (int range = 0; range < bootState.ids.getRangeCount(); range++) {
+                    out.writeLong(bootState.ids.getStart(range));
+                    out.writeLong(bootState.ids.getEnd(range));
+                }
+            }
+            out.flush();
+            fileOutputStream.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private void writeRecord(int tag, long timeNanos, long id, Object data) throws IOException {
+        mPayloadWriter.reset();
+        mPayloadWriter.write(data);
+        final int payloadLength = mPayloadWriter.size();
+        if (payloadLength > MAX_PAYLOAD_BYTES) {
+            Log.w(TAG, "Payload of event " + id + " is too large, dropping it");
+            mPayloadWriter.reset();
+            mPayloadWriter.write(null);
+        }
+        mCrc.reset();
+        mCrc.update(mPayloadWriter.getBuffer(), 0, mPayloadWriter.size());
+        mOutputStream.writeInt(mPayloadWriter.size());
+        mOutputStream.writeInt((int) mCrc.getValue());
+        mOutputStream.writeInt(tag);
+        mOutputStream.writeLong(timeNanos);
+        mOutputStream.writeLong(id);
+        mOutputStream.write(mPayloadWriter.getBuffer(), 0, mPayloadWriter.size());
+        mActiveSegmentSize += RECORD_HEADER_SIZE + mPayloadWriter.size();
+    }
+
+    /**
+     * Opens the newest segment for appending. It is scanned once to cut it after its last valid
+     * record.
+     */
+    private void openIfNeeded() throws IOException {
+        if (mOutputStream != null) {
+            return;
+        }
+        final List<File> segments = getSegments();
+        if (segments.isEmpty()) {
+            startSegment(0);
+            return;
+        }
+        final File lastSegment = segments.get(segments.size() - 1);
+        final long validSize;
+        try {
+            validSize = readSegment(lastSegment, (offset, tag, timeNanos, id, data) -> {});
+        } catch (IOException e) {
+            Log.e(TAG, "Unreadable segment " + lastSegment + ", starting a new one", e);
+            startSegment(getSequence(lastSegment) + 1);
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(lastSegment, "rw")) {
+            if (file.length() != validSize) {
+                Log.w(TAG, "Dropping " + (file.length() - validSize) + " trailing bytes of "
+                        + lastSegment);
+                file.setLength(validSize);
+            }
+        }
+        openSegment(lastSegment, validSize);
+    }
+
+    /**
+     * Syncs the active segment, then saves what is derived from the records synced so far, so that
+     * the segment can be cut back to this point after a failed write.
+     */
+    private void rotate() throws IOException {
+        sync();
+        getAggregates().saveIfNeeded();
+        saveBoots();
+        mOutputStream.close();
+        startSegment(getSequence(mActiveSegment) + 1);
+        enforceBudget();
+    }
+
+    private void sync() throws IOException {
+        mOutputStream.flush();
+        mFileOutputStream.getFD().sync();
+        mSyncedSize = mActiveSegmentSize;
+    }
+
+    /**
+     * Closes the active segment after a failed write, cutting the records written since its last
+     * sync. The aggregates and boots are loaded again, as they may count these records. The next
+     * append opens the segment again.
+     */
+    private void abandonSegment() {
+        try {
+            // Not through the buffered stream, which would write what it holds after the cut.
+            mFileOutputStream.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close " + mActiveSegment, e);
+        }
+        if (mSyncedSize == 0) {
+            // Not even its header was synced.
+            mActiveSegment.delete();
+        } else {
+            try (RandomAccessFile file = new RandomAccessFile(mActiveSegment, "rw")) {
+                if (file.length() > mSyncedSize) {
+                    file.setLength(mSyncedSize);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to cut " + mActiveSegment + ", it is cut when opened", e);
+            }
+        }
+        mFileOutputStream = null;
+        mOutputStream = null;
+        mAggregates = null;
+        mBoots = null;
+    }
+
+    private void startSegment(long sequence) throws IOException {
+        final File segment = new File(mDir,
+                String.format(Locale.US, "%s%010d%s", SEGMENT_PREFIX, sequence,
+                        SEGMENT_SUFFIX));
+        openSegment(segment, 0);
+        mOutputStream.writeInt(MAGIC);
+        mOutputStream.writeInt(VERSION);
+        mOutputStream.writeLong(System.currentTimeMillis());
+        mActiveSegmentSize = SEGMENT_HEADER_SIZE;
+        // Synced right away, so that a failed write never cuts the header.
+        sync();
+    }
+
+    private void openSegment(File segment, long size) throws IOException {
+        mActiveSegment = segment;
+        mActiveSegmentSize = size;
+        mSyncedSize = size;
+        mFileOutputStream = new FileOutputStream(segment, true /* append */);
+        mOutputStream = new DataOutputStream(new BufferedOutputStream(mFileOutputStream));
+    }
+
+    /**
+     * Deletes the oldest segments until the journal fits in {@link #JOURNAL_MAX_BYTES}.
+     */
+    private void enforceBudget() {
+        final List<File> segments = getSegments();
+        long totalSize = 0;
+        for (File segment : segments) {
+            totalSize += segment.length();
+        }
+        for (int i = 0; i < segments.size() - 1 && totalSize > JOURNAL_MAX_BYTES; i++) {
+            final File segment = segments.get(i);
+            totalSize -= segment.length();
+            if (!segment.delete()) {
+                Log.w(TAG, "Failed to delete " + segment);
+            }
+        }
+    }
+
+    private static long getSequence(File segment) {
+        final String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * What is journaled of the events of one boot: their ids, or the time of the last event for
+     * the events without id.
+     */
+    private static class BootState {
+        final IdRangeSet ids = new IdRangeSet();
+        long lastTimeNanos = Long.MIN_VALUE;
+
+        boolean contains(long id, long timeNanos) {
+            if (id != SecurityEventStore.NO_ID) {
+                return ids.contains(id);
+            }
+            return timeNanos <= lastTimeNanos;
+        }
+
+        void add(long id, long timeNanos) {
+            if (id != SecurityEventStore.NO_ID) {
+                ids.add(id);
+            }
+            lastTimeNanos = Math.max(lastTimeNanos, timeNanos);
+        }
+    }
+
+    /**
+     * Receives the records of a segment, see {@link #readSegment(File, RecordVisitor)}.
+     */
+    public interface RecordVisitor {
+        /**
+         * @param offset position of the record in the segment file
+         * @param data decoded payload, as returned by {@code SecurityEvent#getData()}
+         */
+        void onRecord(long offset, int tag, long timeNanos, long id, Object data);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Binary encoding of the payload of a security event, i.e. a value or an array of values among
+ * {@link Integer}, {@link Long}, {@link Float} and {@link String}.
+ * <p>
+ * Every value starts with a type byte. Integers and longs follow as zigzag varints, floats as
+ * their 4 raw bytes, strings as a varint length and UTF-8 bytes, and arrays as a varint count
+ * and their items.
+ * </p>
+ */
+public class SecurityEventPayload {
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_STRING = 4;
+    private static final byte TYPE_ARRAY = 5;
+
+    /**
+     * Decodes the payload written by {@link Writer#write(Object)}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid payload
+     */
+    public static Object read(byte[] buffer, int offset, int length) {
+        Reader reader = new Reader(buffer, offset, offset + length);
+        final Object data = reader.readValue();
+        if (reader.mPosition != reader.mEnd) {
+            throw new IllegalArgumentException("Trailing bytes in security event payload");
+        }
+        return data;
+    }
+
+    /**
+     * Encodes payloads into a reusable buffer.
+     */
+    public static class Writer {
+        private byte[] mBuffer = new byte[256];
+        private int mSize;
+
+        public void reset() {
+            mSize = 0;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @return the buffer holding the encoded bytes, valid up to {@link #size()}
+         */
+        public byte[] getBuffer() {
+            return mBuffer;
+        }
+
+        public void write(Object data) {
+            if (data instanceof Integer) {
+                writeByte(TYPE_INT);
+                writeVarLong(zigzag((Integer) data));
+            } else if (data instanceof Long) {
+                writeByte(TYPE_LONG);
+                writeVarLong(zigzag((Long) data));
+            } else if (data instanceof Float) {
+                writeByte(TYPE_FLOAT);
+                final int bits = Float.floatToRawIntBits((Float) data);
+                ensureCapacity(4);
+                mBuffer[mSize++] = (byte) (bits >>> 24);
+                mBuffer[mSize++] = (byte) (bits >>> 16);
+                mBuffer[mSize++] = (byte) (bits >>> 8);
+                mBuffer[mSize++] = (byte) bits;
+            } else if (data instanceof String) {
+                writeByte(TYPE_STRING);
+                final byte[] bytes = ((String) data).getBytes(StandardCharsets.UTF_8);
+                writeVarLong(bytes.length);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, mBuffer, mSize, bytes.length);
+                mSize += bytes.length;
+            } else if (data instanceof Object[]) {
+                final Object[] items = (Object[]) data;
+                writeByte(TYPE_ARRAY);
+                writeVarLong(items.length);
+                for (Object item : items) {
+                    write(item);
+                }
+            } else {
+                writeByte(TYPE_NULL);
+            }
+        }
+
+        private void writeByte(byte value) {
+            ensureCapacity(1);
+            mBuffer[mSize++] = value;
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                mBuffer[mSize++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mSize++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mSize + extra > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mSize + extra, mBuffer.length * 2));
+            }
+        }
+
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] mBuffer;
+        private final int mEnd;
+        private int mPosition;
+
+        Reader(byte[] buffer, int start, int end) {
+            mBuffer = buffer;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        Object readValue() {
+            final byte type = readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_INT:
+                    return (int) unzigzag(readVarLong());
+                case TYPE_LONG:
+                    return unzigzag(readVarLong());
+                case TYPE_FLOAT:
+                    final int bits = (readByte() & 0xff) << 24 | (readByte() & 0xff) << 16
+                            | (readByte() & 0xff) << 8 | (readByte() & 0xff);
+                    return Float.intBitsToFloat(bits);
+                case TYPE_STRING:
+                    final int length = readLength();
+                    final String value =
+                            new String(mBuffer, mPosition, length, StandardCharsets.UTF_8);
+                    mPosition += length;
+                    return value;
+                case TYPE_ARRAY:
+                    final Object[] items = new Object[readLength()];
+                    for (int i = 0; i < items.length; i++) {
+                        items[i] = readValue();
+                    }
+                    return items;
+                default:
+                    throw new IllegalArgumentException("Unknown payload type " + type);
+            }
+        }
+
+        private int readLength() {
+            final long length = readVarLong();
+            // Every item takes at least one byte, which bounds array sizes as well.
+            if (length < 0 || length > mEnd - mPosition) {
+                throw new IllegalArgumentException("Invalid length " + length);
+            }
+            return (int) length;
+        }
+
+        private byte readByte() {
+            if (mPosition >= mEnd) {
+                throw new IllegalArgumentException("Truncated security event payload");
+            }
+            return mBuffer[mPosition++];
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query over the {@link SecurityEventJournal}, run by {@link SecurityEventQueryEngine}. All the
+ * predicates that are set must match.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityEventQuery {
+    private static final String TAG_PREFIX = "tag:";
+    private static final String SINCE_PREFIX = "since:";
+
+    private int[] mTags;
+    private long mFromNanos = Long.MIN_VALUE;
+    private long mToNanos = Long.MAX_VALUE;
+    private String mSubstring;
+
+    /**
+     * Only matches events with one of the given tags.
+     */
+    public SecurityEventQuery setTags(int... tags) {
+        mTags = tags;
+        return this;
+    }
+
+    /**
+     * Only matches events logged in {@code [fromNanos, toNanos)}, in nanoseconds since the epoch.
+     */
+    public SecurityEventQuery setTimeRange(long fromNanos, long toNanos) {
+        mFromNanos = fromNanos;
+        mToNanos = toNanos;
+        return this;
+    }
+
+    /**
+     * Only matches events with a string in their payload, e.g. a package name or a path,
+     * containing {@code substring}, case insensitive.
+     */
+    public SecurityEventQuery setSubstring(String substring) {
+        mSubstring = TextUtils.isEmpty(substring) ? null : substring;
+        return this;
+    }
+
+    public int[] getTags() {
+        return mTags;
+    }
+
+    public long getFromNanos() {
+        return mFromNanos;
+    }
+
+    public long getToNanos() {
+        return mToNanos;
+    }
+
+    public String getSubstring() {
+        return mSubstring;
+    }
+
+    /**
+     * @return a query with the same predicates, e.g. to narrow its time range
+     */
+    public SecurityEventQuery copy() {
+        return new SecurityEventQuery()
+                .setTags(mTags)
+                .setTimeRange(mFromNanos, mToNanos)
+                .setSubstring(mSubstring);
+    }
+
+    /**
+     * Parses a query typed by the user, made of space separated terms:
+     * <ul>
+     *     <li>{@code tag:APP_PROCESS_START}, may be repeated to match any of the tags</li>
+     *     <li>{@code since:6h}, with a number of {@code m}inutes, {@code h}ours or {@code d}ays
+     *     </li>
+     *     <li>anything else is matched as a substring of the payload strings</li>
+     * </ul>
+     * For instance {@code tag:app_process_start since:6h com.android.chrome}.
+     */
+    public static SecurityEventQuery parse(String text, long nowMillis) {
+        SecurityEventQuery query = new SecurityEventQuery();
+        if (text == null) {
+            return query;
+        }
+        List<Integer> tags = new ArrayList<>();
+        List<String> substringTerms = new ArrayList<>();
+        for (String term : text.trim().split("\\s+")) {
+            if (term.startsWith(TAG_PREFIX)) {
+                final int tag = SecurityLogTags.getTag(term.substring(TAG_PREFIX.length()));
+                if (tag != -1) {
+                    tags.add(tag);
+                    continue;
+                }
+            } else if (term.startsWith(SINCE_PREFIX)) {
+                final long durationMillis = parseDuration(term.substring(SINCE_PREFIX.length()));
+                if (durationMillis >= 0) {
+                    query.setTimeRange(
+                            TimeUnit.MILLISECONDS.toNanos(nowMillis - durationMillis),
+                            Long.MAX_VALUE);
+                    continue;
+                }
+            }
+            if (!term.isEmpty()) {
+                substringTerms.add(term);
+            }
+        }
+        if (!tags.isEmpty()) {
+            int[] tagArray = new int[tags.size()];
+            for (int i = 0; i < tagArray.length; i++) {
+                tagArray[i] = tags.get(i);
+            }
+            query.setTags(tagArray);
+        }
+        query.setSubstring(TextUtils.join(" ", substringTerms));
+        return query;
+    }
+
+    /**
+     * @return the duration in millis, or -1 if it can not be parsed
+     */
+    private static long parseDuration(String duration) {
+        if (duration.length() < 2) {
+            return -1;
+        }
+        final long value;
+        try {
+            value = Long.parseLong(duration.substring(0, duration.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        switch (duration.charAt(duration.length() - 1)) {
+            case 'm':
+                return TimeUnit.MINUTES.toMillis(value);
+            case 'h':
+                return TimeUnit.HOURS.toMillis(value);
+            case 'd':
+                return TimeUnit.DAYS.toMillis(value);
+            default:
+                return -1;
+        }
+    }
+}
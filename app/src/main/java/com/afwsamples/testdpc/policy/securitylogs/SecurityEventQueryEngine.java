@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs {@link SecurityEventQuery queries} over the {@link SecurityEventJournal}.
+ * <p>
+ * Every segment gets a {@link SecurityEventSegmentIndex}, kept until the segment is deleted or,
+ * for the segment still being appended to, until it grows. Only the records matching the indexed
+ * predicates are read and decoded. Must not be called on the main thread.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityEventQueryEngine {
+    private static final String TAG = "SecurityEventQuery";
+
+    /** Number of matching events handed to the listener at once. */
+    private static final int PAGE_SIZE = 500;
+
+    private static SecurityEventQueryEngine sInstance;
+
+    private final SecurityEventJournal mJournal;
+    private final Map<String, SecurityEventSegmentIndex> mIndexes = new HashMap<>();
+
+    private SecurityEventQueryEngine(SecurityEventJournal journal) {
+        mJournal = journal;
+    }
+
+    public static synchronized SecurityEventQueryEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SecurityEventQueryEngine(SecurityEventJournal.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Streams the matching events, from the oldest to the newest segment, to {@code listener}.
+     */
+    public void query(SecurityEventQuery query, ResultListener listener) throws IOException {
+        SecurityEventStore page = new SecurityEventStore(PAGE_SIZE);
+        for (SecurityEventSegmentIndex index : getIndexes()) {
+            final int[] records = index.match(query);
+            if (records.length == 0) {
+                continue;
+            }
+            final RandomAccessFile segmentFile;
+            try {
+                segmentFile = new RandomAccessFile(index.segment, "r");
+            } catch (FileNotFoundException e) {
+                // Deleted by the journal in the meantime.
+                continue;
+            }
+            try (RandomAccessFile segment = segmentFile) {
+                for (int record : records) {
+                    SecurityEventJournal.readRecord(segment, index.getOffset(record), page);
+                    if (page.size() == PAGE_SIZE) {
+                        if (!listener.onPage(page)) {
+                            return;
+                        }
+                        page = new SecurityEventStore(PAGE_SIZE);
+                    }
+                }
+            }
+        }
+        if (page.size() > 0) {
+            listener.onPage(page);
+        }
+    }
+
+    /**
+     * @return the number of matching events, computed from the indexes only
+     */
+    public int countCandidates(SecurityEventQuery query) {
+        int count = 0;
+        for (SecurityEventSegmentIndex index : getIndexes()) {
+            count += index.match(query).length;
+        }
+        return count;
+    }
+
+    /**
+     * @return the index of every segment, built or refreshed when needed
+     */
+    private synchronized SecurityEventSegmentIndex[] getIndexes() {
+        final List<File> segments = mJournal.getSegments();
+        Map<String, SecurityEventSegmentIndex> indexes = new HashMap<>();
+        SecurityEventSegmentIndex[] result = new SecurityEventSegmentIndex[segments.size()];
+        int count = 0;
+        for (File segment : segments) {
+            SecurityEventSegmentIndex index = mIndexes.get(segment.getName());
+            if (index == null || index.indexedSize != segment.length()) {
+                try {
+                    index = SecurityEventSegmentIndex.build(segment);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to index " + segment + ", skipping it", e);
+                    continue;
+                }
+            }
+            indexes.put(segment.getName(), index);
+            result[count++] = index;
+        }
+        // Forget the segments deleted by the journal.
+        mIndexes.clear();
+        mIndexes.putAll(indexes);
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Receives the results of {@link #query(SecurityEventQuery, ResultListener)}.
+     */
+    public interface ResultListener {
+        /**
+         * @param page matching events, owned by the listener from now on
+         * @return whether to continue with the next page
+         */
+        boolean onPage(SecurityEventStore page);
+    }
+}
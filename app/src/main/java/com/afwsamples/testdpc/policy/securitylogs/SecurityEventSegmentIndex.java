@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Secondary indexes of one segment of the {@link SecurityEventJournal}, so that queries only
+ * decode the records they return.
+ * <p>
+ * Records are numbered in file order. The index holds their offsets, a bitmap of records per
+ * tag, the records sorted by time, and a dictionary of the distinct strings of the payloads, e.g.
+ * package names and paths, with the strings used by every record.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.N)
+class SecurityEventSegmentIndex {
+    final File segment;
+    /** Size of the segment when it was indexed. */
+    final long indexedSize;
+
+    private final long[] mOffsets;
+    private final SparseArray<BitSet> mTagBitmaps;
+    private final long[] mSortedTimesNanos;
+    private final int[] mRecordsByTime;
+    /** The dictionary, in lower case for the case insensitive substring lookups. */
+    private final String[] mLowerCaseStrings;
+    /** Strings of record r are {@code mStringIds[mStringStarts[r]..mStringStarts[r + 1]]}. */
+    private final int[] mStringStarts;
+    private final int[] mStringIds;
+
+    private SecurityEventSegmentIndex(File segment, long indexedSize, Builder builder) {
+        this.segment = segment;
+        this.indexedSize = indexedSize;
+        mOffsets = Arrays.copyOf(builder.mOffsets, builder.mCount);
+        mTagBitmaps = builder.mTagBitmaps;
+        mLowerCaseStrings = new String[builder.mStrings.size()];
+        for (int i = 0; i < mLowerCaseStrings.length; i++) {
+            mLowerCaseStrings[i] = builder.mStrings.get(i).toLowerCase(Locale.US);
+        }
+        mStringStarts = Arrays.copyOf(builder.mStringStarts, builder.mCount + 1);
+        mStringIds = Arrays.copyOf(builder.mStringIds, builder.mStringIdCount);
+
+        // Events are appended in time order, so this is a no-op unless the clock went back.
+        final long[] times = builder.mTimesNanos;
+        Integer[] order = new Integer[builder.mCount];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+        mRecordsByTime = new int[order.length];
+        mSortedTimesNanos = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            mRecordsByTime[i] = order[i];
+            mSortedTimesNanos[i] = times[order[i]];
+        }
+    }
+
+    static SecurityEventSegmentIndex build(File segment) throws IOException {
+        Builder builder = new Builder();
+        final long indexedSize = SecurityEventJournal.readSegment(segment, builder);
+        return new SecurityEventSegmentIndex(segment, indexedSize, builder);
+    }
+
+    int getRecordCount() {
+        return mOffsets.length;
+    }
+
+    long getOffset(int record) {
+        return mOffsets[record];
+    }
+
+    /**
+     * @return the records matching the index-backed predicates of {@code query}, sorted by time.
+     */
+    int[] match(SecurityEventQuery query) {
+        if (mOffsets.length == 0) {
+            return new int[0];
+        }
+        final int from = lowerBound(query.getFromNanos());
+        final int to = lowerBound(query.getToNanos());
+        if (from >= to) {
+            return new int[0];
+        }
+        final BitSet tagMatches = matchTags(query.getTags());
+        final BitSet stringMatches = matchSubstring(query.getSubstring());
+        int[] records = new int[to - from];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            final int record = mRecordsByTime[i];
+            if ((tagMatches == null || tagMatches.get(record))
+                    && (stringMatches == null || stringMatches.get(record))) {
+                records[count++] = record;
+            }
+        }
+        return Arrays.copyOf(records, count);
+    }
+
+    /**
+     * @return the first position in time order whose time is at least {@code timeNanos}
+     */
+    private int lowerBound(long timeNanos) {
+        int low = 0;
+        int high = mSortedTimesNanos.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (mSortedTimesNanos[middle] < timeNanos) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the records with any of the given tags, or {@code null} to match all records
+     */
+    private BitSet matchTags(int[] tags) {
+        if (tags == null) {
+            return null;
+        }
+        BitSet matches = new BitSet(mOffsets.length);
+        for (int tag : tags) {
+            final BitSet tagBitmap = mTagBitmaps.get(tag);
+            if (tagBitmap != null) {
+                matches.or(tagBitmap);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Looks the substring up in the dictionary only, then selects the records using any of the
+     * matching strings.
+     *
+     * @return the matching records, or {@code null} to match all records
+     */
+    private BitSet matchSubstring(String substring) {
+        if (substring == null) {
+            return null;
+        }
+        final String needle = substring.toLowerCase(Locale.US);
+        BitSet matchingStrings = new BitSet(mLowerCaseStrings.length);
+        for (int i = 0; i < mLowerCaseStrings.length; i++) {
+            if (mLowerCaseStrings[i].contains(needle)) {
+                matchingStrings.set(i);
+            }
+        }
+        BitSet matches = new BitSet(mOffsets.length);
+        if (matchingStrings.isEmpty()) {
+            return matches;
+        }
+        for (int record = 0; record < mOffsets.length; record++) {
+            for (int i = mStringStarts[record]; i < mStringStarts[record + 1]; i++) {
+                if (matchingStrings.get(mStringIds[i])) {
+                    matches.set(record);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static class Builder implements SecurityEventJournal.RecordVisitor {
+        private final SparseArray<BitSet> mTagBitmaps = new SparseArray<>();
+        private final Map<String, Integer> mDictionary = new HashMap<>();
+        private final List<String> mStrings = new ArrayList<>();
+        private int mCount;
+        private long[] mOffsets = new long[256];
+        private long[] mTimesNanos = new long[256];
+        private int[] mStringStarts = new int[257];
+        private int[] mStringIds = new int[256];
+        private int mStringIdCount;
+
+        @Override
+        public void onRecord(long offset, int tag, long timeNanos, long id, Object data) {
+            if (mCount == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+                mTimesNanos = Arrays.copyOf(mTimesNanos, mCount * 2);
+                mStringStarts = Arrays.copyOf(mStringStarts, mCount * 2 + 1);
+            }
+            mOffsets[mCount] = offset;
+            mTimesNanos[mCount] = timeNanos;
+            BitSet tagBitmap = mTagBitmaps.get(tag);
+            if (tagBitmap == null) {
+                tagBitmap = new BitSet();
+                mTagBitmaps.put(tag, tagBitmap);
+            }
+            tagBitmap.set(mCount);
+            mStringStarts[mCount] = mStringIdCount;
+            addStrings(data);
+            mCount++;
+            mStringStarts[mCount] = mStringIdCount;
+        }
+
+        private void addStrings(Object data) {
+            if (data instanceof String) {
+                Integer stringId = mDictionary.get(data);
+                if (stringId == null) {
+                    stringId = mStrings.size();
+                    mStrings.add((String) data);
+                    mDictionary.put((String) data, stringId);
+                }
+                if (mStringIdCount == mStringIds.length) {
+                    mStringIds = Arrays.copyOf(mStringIds, mStringIdCount * 2);
+                }
+                mStringIds[mStringIdCount++] = stringId;
+            } else if (data instanceof Object[]) {
+                for (Object item : (Object[]) data) {
+                    addStrings(item);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.app.admin.SecurityLog.SecurityEvent;
+import android.os.Build;
+import android.support.v4.os.BuildCompat;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact, append-only store of security events.
+ * <p>
+ * Only the raw tag, time, id and payload of every event are kept, in parallel arrays, so that
+ * holding tens of thousands of events costs neither a {@link SecurityEvent} nor a formatted
+ * string each. Rows are formatted on demand by {@link #format(int, StringBuilder)}.
+ * </p>
+ * Not thread safe: a store is either filled on a background thread and then handed over, or
+ * only touched on the main thread.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityEventStore {
+    /** Id of the events logged before ids were introduced in P. */
+    public static final long NO_ID = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int mSize;
+    private int[] mTags;
+    private long[] mTimesNanos;
+    private long[] mIds;
+    private Object[] mData;
+
+    public SecurityEventStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SecurityEventStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mTags = new int[capacity];
+        mTimesNanos = new long[capacity];
+        mIds = new long[capacity];
+        mData = new Object[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void add(SecurityEvent event) {
+        add(event.getTag(), event.getTimeNanos(),
+                BuildCompat.isAtLeastP() ? getEventId(event) : NO_ID, event.getData());
+    }
+
+    /**
+     * @param data payload as returned by {@link SecurityEvent#getData()}
+     */
+    public void add(int tag, long timeNanos, long id, Object data) {
+        ensureCapacity(mSize + 1);
+        mTags[mSize] = tag;
+        mTimesNanos[mSize] = timeNanos;
+        mIds[mSize] = id;
+        mData[mSize] = data;
+        mSize++;
+    }
+
+    public void addAll(SecurityEventStore other) {
+        ensureCapacity(mSize + other.mSize);
+        System.arraycopy(other.mTags, 0, mTags, mSize, other.mSize);
+        System.arraycopy(other.mTimesNanos, 0, mTimesNanos, mSize, other.mSize);
+        System.arraycopy(other.mIds, 0, mIds, mSize, other.mSize);
+        System.arraycopy(other.mData, 0, mData, mSize, other.mSize);
+        mSize += other.mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mData, 0, mSize, null);
+        mSize = 0;
+    }
+
+    public int getTag(int position) {
+        return mTags[position];
+    }
+
+    public long getTimeNanos(int position) {
+        return mTimesNanos[position];
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public Object getData(int position) {
+        return mData[position];
+    }
+
+    /**
+     * Appends the human readable form of the event at {@code position} to {@code sb}.
+     */
+    public void format(int position, StringBuilder sb) {
+        sb.append(SecurityLogTags.getName(mTags[position]));
+        if (mIds[position] != NO_ID) {
+            sb.append(" (id: ").append(mIds[position]).append(")");
+        }
+        sb.append(" (").append(new Date(TimeUnit.NANOSECONDS.toMillis(mTimesNanos[position])))
+                .append("): ");
+        printData(sb, mData[position]);
+    }
+
+    public static void printData(StringBuilder sb, Object data) {
+        if (data instanceof Integer || data instanceof Long || data instanceof Float
+                || data instanceof String) {
+            sb.append(data.toString()).append(" ");
+        } else if (data instanceof Object[]) {
+            for (Object item : (Object[]) data) {
+                printData(sb, item);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mTags.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, mTags.length + (mTags.length >> 1));
+        mTags = Arrays.copyOf(mTags, newCapacity);
+        mTimesNanos = Arrays.copyOf(mTimesNanos, newCapacity);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mData = Arrays.copyOf(mData, newCapacity);
+    }
+
+    @TargetApi(28)
+    private static long getEventId(SecurityEvent event) {
+        return event.getId();
+    }
+}
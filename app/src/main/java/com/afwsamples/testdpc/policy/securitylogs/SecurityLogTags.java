@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.app.admin.SecurityLog;
+import android.os.Build;
+
+/**
+ * Names of the security log tags, including the ones that are not in the SDK yet.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityLogTags {
+
+    // TODO: remove when it lands in the SDK:
+    static final int TAG_OS_STARTUP = 210009;
+    static final int TAG_OS_SHUTDOWN = 210010;
+    static final int TAG_LOGGING_STARTED = 210011;
+    static final int TAG_LOGGING_STOPPED = 210012;
+    static final int TAG_MEDIA_MOUNTED = 210013;
+    static final int TAG_MEDIA_UNMOUNTED = 210014;
+    static final int TAG_LOG_BUFFER_SIZE_CRITICAL = 210015;
+    static final int TAG_PASSWORD_EXPIRATION_SET = 210016;
+    static final int TAG_PASSWORD_COMPLEXITY_SET = 210017;
+    static final int TAG_PASSWORD_HISTORY_LENGTH_SET = 210018;
+    static final int TAG_MAX_SCREEN_LOCK_TIMEOUT_SET = 210019;
+    static final int TAG_MAX_PASSWORD_ATTEMPTS_SET = 210020;
+    static final int TAG_KEYGUARD_DISABLED_FEATURES_SET = 210021;
+    static final int TAG_REMOTE_LOCK = 210022;
+    static final int TAG_WIPE_FAILED = 210023;
+    static final int TAG_KEY_GENERATED = 210024;
+    static final int TAG_KEY_IMPORTED = 210025;
+    static final int TAG_KEY_DESTROYED = 210026;
+    static final int TAG_USER_RESTRICTION_ADDED = 210027;
+    static final int TAG_USER_RESTRICTION_REMOVED = 210028;
+    static final int TAG_CERT_AUTHORITY_INSTALLED = 210029;
+    static final int TAG_CERT_AUTHORITY_REMOVED = 210030;
+    static final int TAG_CRYPTO_SELF_TEST_COMPLETED = 210031;
+    static final int TAG_KEY_INTEGRITY_VIOLATION = 210032;
+    static final int TAG_CERT_VALIDATION_FAILURE = 210033;
+
+    static final int FIRST_TAG = SecurityLog.TAG_ADB_SHELL_INTERACTIVE;
+    static final int LAST_TAG = TAG_CERT_VALIDATION_FAILURE;
+
+    /**
+     * @return the tag with the given name, case insensitive, or -1 if there is none.
+     */
+    public static int getTag(String name) {
+        for (int tag = FIRST_TAG; tag <= LAST_TAG; tag++) {
+            if (getName(tag).equalsIgnoreCase(name)) {
+                return tag;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the name of the given security log tag, e.g. {@code "ADB_SHELL_CMD"}.
+     */
+    public static String getName(int eventId) {
+        final String eventTag;
+        switch (eventId) {
+            case SecurityLog.TAG_ADB_SHELL_INTERACTIVE:
+                eventTag = "ADB_SHELL_INTERACTIVE";
+                break;
+            case SecurityLog.TAG_ADB_SHELL_CMD:
+                eventTag = "ADB_SHELL_CMD";
+                break;
+            case SecurityLog.TAG_SYNC_RECV_FILE:
+                eventTag = "SYNC_RECV_FILE";
+                break;
+            case SecurityLog.TAG_SYNC_SEND_FILE:
+                eventTag = "SYNC_SEND_FILE";
+                break;
+            case SecurityLog.TAG_APP_PROCESS_START:
+                eventTag = "APP_PROCESS_START";
+                break;
+            case SecurityLog.TAG_KEYGUARD_DISMISSED:
+                eventTag = "KEYGUARD_DISMISSED";
+                break;
+            case SecurityLog.TAG_KEYGUARD_DISMISS_AUTH_ATTEMPT:
+                eventTag = "KEYGUARD_DISMISS_AUTH_ATTEMPT";
+                break;
+            case SecurityLog.TAG_KEYGUARD_SECURED:
+                eventTag = "KEYGUARD_SECURED";
+                break;
+            case TAG_OS_STARTUP:
+                eventTag = "OS_STARTUP";
+                break;
+            case TAG_OS_SHUTDOWN:
+                eventTag = "OS_SHUTDOWN";
+                break;
+            case TAG_LOGGING_STARTED:
+                eventTag = "LOGGING_STARTED";
+                break;
+            case TAG_LOGGING_STOPPED:
+                eventTag = "LOGGING_STOPPED";
+                break;
+            case TAG_MEDIA_MOUNTED:
+                eventTag = "MEDIA_MOUNTED";
+                break;
+            case TAG_MEDIA_UNMOUNTED:
+                eventTag = "MEDIA_UNMOUNTED";
+                break;
+            case TAG_LOG_BUFFER_SIZE_CRITICAL:
+                eventTag = "LOG_BUFFER_SIZE_CRITICAL";
+                break;
+            case TAG_PASSWORD_EXPIRATION_SET:
+                eventTag = "PASSWORD_EXPIRATION_SET";
+                break;
+            case TAG_PASSWORD_COMPLEXITY_SET:
+                eventTag = "PASSWORD_COMPLEXITY_SET";
+                break;
+            case TAG_PASSWORD_HISTORY_LENGTH_SET:
+                eventTag = "PASSWORD_HISTORY_LENGTH_SET";
+                break;
+            case TAG_MAX_SCREEN_LOCK_TIMEOUT_SET:
+                eventTag = "MAX_SCREEN_LOCK_TIMEOUT_SET";
+                break;
+            case TAG_MAX_PASSWORD_ATTEMPTS_SET:
+                eventTag = "MAX_PASSWORD_ATTEMPTS_SET";
+                break;
+            case TAG_KEYGUARD_DISABLED_FEATURES_SET:
+                eventTag = "KEYGUARD_DISABLED_FEATURES_SET";
+                break;
+            case TAG_REMOTE_LOCK:
+                eventTag = "REMOTE_LOCK";
+                break;
+            case TAG_WIPE_FAILED:
+                eventTag = "WIPE_FAILED";
+                break;
+            case TAG_KEY_GENERATED:
+                eventTag = "KEY_GENERATED";
+                break;
+            case TAG_KEY_IMPORTED:
+                eventTag = "KEY_IMPORTED";
+                break;
+            case TAG_KEY_DESTROYED:
+                eventTag = "KEY_DESTROYED";
+                break;
+            case TAG_USER_RESTRICTION_ADDED:
+                eventTag = "USER_RESTRICTION_ADDED";
+                break;
+            case TAG_USER_RESTRICTION_REMOVED:
+                eventTag = "USER_RESTRICTION_REMOVED";
+                break;
+            case TAG_CERT_AUTHORITY_INSTALLED:
+                eventTag = "CERT_AUTHORITY_INSTALLED";
+                break;
+            case TAG_CERT_AUTHORITY_REMOVED:
+                eventTag = "CERT_AUTHORITY_REMOVED";
+                break;
+            case TAG_CRYPTO_SELF_TEST_COMPLETED:
+                eventTag = "CRYPTO_SELF_TEST_COMPLETED";
+                break;
+            case TAG_KEY_INTEGRITY_VIOLATION:
+                eventTag = "KEY_INTEGRITY_VIOLATION";
+                break;
+            case TAG_CERT_VALIDATION_FAILURE:
+                eventTag = "CERT_VALIDATION_FAILURE";
+                break;
+            default:
+                eventTag = "UNKNOWN(" + eventId + ")";
+        }
+        return eventTag;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows status messages followed by the events of a {@link SecurityEventStore}. Events are only
+ * formatted when their row is bound.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityLogsAdapter extends RecyclerView.Adapter<SecurityLogsAdapter.ViewHolder> {
+    private final List<String> mMessages = new ArrayList<>();
+    private final SecurityEventStore mEvents = new SecurityEventStore();
+    private final StringBuilder mStringBuilder = new StringBuilder();
+
+    public void addMessage(String message) {
+        mMessages.add(message);
+        notifyItemInserted(mMessages.size() - 1);
+    }
+
+    /**
+     * Appends a page of events, e.g. streamed in from a background thread.
+     */
+    public void addEvents(SecurityEventStore events) {
+        final int positionStart = getItemCount();
+        mEvents.addAll(events);
+        notifyItemRangeInserted(positionStart, events.size());
+    }
+
+    public void clear() {
+        mMessages.clear();
+        mEvents.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(android.R.layout.simple_list_item_1, parent, false);
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        if (position < mMessages.size()) {
+            holder.text.setText(mMessages.get(position));
+            return;
+        }
+        mStringBuilder.setLength(0);
+        mEvents.format(position - mMessages.size(), mStringBuilder);
+        holder.text.setText(mStringBuilder.toString());
+    }
+
+    @Override
+    public int getItemCount() {
+        return mMessages.size() + mEvents.size();
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            text = itemView.findViewById(android.R.id.text1);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.app.admin.DevicePolicyManager;
+import android.app.admin.SecurityLog.SecurityEvent;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.Settings;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+
+import com.afwsamples.testdpc.DeviceAdminReceiver;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Drains the security logs of the device, both the ones logged before the last reboot and the
+ * current ones, into the {@link SecurityEventJournal}. Must not be called on the main thread.
+ * <p>
+ * The two buffers are merged into one timeline with a two-pointer merge, compacted and journaled
+ * a page at a time, so no merged copy of the buffers is ever built. The pre-reboot buffer is
+ * returned again by every collection, its events are journaled as events of the previous boot
+ * so that the journal checks them against the events of that boot it already has, never against
+ * the events of the current boot.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityLogsCollector {
+    private static final String TAG = "SecurityLogsCollector";
+
+    /** Neither buffer could be retrieved, they were probably accessed too recently. */
+    public static final int RESULT_NO_LOGS = -1;
+    /** The app is not allowed to retrieve the security logs. */
+    public static final int RESULT_SECURITY_EXCEPTION = -2;
+    /** The events could not be saved into the journal. */
+    public static final int RESULT_IO_ERROR = -3;
+
+    /** Local broadcast sent once new events are added to the journal. */
+    public static final String ACTION_EVENTS_JOURNALED =
+            "com.afwsamples.testdpc.SECURITY_EVENTS_JOURNALED";
+
+    /** Number of merged events compacted before they are journaled. */
+    private static final int PAGE_SIZE = 500;
+
+    /** Handler of the thread collecting for the broadcasts, created on first use. */
+    private static Handler sHandler;
+
+    private final Context mContext;
+    private final DevicePolicyManager mDevicePolicyManager;
+    private final ComponentName mAdminName;
+
+    public SecurityLogsCollector(Context context) {
+        mContext = context.getApplicationContext();
+        mDevicePolicyManager =
+                (DevicePolicyManager) mContext.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        mAdminName = DeviceAdminReceiver.getComponentName(mContext);
+    }
+
+    /**
+     * Collects on a dedicated thread, finishing {@code result} once the events are journaled, so
+     * that the journal is never synced behind the tasks of the shared
+     * {@link android.os.AsyncTask} executor while the broadcast is held.
+     */
+    public static void collect(Context context, BroadcastReceiver.PendingResult result) {
+        final SecurityLogsCollector collector = new SecurityLogsCollector(context);
+        getHandler().post(() -> {
+            try {
+                collector.collect();
+            } finally {
+                result.finish();
+            }
+        });
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    /**
+     * @return the number of events added to the journal, or one of the negative
+     * {@code RESULT_*} errors.
+     */
+    public int collect() {
+        List<SecurityEvent> preRebootLogs;
+        List<SecurityEvent> logs;
+        try {
+            preRebootLogs = mDevicePolicyManager.retrievePreRebootSecurityLogs(mAdminName);
+            logs = mDevicePolicyManager.retrieveSecurityLogs(mAdminName);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Exception thrown when trying to retrieve security logs", e);
+            return RESULT_SECURITY_EXCEPTION;
+        }
+        if (preRebootLogs == null && logs == null) {
+            Log.w(TAG, "logs == null, are you polling too early?");
+            return RESULT_NO_LOGS;
+        }
+        if (preRebootLogs == null) {
+            preRebootLogs = Collections.emptyList();
+        }
+        if (logs == null) {
+            logs = Collections.emptyList();
+        }
+        Log.d(TAG, "Incoming logs size: " + preRebootLogs.size() + " before reboot, "
+                + logs.size() + " since");
+        try {
+            final int boot = Settings.Global.getInt(mContext.getContentResolver(),
+                    Settings.Global.BOOT_COUNT, SecurityEventJournal.UNKNOWN_BOOT);
+            final int preRebootBoot = boot == SecurityEventJournal.UNKNOWN_BOOT
+                    ? SecurityEventJournal.UNKNOWN_BOOT : boot - 1;
+            final int appended = merge(preRebootLogs, preRebootBoot, logs, boot,
+                    SecurityEventJournal.getInstance(mContext));
+            Log.i(TAG, "Journaled " + appended + " security events");
+            if (appended > 0) {
+                LocalBroadcastManager.getInstance(mContext)
+                        .sendBroadcast(new Intent(ACTION_EVENTS_JOURNALED));
+            }
+            return appended;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to journal security events", e);
+            return RESULT_IO_ERROR;
+        }
+    }
+
+    /**
+     * Merges two buffers, each sorted by time, into the journal, which drops the events it
+     * already has. A page only holds events of a single buffer, as the journal deduplicates them
+     * by boot.
+     *
+     * @return the number of events added to the journal
+     */
+    private static int merge(List<SecurityEvent> first, int firstBoot, List<SecurityEvent> second,
+            int secondBoot, SecurityEventJournal journal) throws IOException {
+        final SecurityEventStore page = new SecurityEventStore(PAGE_SIZE);
+        boolean pageFromFirst = true;
+        int appended = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.size() || j < second.size()) {
+            final boolean fromFirst = j == second.size() || (i < first.size()
+                    && first.get(i).getTimeNanos() <= second.get(j).getTimeNanos());
+            if (page.size() == PAGE_SIZE || (page.size() > 0 && fromFirst != pageFromFirst)) {
+                appended += journal.append(page, pageFromFirst ? firstBoot : secondBoot);
+                page.clear();
+            }
+            pageFromFirst = fromFirst;
+            page.add(fromFirst ? first.get(i++) : second.get(j++));
+        }
+        if (page.size() > 0) {
+            appended += journal.append(page, pageFromFirst ? firstBoot : secondBoot);
+        }
+        return appended;
+    }
+}
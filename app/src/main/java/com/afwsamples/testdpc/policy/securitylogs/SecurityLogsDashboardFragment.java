@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.app.ListFragment;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.widget.ArrayAdapter;
+import com.afwsamples.testdpc.R;
+import java.util.List;
+
+/**
+ * Shows how many security events of every tag were logged recently, from the
+ * {@link SecurityEventAggregates} only, without reading the events.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityLogsDashboardFragment extends ListFragment {
+
+    /** Levels of the sparkline of the last 24 hours. */
+    private static final char[] SPARKS = {'▁', '▂', '▃', '▄', '▅', '▆', '▇', '█'};
+
+    private ArrayAdapter<String> mAdapter;
+    private SecurityEventJournal mJournal;
+    private LoadSummariesTask mLoadTask;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mAdapter = new ArrayAdapter<>(getActivity(), android.R.layout.simple_list_item_1,
+                android.R.id.text1);
+        setListAdapter(mAdapter);
+        mJournal = SecurityEventJournal.getInstance(getActivity());
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        setEmptyText(getString(R.string.security_logs_dashboard_empty));
+        if (mLoadTask == null) {
+            mLoadTask = new LoadSummariesTask();
+            mLoadTask.execute();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
+    private String formatSummary(SecurityEventAggregates.TagSummary summary) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(summary.tag == -1 ? getString(R.string.security_logs_dashboard_other_tags)
+                : SecurityLogTags.getName(summary.tag));
+        sb.append('\n');
+        for (int count : summary.hourly) {
+            sb.append(count == 0 ? ' '
+                    : SPARKS[(int) ((long) count * (SPARKS.length - 1) / summary.peakPerHour)]);
+        }
+        sb.append('\n');
+        sb.append(getString(R.string.security_logs_dashboard_counts, summary.lastHour,
+                summary.lastDay, summary.lastWeek, summary.peakPerHour, summary.total));
+        return sb.toString();
+    }
+
+    private class LoadSummariesTask
+            extends AsyncTask<Void, Void, List<SecurityEventAggregates.TagSummary>> {
+        @Override
+        protected List<SecurityEventAggregates.TagSummary> doInBackground(Void... voids) {
+            return mJournal.getAggregates().getSummaries(System.currentTimeMillis());
+        }
+
+        @Override
+        protected void onPostExecute(List<SecurityEventAggregates.TagSummary> summaries) {
+            for (SecurityEventAggregates.TagSummary summary : summaries) {
+                mAdapter.add(formatSummary(summary));
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.afwsamples.testdpc.R;
+import com.afwsamples.testdpc.common.NotificationUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Exports the journaled security events matching a query to a document chosen through the
+ * Storage Access Framework, showing the progress in a notification.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityLogsExportTask extends AsyncTask<Void, Integer, Integer> {
+    private static final String TAG = "SecurityLogsExportTask";
+
+    private static final long PROGRESS_INTERVAL_MS = 500;
+
+    private final Context mContext;
+    private final Uri mUri;
+    private final int mFormat;
+    private final SecurityEventQuery mQuery;
+    private int mTotal;
+
+    /**
+     * @param format one of the {@code SecurityEventExporter.FORMAT_*} formats
+     */
+    public SecurityLogsExportTask(Context context, Uri uri, int format,
+            SecurityEventQuery query) {
+        mContext = context.getApplicationContext();
+        mUri = uri;
+        mFormat = format;
+        mQuery = query;
+    }
+
+    @Override
+    protected void onPreExecute() {
+        NotificationUtil.showProgressNotification(mContext,
+                R.string.security_logs_export_title,
+                mContext.getString(R.string.security_logs_export_in_progress, 0), 0, 0,
+                NotificationUtil.SECURITY_LOGS_EXPORT_NOTIFICATION_ID);
+    }
+
+    /**
+     * @return the number of exported events, or -1 if the export failed
+     */
+    @Override
+    protected Integer doInBackground(Void... voids) {
+        final SecurityEventQueryEngine queryEngine =
+                SecurityEventQueryEngine.getInstance(mContext);
+        mTotal = queryEngine.countCandidates(mQuery);
+        try (OutputStream outputStream = mContext.getContentResolver().openOutputStream(mUri)) {
+            if (outputStream == null) {
+                throw new IOException("Can not open " + mUri);
+            }
+            final SecurityEventExporter exporter = new SecurityEventExporter(outputStream, mFormat);
+            final long[] lastProgressTime = {SystemClock.elapsedRealtime()};
+            queryEngine.query(mQuery, page -> {
+                try {
+                    exporter.write(page);
+                } catch (IOException e) {
+                    throw new ExportException(e);
+                }
+                final long now = SystemClock.elapsedRealtime();
+                if (now - lastProgressTime[0] >= PROGRESS_INTERVAL_MS) {
+                    lastProgressTime[0] = now;
+                    publishProgress(exporter.getEventCount());
+                }
+                return !isCancelled();
+            });
+            exporter.close();
+            Log.i(TAG, "Exported " + exporter.getEventCount() + " security events");
+            return exporter.getEventCount();
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Failed to export security events to " + mUri, e);
+            return -1;
+        } catch (ExportException e) {
+            Log.e(TAG, "Failed to export security events to " + mUri, e.getCause());
+            return -1;
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... exported) {
+        NotificationUtil.showProgressNotification(mContext,
+                R.string.security_logs_export_title,
+                mContext.getString(R.string.security_logs_export_in_progress, exported[0]),
+                exported[0], mTotal, NotificationUtil.SECURITY_LOGS_EXPORT_NOTIFICATION_ID);
+    }
+
+    @Override
+    protected void onPostExecute(Integer exported) {
+        NotificationUtil.showNotification(mContext, R.string.security_logs_export_title,
+                exported >= 0
+                        ? mContext.getString(R.string.security_logs_export_done, exported)
+                        : mContext.getString(R.string.security_logs_export_failed),
+                NotificationUtil.SECURITY_LOGS_EXPORT_NOTIFICATION_ID);
+    }
+
+    /**
+     * Carries an {@link IOException} out of the query listener.
+     */
+    private static class ExportException extends RuntimeException {
+        ExportException(IOException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.afwsamples.testdpc.policy.securitylogs;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.ActivityNotFoundException;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.SearchView;
+import com.afwsamples.testdpc.R;
+import com.afwsamples.testdpc.common.FrameCoalescer;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Collects the security logs into the {@link SecurityEventJournal}, then shows the journaled
+ * events, optionally filtered by a {@link SecurityEventQuery} typed in the action bar.
+ * <p>
+ * In live tail mode, the matching events journaled by the {@link SecurityLogsCollector} are
+ * appended as they come, at most once per frame.
+ * </p>
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class SecurityLogsFragment extends Fragment {
+
+    private static final String TAG = "ProcessLogsFragment";
+
+    private static final int EXPORT_NDJSON_REQUEST_CODE = 1;
+    private static final int EXPORT_CSV_REQUEST_CODE = 2;
+    private static final String EXPORT_MIME_TYPE = "application/gzip";
+    private static final String EXPORT_FILE_PREFIX = "security_logs_";
+
+    private SecurityLogsAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private LinearLayoutManager mLayoutManager;
+    private LoadSecurityLogsTask mLoadTask;
+    private FrameCoalescer<SecurityEventStore> mEventCoalescer;
+
+    private boolean mLiveTail;
+    /** Whether events were journaled while events were being loaded. */
+    private boolean mTailPending;
+    /**
+     * Time of the last event shown, and how many events of that time were shown, the live tail
+     * loading the events after them.
+     */
+    private long mLastTimeNanos = Long.MIN_VALUE;
+    private int mLastTimeCount;
+
+    private final BroadcastReceiver mEventsJournaledReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            loadNewEvents();
+        }
+    };
+
+    private SecurityLogsCollector mCollector;
+    private SecurityEventQuery mQuery = new SecurityEventQuery();
+    private SecurityEventQueryEngine mQueryEngine;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+        mAdapter = new SecurityLogsAdapter();
+        mCollector = new SecurityLogsCollector(getActivity());
+        mQueryEngine = SecurityEventQueryEngine.getInstance(getActivity());
+        mEventCoalescer = new FrameCoalescer<>(this::appendEvents);
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        mRecyclerView = (RecyclerView) inflater.inflate(R.layout.security_logs, container, false);
+        mLayoutManager = new LinearLayoutManager(getActivity());
+        mRecyclerView.setLayoutManager(mLayoutManager);
+        mRecyclerView.setAdapter(mAdapter);
+        return mRecyclerView;
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        if (mLoadTask != null) {
+            // The logs were already loaded, e.g. before the view was recreated.
+            return;
+        }
+        mAdapter.addMessage(
+                getString(R.string.security_logs_retrieved_message, new Date().toString()));
+        mLoadTask = new LoadSecurityLogsTask(true /* retrieve */, mQuery, 0);
+        mLoadTask.execute();
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (mLiveTail) {
+            startLiveTail();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        if (mLiveTail) {
+            stopLiveTail();
+        }
+        super.onStop();
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.security_logs_menu, menu);
+        SearchView searchView =
+                (SearchView) menu.findItem(R.id.action_query_security_logs).getActionView();
+        searchView.setQueryHint(getString(R.string.security_logs_query_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String text) {
+                runQuery(text);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_security_logs_live_tail).setChecked(mLiveTail);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_security_logs_live_tail:
+                mLiveTail = !mLiveTail;
+                item.setChecked(mLiveTail);
+                if (mLiveTail) {
+                    startLiveTail();
+                } else {
+                    stopLiveTail();
+                }
+                return true;
+            case R.id.action_export_security_logs_ndjson:
+                startExport(SecurityEventExporter.FORMAT_NDJSON, EXPORT_NDJSON_REQUEST_CODE);
+                return true;
+            case R.id.action_export_security_logs_csv:
+                startExport(SecurityEventExporter.FORMAT_CSV, EXPORT_CSV_REQUEST_CODE);
+                return true;
+            case R.id.action_security_logs_dashboard:
+                getFragmentManager().beginTransaction()
+                        .addToBackStack(SecurityLogsFragment.class.getName())
+                        .replace(R.id.container, new SecurityLogsDashboardFragment())
+                        .commit();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        switch (requestCode) {
+            case EXPORT_NDJSON_REQUEST_CODE:
+                new SecurityLogsExportTask(getActivity(), data.getData(),
+                        SecurityEventExporter.FORMAT_NDJSON, mQuery).execute();
+                break;
+            case EXPORT_CSV_REQUEST_CODE:
+                new SecurityLogsExportTask(getActivity(), data.getData(),
+                        SecurityEventExporter.FORMAT_CSV, mQuery).execute();
+                break;
+        }
+    }
+
+    /**
+     * Lets the user choose where to export the events matching the current query.
+     */
+    private void startExport(int format, int requestCode) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(EXPORT_MIME_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, EXPORT_FILE_PREFIX + System.currentTimeMillis()
+                + SecurityEventExporter.getFileExtension(format));
+        try {
+            startActivityForResult(intent, requestCode);
+        } catch (ActivityNotFoundException e) {
+            Log.e(TAG, "No activity to create the export document", e);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        mEventCoalescer.cancel();
+        super.onDestroy();
+    }
+
+    private void runQuery(String text) {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        mEventCoalescer.cancel();
+        mAdapter.clear();
+        mAdapter.addMessage(getString(R.string.security_logs_query_message, text));
+        mQuery = SecurityEventQuery.parse(text, System.currentTimeMillis());
+        mLastTimeNanos = Long.MIN_VALUE;
+        mLastTimeCount = 0;
+        mTailPending = false;
+        mLoadTask = new LoadSecurityLogsTask(false /* retrieve */, mQuery, 0);
+        mLoadTask.execute();
+    }
+
+    /**
+     * Loads the events matching the query journaled after the last one shown, once the events
+     * being loaded are.
+     */
+    private void loadNewEvents() {
+        if (mLoadTask != null && mLoadTask.getStatus() != AsyncTask.Status.FINISHED) {
+            mTailPending = true;
+            return;
+        }
+        final SecurityEventQuery query = mQuery.copy();
+        if (mLastTimeNanos > mQuery.getFromNanos()) {
+            query.setTimeRange(mLastTimeNanos, mQuery.getToNanos());
+        }
+        mLoadTask = new LoadSecurityLogsTask(false /* retrieve */, query,
+                mLastTimeNanos > mQuery.getFromNanos() ? mLastTimeCount : 0);
+        mLoadTask.execute();
+    }
+
+    private void startLiveTail() {
+        LocalBroadcastManager.getInstance(getActivity()).registerReceiver(
+                mEventsJournaledReceiver,
+                new IntentFilter(SecurityLogsCollector.ACTION_EVENTS_JOURNALED));
+        // Catches up with the events journaled while not tailing.
+        loadNewEvents();
+    }
+
+    private void stopLiveTail() {
+        LocalBroadcastManager.getInstance(getActivity())
+                .unregisterReceiver(mEventsJournaledReceiver);
+        mTailPending = false;
+    }
+
+    /**
+     * Appends the events loaded since the last frame, keeping the end of the list in view if it
+     * was.
+     */
+    private void appendEvents(List<SecurityEventStore> pages) {
+        final boolean atEnd =
+                mLayoutManager.findLastVisibleItemPosition() >= mAdapter.getItemCount() - 1;
+        if (pages.size() == 1) {
+            mAdapter.addEvents(pages.get(0));
+        } else {
+            final SecurityEventStore events = new SecurityEventStore();
+            for (SecurityEventStore page : pages) {
+                events.addAll(page);
+            }
+            mAdapter.addEvents(events);
+        }
+        if (atEnd) {
+            mRecyclerView.scrollToPosition(mAdapter.getItemCount() - 1);
+        }
+    }
+
+    /**
+     * Records the time of the last event of a page about to be shown.
+     */
+    private void updateLastTime(SecurityEventStore page) {
+        for (int i = 0; i < page.size(); i++) {
+            final long timeNanos = page.getTimeNanos(i);
+            if (timeNanos > mLastTimeNanos) {
+                mLastTimeNanos = timeNanos;
+                mLastTimeCount = 1;
+            } else if (timeNanos == mLastTimeNanos) {
+                mLastTimeCount++;
+            }
+        }
+    }
+
+    /**
+     * Optionally retrieves the security logs into the journal, then queries the journal and
+     * hands the matching events to the adapter page by page.
+     */
+    private class LoadSecurityLogsTask extends AsyncTask<Void, SecurityEventStore, Integer> {
+        private static final int RESULT_QUERY_FAILED = Integer.MIN_VALUE;
+
+        private final boolean mRetrieve;
+        private final SecurityEventQuery mQuery;
+        /** Number of events at the start of the time range already shown. */
+        private int mSkipCount;
+        private int mRetrieveResult;
+
+        LoadSecurityLogsTask(boolean retrieve, SecurityEventQuery query, int skipCount) {
+            mRetrieve = retrieve;
+            mQuery = query;
+            mSkipCount = skipCount;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... voids) {
+            if (mRetrieve) {
+                mRetrieveResult = mCollector.collect();
+            }
+            try {
+                mQueryEngine.query(mQuery, page -> {
+                    final SecurityEventStore events = skipShownEvents(page);
+                    if (events.size() > 0) {
+                        publishProgress(events);
+                    }
+                    return !isCancelled();
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to query security logs", e);
+                return RESULT_QUERY_FAILED;
+            }
+            return mRetrieveResult;
+        }
+
+        @Override
+        protected void onProgressUpdate(SecurityEventStore... pages) {
+            if (isCancelled()) {
+                return;
+            }
+            for (SecurityEventStore page : pages) {
+                updateLastTime(page);
+                mEventCoalescer.post(page);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer result) {
+            switch (result) {
+                case SecurityLogsCollector.RESULT_NO_LOGS:
+                    mAdapter.addMessage(getString(R.string.failed_to_retrieve_security_logs));
+                    break;
+                case SecurityLogsCollector.RESULT_SECURITY_EXCEPTION:
+                    mAdapter.addMessage(getString(R.string.exception_retrieving_security_logs));
+                    break;
+                case RESULT_QUERY_FAILED:
+                case SecurityLogsCollector.RESULT_IO_ERROR:
+                    mAdapter.addMessage(getString(R.string.failed_to_query_security_logs));
+                    break;
+            }
+            if (mTailPending && mLiveTail) {
+                mTailPending = false;
+                loadNewEvents();
+            }
+        }
+
+        /**
+         * @return the page without the events of the start of the time range already shown
+         */
+        private SecurityEventStore skipShownEvents(SecurityEventStore page) {
+            if (mSkipCount == 0) {
+                return page;
+            }
+            final long fromNanos = mQuery.getFromNanos();
+            final SecurityEventStore events = new SecurityEventStore(page.size());
+            for (int i = 0; i < page.size(); i++) {
+                if (mSkipCount > 0 && page.getTimeNanos(i) == fromNanos) {
+                    mSkipCount--;
+                    continue;
+                }
+                events.add(page.getTag(i), page.getTimeNanos(i), page.getId(i),
+                        page.getData(i));
+            }
+            return events;
+        }
+    }
+}
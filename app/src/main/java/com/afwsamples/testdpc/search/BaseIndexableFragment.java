@@ -5,30 +5,68 @@ import android.util.Log;
 
 import com.afwsamples.testdpc.common.BaseSearchablePolicyPreferenceFragment;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.zip.CRC32;
 
 public abstract class BaseIndexableFragment {
     private static final String TAG = "BaseIndexableFragment";
     protected String fragmentName;
+    private final FragmentFactory mFragmentFactory;
 
     public BaseIndexableFragment(
-            Class<? extends BaseSearchablePolicyPreferenceFragment> fragmentClass) {
+            Class<? extends BaseSearchablePolicyPreferenceFragment> fragmentClass,
+            FragmentFactory fragmentFactory) {
         this.fragmentName = fragmentClass.getName();
+        mFragmentFactory = fragmentFactory;
+    }
+
+    /**
+     * @return a new instance of the fragment holding the indexed preferences
+     */
+    public BaseSearchablePolicyPreferenceFragment newFragment() {
+        return mFragmentFactory.create();
     }
 
     public boolean isAvailable(Context context) {
         try {
-            Class<BaseSearchablePolicyPreferenceFragment> clazz =
-                    (Class<BaseSearchablePolicyPreferenceFragment>)
-                            Class.forName(this.fragmentName);
-            BaseSearchablePolicyPreferenceFragment fragment = clazz.newInstance();
-            return fragment.isAvailable(context);
-        } catch (ClassNotFoundException | java.lang.InstantiationException | IllegalStateException
-                | IllegalAccessException e) {
+            return newFragment().isAvailable(context);
+        } catch (IllegalStateException e) {
             Log.e(TAG, "isAvailable error", e);
         }
         return false;
     }
 
+    /**
+     * Loads what showing the fragment is going to need, so that navigating to it is faster.
+     * Called on a background thread.
+     */
+    public void prewarm(Context context) {
+    }
+
     public abstract List<PreferenceIndex> index(Context context);
+
+    /**
+     * Computes a fingerprint of the content that {@link #index(Context)} would produce. It must
+     * be much cheaper than indexing, as it is used to decide whether the fragment needs to be
+     * crawled again.
+     */
+    public abstract long getFingerprint(Context context);
+
+    protected static void updateChecksum(CRC32 checksum, CharSequence data) {
+        if (data == null) {
+            checksum.update(0);
+            return;
+        }
+        checksum.update(data.toString().getBytes(StandardCharsets.UTF_8));
+        // Separator, so that ("ab", "c") and ("a", "bc") do not collide.
+        checksum.update(0);
+    }
+
+    /**
+     * Creates the fragment without reflection, usually a constructor reference.
+     */
+    public interface FragmentFactory {
+        BaseSearchablePolicyPreferenceFragment create();
+    }
 }
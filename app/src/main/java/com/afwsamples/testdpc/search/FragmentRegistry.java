@@ -0,0 +1,117 @@
+package com.afwsamples.testdpc.search;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.afwsamples.testdpc.common.BaseSearchablePolicyPreferenceFragment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Maps the class names stored in the search index to the {@link BaseIndexableFragment} they come
+ * from, so that the target of a search result is created without reflection.
+ * <p>
+ * Whether a fragment is available only changes with the admin or user state, so the verdicts are
+ * cached until {@link #invalidateAvailability()} is called by {@link
+ * com.afwsamples.testdpc.DeviceAdminReceiver}.
+ * </p>
+ */
+public class FragmentRegistry {
+    private static final String TAG = "FragmentRegistry";
+
+    /**
+     * Number of preference xml files worth prewarming, the framework only keeps the last few
+     * loaded xml blocks around.
+     */
+    private static final int MAX_PREWARMED_FRAGMENTS = 4;
+
+    private static FragmentRegistry sInstance;
+
+    private final Map<String, BaseIndexableFragment> mIndexableFragments = new LinkedHashMap<>();
+    private final ExecutorService mPrewarmExecutor = Executors.newSingleThreadExecutor();
+    private List<String> mAvailableFragments;
+    private List<String> mPrewarmedFragments = Collections.emptyList();
+
+    private FragmentRegistry() {
+        for (BaseIndexableFragment indexableFragment : IndexableFragments.values()) {
+            mIndexableFragments.put(indexableFragment.fragmentName, indexableFragment);
+        }
+    }
+
+    public static synchronized FragmentRegistry getInstance() {
+        if (sInstance == null) {
+            sInstance = new FragmentRegistry();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return a new instance of the given fragment, or {@code null} if it is not indexable.
+     */
+    public BaseSearchablePolicyPreferenceFragment newFragment(String fragmentClass) {
+        final BaseIndexableFragment indexableFragment = mIndexableFragments.get(fragmentClass);
+        if (indexableFragment == null) {
+            Log.e(TAG, "Unknown fragment: " + fragmentClass);
+            return null;
+        }
+        return indexableFragment.newFragment();
+    }
+
+    /**
+     * @return the class names of the fragments available to the current admin and user.
+     */
+    public synchronized List<String> getAvailableFragments(Context context) {
+        if (mAvailableFragments == null) {
+            List<String> availableFragments = new ArrayList<>();
+            for (BaseIndexableFragment indexableFragment : mIndexableFragments.values()) {
+                if (indexableFragment.isAvailable(context)) {
+                    availableFragments.add(indexableFragment.fragmentName);
+                }
+            }
+            mAvailableFragments = Collections.unmodifiableList(availableFragments);
+        }
+        return mAvailableFragments;
+    }
+
+    /**
+     * Drops the cached availability verdicts, e.g. after the admin or the user state changed.
+     */
+    public synchronized void invalidateAvailability() {
+        mAvailableFragments = null;
+    }
+
+    /**
+     * Prewarms the first few distinct fragments in {@code fragmentClasses} in the background,
+     * typically the fragments of the search results on screen.
+     */
+    public void prewarm(Context context, List<String> fragmentClasses) {
+        List<String> fragmentsToPrewarm = new ArrayList<>(MAX_PREWARMED_FRAGMENTS);
+        for (String fragmentClass : fragmentClasses) {
+            if (fragmentsToPrewarm.size() == MAX_PREWARMED_FRAGMENTS) {
+                break;
+            }
+            if (!fragmentsToPrewarm.contains(fragmentClass)
+                    && mIndexableFragments.containsKey(fragmentClass)) {
+                fragmentsToPrewarm.add(fragmentClass);
+            }
+        }
+        synchronized (this) {
+            if (fragmentsToPrewarm.equals(mPrewarmedFragments)) {
+                return;
+            }
+            mPrewarmedFragments = fragmentsToPrewarm;
+        }
+        final Context appContext = context.getApplicationContext();
+        mPrewarmExecutor.execute(() -> {
+            for (String fragmentClass : fragmentsToPrewarm) {
+                mIndexableFragments.get(fragmentClass).prewarm(appContext);
+            }
+        });
+    }
+}
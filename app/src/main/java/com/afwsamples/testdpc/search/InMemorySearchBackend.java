@@ -0,0 +1,476 @@
+package com.afwsamples.testdpc.search;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@link SearchBackend} that keeps the whole preference index in memory, so that a lookup never
+ * touches the disk. The index is loaded from {@link PreferenceIndexSqliteOpenHelper} once it is
+ * up to date.
+ * <p>
+ * Titles, summaries and keys are indexed. Every word gets a BM25 weight per preference, with the
+ * title boosted over the summary and the key. The weights and the title offsets to highlight are
+ * computed when the index is built, so a lookup only sums precomputed weights. Query words
+ * match exactly, as the prefix of a word if they are the last one, or within a small edit
+ * distance, each kind of match being weighted less than the previous one.
+ * </p>
+ */
+public class InMemorySearchBackend implements SearchBackend {
+    private static final String TAG = "InMemorySearchBackend";
+
+    private static final float TITLE_BOOST = 3f;
+    private static final float SUMMARY_BOOST = 1f;
+    private static final float KEY_BOOST = 1f;
+    private static final float BM25_K1 = 1.2f;
+    private static final float BM25_B = 0.75f;
+
+    private static final float EXACT_MATCH_FACTOR = 1f;
+    private static final float PREFIX_MATCH_FACTOR = 0.8f;
+    private static final float FUZZY_MATCH_FACTOR = 0.5f;
+    /**
+     * Shorter query words are too ambiguous to tolerate typos.
+     */
+    private static final int MIN_FUZZY_LENGTH = 4;
+    /**
+     * Query words at least that long tolerate two typos instead of one.
+     */
+    private static final int TWO_TYPOS_MIN_LENGTH = 8;
+
+    private static InMemorySearchBackend sInstance;
+
+    private final PreferenceIndexSqliteOpenHelper mSqliteOpenHelper;
+    private RankedIndex mRankedIndex;
+
+    private InMemorySearchBackend(Context context) {
+        mSqliteOpenHelper = PreferenceIndexSqliteOpenHelper.getInstance(context);
+    }
+
+    public static synchronized InMemorySearchBackend getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new InMemorySearchBackend(context);
+        }
+        return sInstance;
+    }
+
+    @Override
+    public List<SearchResult> lookup(String query, List<String> targetFragments) {
+        final RankedIndex rankedIndex = getRankedIndex();
+        final long start = System.nanoTime();
+        final List<SearchResult> searchResults =
+                rankedIndex.lookup(SearchTokenizer.tokenize(query), new HashSet<>(targetFragments));
+        Log.v(TAG, "Looked up \"" + query + "\" in " + (System.nanoTime() - start) / 1000 + "us");
+        return searchResults;
+    }
+
+    /**
+     * Fuzzy matches and ranking would be lost by filtering the previous result.
+     */
+    @Override
+    public boolean supportsNarrowing() {
+        return false;
+    }
+
+    /**
+     * @return the index, built once the preference index is up to date, or an empty one that is
+     * not kept if updating the preference index was interrupted
+     */
+    private synchronized RankedIndex getRankedIndex() {
+        if (mRankedIndex == null) {
+            final long start = System.nanoTime();
+            final List<PreferenceIndex> preferences = mSqliteOpenHelper.getAllPreferences();
+            if (preferences == null) {
+                // Built again by the next lookup.
+                return RankedIndex.build(Collections.emptyList());
+            }
+            mRankedIndex = RankedIndex.build(preferences);
+            Log.d(TAG, "Built in-memory index of " + mRankedIndex.mDocs.length
+                    + " preferences and " + mRankedIndex.mTerms.length + " words in "
+                    + (System.nanoTime() - start) / 1000 + "us");
+        }
+        return mRankedIndex;
+    }
+
+    /**
+     * Sorted array of the distinct words of all the preferences. The postings of the word at a
+     * given position are the ascending positions in {@link #mDocs} of the preferences that
+     * contain it, along with the precomputed weight and title offsets for each of them.
+     */
+    private static class RankedIndex {
+        final PreferenceIndex[] mDocs;
+        final String[] mTerms;
+        final int[][] mPostingDocs;
+        final float[][] mPostingWeights;
+        /**
+         * Offsets of the word in the title, as in {@link SearchResult#titleHighlights}.
+         */
+        final int[][][] mPostingTitleSpans;
+        /**
+         * Positions in {@link #mTerms} of the words containing each character bigram, used to
+         * find the candidates of a fuzzy match.
+         */
+        final Map<String, int[]> mBigramTerms;
+
+        private RankedIndex(PreferenceIndex[] docs, String[] terms, int[][] postingDocs,
+                float[][] postingWeights, int[][][] postingTitleSpans,
+                Map<String, int[]> bigramTerms) {
+            mDocs = docs;
+            mTerms = terms;
+            mPostingDocs = postingDocs;
+            mPostingWeights = postingWeights;
+            mPostingTitleSpans = postingTitleSpans;
+            mBigramTerms = bigramTerms;
+        }
+
+        static RankedIndex build(List<PreferenceIndex> preferenceIndexList) {
+            final PreferenceIndex[] docs =
+                    preferenceIndexList.toArray(new PreferenceIndex[preferenceIndexList.size()]);
+            final int docCount = docs.length;
+            final Field[] titles = new Field[docCount];
+            final Field[] summaries = new Field[docCount];
+            final Field[] keys = new Field[docCount];
+            float titleLengthSum = 0;
+            float summaryLengthSum = 0;
+            float keyLengthSum = 0;
+            // Word -> ascending positions of the preferences containing it.
+            final TreeMap<String, List<Integer>> termDocs = new TreeMap<>();
+            for (int doc = 0; doc < docCount; doc++) {
+                titles[doc] = new Field(docs[doc].title);
+                summaries[doc] = new Field(docs[doc].summary);
+                keys[doc] = new Field(docs[doc].key);
+                titleLengthSum += titles[doc].mLength;
+                summaryLengthSum += summaries[doc].mLength;
+                keyLengthSum += keys[doc].mLength;
+                final Set<String> docTerms = new HashSet<>(titles[doc].mTermFrequencies.keySet());
+                docTerms.addAll(summaries[doc].mTermFrequencies.keySet());
+                docTerms.addAll(keys[doc].mTermFrequencies.keySet());
+                for (String term : docTerms) {
+                    List<Integer> postings = termDocs.get(term);
+                    if (postings == null) {
+                        postings = new ArrayList<>();
+                        termDocs.put(term, postings);
+                    }
+                    postings.add(doc);
+                }
+            }
+            final float averageTitleLength = Math.max(1, titleLengthSum / Math.max(1, docCount));
+            final float averageSummaryLength =
+                    Math.max(1, summaryLengthSum / Math.max(1, docCount));
+            final float averageKeyLength = Math.max(1, keyLengthSum / Math.max(1, docCount));
+
+            final int termCount = termDocs.size();
+            final String[] terms = new String[termCount];
+            final int[][] postingDocs = new int[termCount][];
+            final float[][] postingWeights = new float[termCount][];
+            final int[][][] postingTitleSpans = new int[termCount][][];
+            final Map<String, List<Integer>> bigramTermLists = new HashMap<>();
+            int termIndex = 0;
+            for (Map.Entry<String, List<Integer>> entry : termDocs.entrySet()) {
+                final String term = entry.getKey();
+                final List<Integer> docList = entry.getValue();
+                final int documentFrequency = docList.size();
+                final float idf = (float) Math.log(
+                        1 + (docCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                terms[termIndex] = term;
+                postingDocs[termIndex] = new int[documentFrequency];
+                postingWeights[termIndex] = new float[documentFrequency];
+                postingTitleSpans[termIndex] = new int[documentFrequency][];
+                for (int i = 0; i < documentFrequency; i++) {
+                    final int doc = docList.get(i);
+                    postingDocs[termIndex][i] = doc;
+                    postingWeights[termIndex][i] = idf * (
+                            TITLE_BOOST * titles[doc].bm25(term, averageTitleLength)
+                            + SUMMARY_BOOST * summaries[doc].bm25(term, averageSummaryLength)
+                            + KEY_BOOST * keys[doc].bm25(term, averageKeyLength));
+                    postingTitleSpans[termIndex][i] = titles[doc].spansOf(term);
+                }
+                for (String bigram : bigrams(term)) {
+                    List<Integer> bigramTerms = bigramTermLists.get(bigram);
+                    if (bigramTerms == null) {
+                        bigramTerms = new ArrayList<>();
+                        bigramTermLists.put(bigram, bigramTerms);
+                    }
+                    bigramTerms.add(termIndex);
+                }
+                termIndex++;
+            }
+            final Map<String, int[]> bigramTerms = new HashMap<>(bigramTermLists.size());
+            for (Map.Entry<String, List<Integer>> entry : bigramTermLists.entrySet()) {
+                bigramTerms.put(entry.getKey(), toIntArray(entry.getValue()));
+            }
+            return new RankedIndex(docs, terms, postingDocs, postingWeights, postingTitleSpans,
+                    bigramTerms);
+        }
+
+        /**
+         * Every query word has to match a word of the preference, the score of a preference is
+         * the sum of the best match of each query word.
+         */
+        List<SearchResult> lookup(List<String> queryTokens, Set<String> targetFragments) {
+            final int docCount = mDocs.length;
+            if (queryTokens.isEmpty() || docCount == 0) {
+                return Collections.emptyList();
+            }
+            final float[] scores = new float[docCount];
+            final int[] matchedTokens = new int[docCount];
+            final List<int[]>[] highlights = newHighlightLists(docCount);
+            final float[] tokenScores = new float[docCount];
+            final int[] tokenHighlightTerms = new int[docCount];
+            final int[] tokenHighlightPostings = new int[docCount];
+            final int[] tokenHighlightLengths = new int[docCount];
+            for (int q = 0; q < queryTokens.size(); q++) {
+                final String token = queryTokens.get(q);
+                final boolean isLastToken = q == queryTokens.size() - 1;
+                Arrays.fill(tokenScores, 0);
+                final Set<Integer> matchedTerms = new HashSet<>();
+                int position = Arrays.binarySearch(mTerms, token);
+                if (position >= 0) {
+                    matchedTerms.add(position);
+                    scoreTerm(position, EXACT_MATCH_FACTOR, Integer.MAX_VALUE, tokenScores,
+                            tokenHighlightTerms, tokenHighlightPostings, tokenHighlightLengths);
+                }
+                if (isLastToken) {
+                    // Words starting with the prefix are sorted right after the insertion point.
+                    for (int i = position >= 0 ? position + 1 : -position - 1;
+                            i < mTerms.length && mTerms[i].startsWith(token); i++) {
+                        matchedTerms.add(i);
+                        scoreTerm(i, PREFIX_MATCH_FACTOR, token.length(), tokenScores,
+                                tokenHighlightTerms, tokenHighlightPostings,
+                                tokenHighlightLengths);
+                    }
+                }
+                if (token.length() >= MIN_FUZZY_LENGTH) {
+                    for (int i : findFuzzyTerms(token, isLastToken)) {
+                        if (!matchedTerms.contains(i)) {
+                            scoreTerm(i, FUZZY_MATCH_FACTOR, Integer.MAX_VALUE, tokenScores,
+                                    tokenHighlightTerms, tokenHighlightPostings,
+                                    tokenHighlightLengths);
+                        }
+                    }
+                }
+                for (int doc = 0; doc < docCount; doc++) {
+                    if (tokenScores[doc] <= 0) {
+                        continue;
+                    }
+                    scores[doc] += tokenScores[doc];
+                    matchedTokens[doc]++;
+                    final int[] spans = mPostingTitleSpans[tokenHighlightTerms[doc]]
+                            [tokenHighlightPostings[doc]];
+                    for (int i = 0; i < spans.length; i += 2) {
+                        final int length =
+                                Math.min(spans[i + 1] - spans[i], tokenHighlightLengths[doc]);
+                        highlights[doc].add(new int[] {spans[i], spans[i] + length});
+                    }
+                }
+            }
+
+            List<SearchResult> searchResults = new ArrayList<>();
+            for (int doc = 0; doc < docCount; doc++) {
+                if (matchedTokens[doc] == queryTokens.size()
+                        && targetFragments.contains(mDocs[doc].fragmentClass)) {
+                    searchResults.add(new SearchResult(mDocs[doc], scores[doc],
+                            mergeHighlights(highlights[doc])));
+                }
+            }
+            // Stable sort, ties keep the index order.
+            Collections.sort(searchResults, (a, b) -> Float.compare(b.score, a.score));
+            return searchResults;
+        }
+
+        /**
+         * Raises the score of every preference containing the word to its weight times the
+         * factor, unless a query word already matched better.
+         *
+         * @param highlightLength how many characters of the word to highlight
+         */
+        private void scoreTerm(int term, float factor, int highlightLength, float[] tokenScores,
+                int[] highlightTerms, int[] highlightPostings, int[] highlightLengths) {
+            final int[] docs = mPostingDocs[term];
+            final float[] weights = mPostingWeights[term];
+            for (int i = 0; i < docs.length; i++) {
+                final float score = weights[i] * factor;
+                final int doc = docs[i];
+                if (score > tokenScores[doc]) {
+                    tokenScores[doc] = score;
+                    highlightTerms[doc] = term;
+                    highlightPostings[doc] = i;
+                    highlightLengths[doc] = highlightLength;
+                }
+            }
+        }
+
+        /**
+         * @param isPrefix whether the token may also be a misspelled prefix of the word
+         * @return the positions of the words within the allowed edit distance of the token
+         */
+        private List<Integer> findFuzzyTerms(String token, boolean isPrefix) {
+            final int maxEdits = token.length() >= TWO_TYPOS_MIN_LENGTH ? 2 : 1;
+            final Set<Integer> candidates = new HashSet<>();
+            for (String bigram : bigrams(token)) {
+                final int[] bigramTerms = mBigramTerms.get(bigram);
+                if (bigramTerms != null) {
+                    for (int term : bigramTerms) {
+                        candidates.add(term);
+                    }
+                }
+            }
+            List<Integer> fuzzyTerms = new ArrayList<>();
+            for (int term : candidates) {
+                final String candidate = mTerms[term];
+                if (!isPrefix && Math.abs(candidate.length() - token.length()) > maxEdits) {
+                    continue;
+                }
+                if (editDistance(token, candidate, isPrefix) <= maxEdits) {
+                    fuzzyTerms.add(term);
+                }
+            }
+            return fuzzyTerms;
+        }
+
+        private static int[] mergeHighlights(List<int[]> spans) {
+            if (spans.isEmpty()) {
+                return new int[0];
+            }
+            Collections.sort(spans, (a, b) -> Integer.compare(a[0], b[0]));
+            final int[] merged = new int[spans.size() * 2];
+            int count = 0;
+            for (int[] span : spans) {
+                if (count > 0 && span[0] <= merged[count - 1]) {
+                    merged[count - 1] = Math.max(merged[count - 1], span[1]);
+                } else {
+                    merged[count++] = span[0];
+                    merged[count++] = span[1];
+                }
+            }
+            return Arrays.copyOf(merged, count);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static List<int[]>[] newHighlightLists(int size) {
+            final List<int[]>[] lists = new List[size];
+            for (int i = 0; i < size; i++) {
+                lists[i] = new ArrayList<>(1);
+            }
+            return lists;
+        }
+    }
+
+    /**
+     * Words of one field of a preference.
+     */
+    private static class Field {
+        final int[] mSpans;
+        final String mText;
+        final int mLength;
+        final Map<String, Integer> mTermFrequencies = new HashMap<>();
+
+        Field(String text) {
+            mText = text;
+            mSpans = SearchTokenizer.spans(text);
+            final List<String> tokens = SearchTokenizer.tokenize(text);
+            mLength = tokens.size();
+            for (String token : tokens) {
+                final Integer frequency = mTermFrequencies.get(token);
+                mTermFrequencies.put(token, frequency == null ? 1 : frequency + 1);
+            }
+        }
+
+        /**
+         * @return the BM25 term frequency component of the word in this field
+         */
+        float bm25(String term, float averageLength) {
+            final Integer frequency = mTermFrequencies.get(term);
+            if (frequency == null) {
+                return 0;
+            }
+            return frequency * (BM25_K1 + 1) / (frequency
+                    + BM25_K1 * (1 - BM25_B + BM25_B * mLength / averageLength));
+        }
+
+        /**
+         * @return the offsets of every occurrence of the word in this field
+         */
+        int[] spansOf(String term) {
+            if (!mTermFrequencies.containsKey(term)) {
+                return new int[0];
+            }
+            final int[] spans = new int[mTermFrequencies.get(term) * 2];
+            int count = 0;
+            for (int i = 0; i < mSpans.length && count < spans.length; i += 2) {
+                if (mText.substring(mSpans[i], mSpans[i + 1]).equalsIgnoreCase(term)) {
+                    spans[count++] = mSpans[i];
+                    spans[count++] = mSpans[i + 1];
+                }
+            }
+            return Arrays.copyOf(spans, count);
+        }
+    }
+
+    private static Set<String> bigrams(String term) {
+        final Set<String> bigrams = new HashSet<>();
+        for (int i = 0; i + 2 <= term.length(); i++) {
+            bigrams.add(term.substring(i, i + 2));
+        }
+        return bigrams;
+    }
+
+    /**
+     * Optimal string alignment distance, i.e. Levenshtein with transpositions of adjacent
+     * characters counted as one edit.
+     *
+     * @param isPrefix whether to return the smallest distance between the token and any prefix
+     *                 of the word instead of the whole word
+     */
+    static int editDistance(String token, String word, boolean isPrefix) {
+        final int m = token.length();
+        final int n = word.length();
+        int[] previousPrevious = new int[n + 1];
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        for (int j = 0; j <= n; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= m; i++) {
+            current[0] = i;
+            for (int j = 1; j <= n; j++) {
+                final int cost = token.charAt(i - 1) == word.charAt(j - 1) ? 0 : 1;
+                int distance = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + cost);
+                if (i > 1 && j > 1 && token.charAt(i - 1) == word.charAt(j - 2)
+                        && token.charAt(i - 2) == word.charAt(j - 1)) {
+                    distance = Math.min(distance, previousPrevious[j - 2] + 1);
+                }
+                current[j] = distance;
+            }
+            final int[] recycled = previousPrevious;
+            previousPrevious = previous;
+            previous = current;
+            current = recycled;
+        }
+        if (!isPrefix) {
+            return previous[n];
+        }
+        int distance = Integer.MAX_VALUE;
+        for (int j = 0; j <= n; j++) {
+            distance = Math.min(distance, previous[j]);
+        }
+        return distance;
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
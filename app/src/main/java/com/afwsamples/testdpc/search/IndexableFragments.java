@@ -28,18 +28,18 @@ public class IndexableFragments {
 
     static {
         sIndexableFragments.add(new XmlIndexableFragment(PolicyManagementFragment.class,
-                R.xml.device_policy_header));
+                PolicyManagementFragment::new, R.xml.device_policy_header));
         sIndexableFragments.add(new XmlIndexableFragment(ProfilePolicyManagementFragment.class,
-                R.xml.profile_policy_header));
+                ProfilePolicyManagementFragment::new, R.xml.profile_policy_header));
         sIndexableFragments.add(new XmlIndexableFragment(LockScreenPolicyFragment.class,
-                R.xml.lock_screen_preferences));
+                LockScreenPolicyFragment::new, R.xml.lock_screen_preferences));
         sIndexableFragments.add(new XmlIndexableFragment(PasswordConstraintsFragment.class,
-                R.xml.password_constraint_preferences));
+                PasswordConstraintsFragment::new, R.xml.password_constraint_preferences));
         sIndexableFragments.add(new XmlIndexableFragment(BindDeviceAdminFragment.class,
-                R.xml.bind_device_admin_policies));
+                BindDeviceAdminFragment::new, R.xml.bind_device_admin_policies));
         sIndexableFragments.add(new UserRestrictionIndexableFragment());
         sIndexableFragments.add(new XmlIndexableFragment(OverrideApnFragment.class,
-                R.xml.override_apn_preferences));
+                OverrideApnFragment::new, R.xml.override_apn_preferences));
     }
 
     public static List<BaseIndexableFragment> values() {
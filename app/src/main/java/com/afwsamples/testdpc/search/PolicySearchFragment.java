@@ -1,7 +1,6 @@
 package com.afwsamples.testdpc.search;
 
 import android.app.Fragment;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.LinearLayoutManager;
@@ -30,9 +29,9 @@ public class PolicySearchFragment extends Fragment implements
     private static final int MIN_LENGTH_TO_SEARCH = 3;
 
     private SearchView mSearchView;
-    private PreferenceIndexSqliteOpenHelper mSqliteOpenHelper;
     private SearchItemAdapter mAdapter;
     private List<String> mAvailableFragments;
+    private SearchPipeline mSearchPipeline;
 
 
     public static PolicySearchFragment newInstance() {
@@ -43,9 +42,16 @@ public class PolicySearchFragment extends Fragment implements
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
-        mSqliteOpenHelper = PreferenceIndexSqliteOpenHelper.getInstance(getActivity());
         mAdapter = new SearchItemAdapter(this);
-        mAvailableFragments = getAvailableFragments();
+        mAvailableFragments = FragmentRegistry.getInstance().getAvailableFragments(getActivity());
+        mSearchPipeline = new SearchPipeline(SearchBackends.get(getActivity()),
+                mAvailableFragments, this::onSearchResult);
+    }
+
+    @Override
+    public void onDestroy() {
+        mSearchPipeline.release();
+        super.onDestroy();
     }
 
     @Nullable
@@ -72,19 +78,21 @@ public class PolicySearchFragment extends Fragment implements
         mSearchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @Override
             public boolean onQueryTextSubmit(String s) {
-                doSearchAsync(s);
+                mSearchPipeline.submitNow(s);
                 return true;
             }
 
             @Override
             public boolean onQueryTextChange(String s) {
                 if (s != null && s.length() >= MIN_LENGTH_TO_SEARCH) {
-                    doSearchAsync(s);
+                    mSearchPipeline.submit(s);
                     return true;
                 }
                 return false;
             }
         });
+        menu.findItem(R.id.action_in_memory_search).setChecked(
+                SearchBackends.isInMemoryEnabled(getActivity()));
         searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
             @Override
             public boolean onMenuItemActionExpand(MenuItem menuItem) {
@@ -99,53 +107,48 @@ public class PolicySearchFragment extends Fragment implements
         });
     }
 
-    private void doSearchAsync(final String query) {
-        new AsyncTask<Void, Void, List<PreferenceIndex>>() {
-            @Override
-            protected List<PreferenceIndex> doInBackground(Void... voids) {
-                return mSqliteOpenHelper.lookup(query, mAvailableFragments);
-            }
-
-            @Override
-            protected void onPostExecute(List<PreferenceIndex> result) {
-                mAdapter.setSearchResult(result);
-                mAdapter.notifyDataSetChanged();
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_in_memory_search) {
+            final boolean inMemoryEnabled = !item.isChecked();
+            item.setChecked(inMemoryEnabled);
+            SearchBackends.setInMemoryEnabled(getActivity(), inMemoryEnabled);
+            mSearchPipeline.setSearchBackend(SearchBackends.get(getActivity()));
+            final CharSequence query = mSearchView.getQuery();
+            if (query != null && query.length() >= MIN_LENGTH_TO_SEARCH) {
+                mSearchPipeline.submitNow(query.toString());
             }
-        }.execute();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     @Override
     public void onItemClick(PreferenceIndex preferenceIndex) {
-        try {
-            // Show the fragment that holds the preference.
-            Fragment fragment = (Fragment) Class.forName(preferenceIndex.fragmentClass)
-                    .newInstance();
-            Bundle arguments = new Bundle();
-            arguments.putString(BaseSearchablePolicyPreferenceFragment.EXTRA_PREFERENCE_KEY,
-                    preferenceIndex.key);
-            fragment.setArguments(arguments);
-            getFragmentManager()
-                    .beginTransaction()
-                    .replace(R.id.container, fragment)
-                    .addToBackStack("search_" + fragment.getClass().getName())
-                    .commit();
-        } catch (IllegalAccessException | ClassNotFoundException | java.lang
-                .InstantiationException ex) {
-            Log.e(TAG, "Fail to create the target fragment: ", ex);
+        // Show the fragment that holds the preference.
+        Fragment fragment = FragmentRegistry.getInstance()
+                .newFragment(preferenceIndex.fragmentClass);
+        if (fragment == null) {
+            Log.e(TAG, "Fail to create the target fragment: " + preferenceIndex.fragmentClass);
+            return;
         }
+        Bundle arguments = new Bundle();
+        arguments.putString(BaseSearchablePolicyPreferenceFragment.EXTRA_PREFERENCE_KEY,
+                preferenceIndex.key);
+        fragment.setArguments(arguments);
+        getFragmentManager()
+                .beginTransaction()
+                .replace(R.id.container, fragment)
+                .addToBackStack("search_" + fragment.getClass().getName())
+                .commit();
     }
 
-    /**
-     * @return a list of fragments that we are going to search for.
-     */
-    private List<String> getAvailableFragments() {
-        List<BaseIndexableFragment> fragments = IndexableFragments.values();
-        List<String> availableFragments = new ArrayList<>();
-        for (BaseIndexableFragment fragment : fragments) {
-            if (fragment.isAvailable(getActivity())) {
-                availableFragments.add(fragment.fragmentName);
-            }
+    private void onSearchResult(List<SearchResult> result) {
+        mAdapter.setSearchResult(result);
+        List<String> fragmentClasses = new ArrayList<>(result.size());
+        for (SearchResult searchResult : result) {
+            fragmentClasses.add(searchResult.preferenceIndex.fragmentClass);
         }
-        return availableFragments;
+        FragmentRegistry.getInstance().prewarm(getActivity(), fragmentClasses);
     }
 }
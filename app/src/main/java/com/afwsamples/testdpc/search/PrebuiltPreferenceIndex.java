@@ -0,0 +1,122 @@
+package com.afwsamples.testdpc.search;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Preference index precomputed at build time by the generatePreferenceIndex gradle task, one
+ * asset per locale. It lets {@link PreferenceIndexSqliteOpenHelper} fill the index of an
+ * {@link XmlIndexableFragment} without parsing its xml on the device.
+ */
+public class PrebuiltPreferenceIndex {
+    private static final String TAG = "PrebuiltPreferenceIndex";
+    private static final String ASSET_DIR = "preference_index/";
+    private static final String ASSET_EXTENSION = ".idx";
+    private static final String DEFAULT_LOCALE = "default";
+    private static final int MAGIC = 0x50494458; // "PIDX"
+    private static final int VERSION = 2;
+
+    /**
+     * Rows of every xml preference file, keyed by resource entry name.
+     */
+    private final Map<String, List<String[]>> mSources;
+
+    private PrebuiltPreferenceIndex(Map<String, List<String[]>> sources) {
+        mSources = sources;
+    }
+
+    /**
+     * @return the prebuilt index for the locale of the given context, or {@code null} if there
+     * is none or it could not be read.
+     */
+    public static PrebuiltPreferenceIndex load(Context context) {
+        for (String assetName : getCandidateAssetNames(context)) {
+            try {
+                return new PrebuiltPreferenceIndex(readAsset(context, assetName));
+            } catch (FileNotFoundException e) {
+                // Try the next, less specific locale.
+            } catch (IOException e) {
+                Log.e(TAG, "Error in reading " + assetName + ", crawl instead", e);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the prebuilt rows of the given fragment, or {@code null} if the fragment is not
+     * covered and has to be crawled.
+     */
+    public List<PreferenceIndex> get(Context context, XmlIndexableFragment fragment) {
+        final String entryName;
+        try {
+            entryName = context.getResources().getResourceEntryName(fragment.xmlRes);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        final List<String[]> rows = mSources.get(entryName);
+        if (rows == null) {
+            return null;
+        }
+        List<PreferenceIndex> preferenceIndexList = new ArrayList<>(rows.size());
+        for (String[] row : rows) {
+            final String summary = row[2].isEmpty() ? null : row[2];
+            preferenceIndexList.add(
+                    new PreferenceIndex(row[0], row[1], summary, fragment.fragmentName));
+        }
+        return preferenceIndexList;
+    }
+
+    /**
+     * Mirrors the resource lookup: the locale with region, the language only, then the default
+     * strings. Assets are only generated for the locales the app has strings for.
+     */
+    private static List<String> getCandidateAssetNames(Context context) {
+        final Locale locale = context.getResources().getConfiguration().locale;
+        List<String> names = new ArrayList<>();
+        if (locale != null) {
+            if (!locale.getCountry().isEmpty()) {
+                names.add(locale.getLanguage() + "-r" + locale.getCountry());
+            }
+            names.add(locale.getLanguage());
+        }
+        names.add(DEFAULT_LOCALE);
+        for (int i = 0; i < names.size(); i++) {
+            names.set(i, ASSET_DIR + names.get(i) + ASSET_EXTENSION);
+        }
+        return names;
+    }
+
+    private static Map<String, List<String[]>> readAsset(Context context, String assetName)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(context.getAssets().open(assetName)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported prebuilt index format: " + assetName);
+            }
+            final int sourceCount = in.readInt();
+            Map<String, List<String[]>> sources = new HashMap<>(sourceCount);
+            for (int i = 0; i < sourceCount; i++) {
+                final String name = in.readUTF();
+                final int rowCount = in.readInt();
+                List<String[]> rows = new ArrayList<>(rowCount);
+                for (int j = 0; j < rowCount; j++) {
+                    rows.add(new String[] {in.readUTF(), in.readUTF(), in.readUTF()});
+                }
+                sources.put(name, rows);
+            }
+            return sources;
+        }
+    }
+}
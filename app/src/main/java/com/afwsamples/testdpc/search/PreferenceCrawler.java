@@ -1,10 +1,17 @@
 package com.afwsamples.testdpc.search;
 
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
 import android.util.TimingLogger;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Crawl indexable fragments to index all their preferences.
@@ -20,9 +27,16 @@ public class PreferenceCrawler {
     }
 
     public List<PreferenceIndex> doCrawl() {
+        return doCrawl(IndexableFragments.values());
+    }
+
+    /**
+     * Crawl only the given fragments, e.g. the ones whose content has changed since they were
+     * last indexed.
+     */
+    public List<PreferenceIndex> doCrawl(List<BaseIndexableFragment> indexableFragments) {
         final TimingLogger logger = new TimingLogger(TAG, "doCrawl");
         List<PreferenceIndex> indexablePreferences = new ArrayList<>();
-        List<BaseIndexableFragment> indexableFragments = IndexableFragments.values();
         for (BaseIndexableFragment indexableFragment : indexableFragments) {
             indexablePreferences.addAll(indexableFragment.index(mContext));
             logger.addSplit("processed " + indexableFragment.fragmentName);
@@ -31,4 +45,104 @@ public class PreferenceCrawler {
         logger.dumpToLog();
         return indexablePreferences;
     }
+
+    /**
+     * Crawl the given fragments on a bounded pool of worker threads.
+     * <p>
+     * Results are merged in the order of {@code indexableFragments}, regardless of the order in
+     * which the workers finish. Each fragment is handed to {@code listener} on the calling thread
+     * as soon as it and all the fragments before it are crawled, so that the listener can write
+     * it while the remaining fragments are still being parsed. Fragments that fail to be crawled
+     * are skipped, and not handed to the listener.
+     * </p>
+     *
+     * @param listener notified of every crawled fragment in order, may be {@code null}
+     * @return all the crawled preferences in a stable order
+     * @throws InterruptedException if the calling thread is interrupted, in which case the
+     * listener is not notified of the remaining fragments
+     */
+    public List<PreferenceIndex> doCrawlParallel(List<BaseIndexableFragment> indexableFragments,
+            OnFragmentCrawledListener listener) throws InterruptedException {
+        final TimingLogger logger = new TimingLogger(TAG, "doCrawlParallel");
+        List<PreferenceIndex> indexablePreferences = new ArrayList<>();
+        if (indexableFragments.isEmpty()) {
+            return indexablePreferences;
+        }
+        final int poolSize = Math.min(indexableFragments.size(),
+                Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        try {
+            List<Future<CrawlResult>> futures = new ArrayList<>(indexableFragments.size());
+            for (BaseIndexableFragment indexableFragment : indexableFragments) {
+                futures.add(executor.submit(new CrawlTask(mContext, indexableFragment)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                final BaseIndexableFragment indexableFragment = indexableFragments.get(i);
+                final CrawlResult result = getResult(futures.get(i), indexableFragment);
+                if (result == null) {
+                    continue;
+                }
+                if (listener != null) {
+                    listener.onFragmentCrawled(indexableFragment, result.preferenceIndexList);
+                }
+                indexablePreferences.addAll(result.preferenceIndexList);
+                logger.addSplit("processed " + indexableFragment.fragmentName + " (parsed in "
+                        + result.elapsedMillis + "ms on a worker)");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        logger.addSplit("Finish crawling with " + poolSize + " workers");
+        logger.dumpToLog();
+        return indexablePreferences;
+    }
+
+    /**
+     * @return the result of the fragment, or {@code null} if it failed to be crawled
+     */
+    private static CrawlResult getResult(Future<CrawlResult> future,
+            BaseIndexableFragment indexableFragment) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error in crawling " + indexableFragment.fragmentName + ", skip it",
+                    e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Listener of {@link #doCrawlParallel(List, OnFragmentCrawledListener)}.
+     */
+    public interface OnFragmentCrawledListener {
+        void onFragmentCrawled(BaseIndexableFragment indexableFragment,
+                List<PreferenceIndex> preferenceIndexList);
+    }
+
+    private static class CrawlTask implements Callable<CrawlResult> {
+        private final Context mContext;
+        private final BaseIndexableFragment mIndexableFragment;
+
+        CrawlTask(Context context, BaseIndexableFragment indexableFragment) {
+            mContext = context;
+            mIndexableFragment = indexableFragment;
+        }
+
+        @Override
+        public CrawlResult call() {
+            final long start = SystemClock.elapsedRealtime();
+            List<PreferenceIndex> preferenceIndexList = mIndexableFragment.index(mContext);
+            return new CrawlResult(preferenceIndexList, SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    private static class CrawlResult {
+        final List<PreferenceIndex> preferenceIndexList;
+        final long elapsedMillis;
+
+        CrawlResult(List<PreferenceIndex> preferenceIndexList, long elapsedMillis) {
+            this.preferenceIndexList = preferenceIndexList;
+            this.elapsedMillis = elapsedMillis;
+        }
+    }
 }
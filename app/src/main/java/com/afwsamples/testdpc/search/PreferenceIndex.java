@@ -13,14 +13,23 @@ public class PreferenceIndex {
      * Title of preference.
      */
     public String title;
+    /**
+     * Summary of preference, may be {@code null}.
+     */
+    public String summary;
     /**
      * Class of fragment holding the preference.
      */
     public String fragmentClass;
 
     public PreferenceIndex(String key, String title, String fragmentClass) {
+        this(key, title, null, fragmentClass);
+    }
+
+    public PreferenceIndex(String key, String title, String summary, String fragmentClass) {
         this.key = key;
         this.title = title;
+        this.summary = summary;
         this.fragmentClass = fragmentClass;
     }
 }
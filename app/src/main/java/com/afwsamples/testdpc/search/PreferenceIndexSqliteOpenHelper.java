@@ -7,35 +7,64 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.os.Build;
+import android.database.sqlite.SQLiteStatement;
 import android.preference.PreferenceManager;
+import android.util.Log;
 
 import com.afwsamples.testdpc.BuildConfig;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Manage the preference index database.
+ * Manage the preference index database. It is also the sqlite {@link SearchBackend}, running
+ * the lookup against the fts table.
  */
-public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
+public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper implements SearchBackend {
+    private static final String TAG = "PreferenceIndexHelper";
     private static final String DATABASE_NAME = "preference_index.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     private static final String CREATE_TABLE_PREFERENCE_INDEX =
             "CREATE TABLE " + PreferenceIndexTable.TABLE_NAME + " (" +
                     PreferenceIndexTable._ID + " INTEGER PRIMARY KEY," +
                     PreferenceIndexTable.KEY + " TEXT NOT NULL," +
                     PreferenceIndexTable.TITLE + " TEXT NOT NULL," +
+                    PreferenceIndexTable.SUMMARY + " TEXT," +
                     PreferenceIndexTable.FRAGMENT_CLASS + " TEXT NOT NULL" +
                     ");";
     private static final String CREATE_FTS_TABLE =
             "CREATE VIRTUAL TABLE " + PreferenceIndexFtsTable.TABLE_NAME +
                     " USING fts4 (content='" + PreferenceIndexTable.TABLE_NAME + "', " +
-                    PreferenceIndexTable.TITLE +
+                    PreferenceIndexFtsTable.COLUMNS +
                     ");";
-    private static final String REBUILD_FTS_SQL =
+    private static final String CREATE_TABLE_FRAGMENT_FINGERPRINT =
+            "CREATE TABLE " + FragmentFingerprintTable.TABLE_NAME + " (" +
+                    FragmentFingerprintTable.FRAGMENT_CLASS + " TEXT PRIMARY KEY," +
+                    FragmentFingerprintTable.FINGERPRINT + " INTEGER NOT NULL" +
+                    ");";
+    /**
+     * The fts table is an external content table, so the old values have to be handed to it
+     * before the rows of a fragment are removed from {@link PreferenceIndexTable}.
+     */
+    private static final String DELETE_FRAGMENT_FTS_SQL =
             "INSERT INTO " + PreferenceIndexFtsTable.TABLE_NAME + "(" +
-                    PreferenceIndexFtsTable.TABLE_NAME + ") VALUES('rebuild')";
+                    PreferenceIndexFtsTable.TABLE_NAME + ", " + PreferenceIndexFtsTable.DOC_ID +
+                    ", " + PreferenceIndexFtsTable.COLUMNS + ") SELECT 'delete', " +
+                    PreferenceIndexTable._ID + ", " + PreferenceIndexFtsTable.COLUMNS + " FROM " +
+                    PreferenceIndexTable.TABLE_NAME + " WHERE " +
+                    PreferenceIndexTable.FRAGMENT_CLASS + " = ?";
+    private static final String INSERT_PREFERENCE_SQL =
+            "INSERT INTO " + PreferenceIndexTable.TABLE_NAME + "(" + PreferenceIndexTable.KEY +
+                    ", " + PreferenceIndexTable.TITLE + ", " + PreferenceIndexTable.SUMMARY + ", " +
+                    PreferenceIndexTable.FRAGMENT_CLASS + ") VALUES(?, ?, ?, ?)";
+    private static final String INSERT_FRAGMENT_FTS_SQL =
+            "INSERT INTO " + PreferenceIndexFtsTable.TABLE_NAME + "(" +
+                    PreferenceIndexFtsTable.DOC_ID + ", " + PreferenceIndexFtsTable.COLUMNS +
+                    ") SELECT " + PreferenceIndexTable._ID + ", " +
+                    PreferenceIndexFtsTable.COLUMNS + " FROM " + PreferenceIndexTable.TABLE_NAME +
+                    " WHERE " + PreferenceIndexTable.FRAGMENT_CLASS + " = ?";
     private static final String LOOKUP_SQL = "SELECT * FROM " + PreferenceIndexTable.TABLE_NAME +
             " WHERE _id IN (SELECT " + PreferenceIndexFtsTable.DOC_ID + " FROM " +
             PreferenceIndexFtsTable.TABLE_NAME + " WHERE " + PreferenceIndexFtsTable.TABLE_NAME +
@@ -64,45 +93,104 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_TABLE_PREFERENCE_INDEX);
         db.execSQL(CREATE_FTS_TABLE);
+        db.execSQL(CREATE_TABLE_FRAGMENT_FINGERPRINT);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The index can always be crawled again, so simply start from scratch. Without any
+        // stored fingerprint every fragment is considered as changed.
+        db.execSQL("DROP TABLE IF EXISTS " + PreferenceIndexFtsTable.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + PreferenceIndexTable.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + FragmentFingerprintTable.TABLE_NAME);
+        onCreate(db);
     }
 
-    private void clearDatabase() {
-        getWritableDatabase().delete(PreferenceIndexTable.TABLE_NAME, null, null);
-    }
-
-    public void insertIndexablePreferences(List<PreferenceIndex> preferenceIndexList) {
+    /**
+     * Removes all the indexed preferences and the fingerprint of the given fragments.
+     */
+    public void removeFragments(List<String> fragmentClasses) {
         SQLiteDatabase db = getWritableDatabase();
         db.beginTransaction();
         try {
-            for (PreferenceIndex preferenceIndex : preferenceIndexList) {
-                db.insert(PreferenceIndexTable.TABLE_NAME, null,
-                        PreferenceIndexTable.toContentValues(preferenceIndex));
+            for (String fragmentClass : fragmentClasses) {
+                deleteFragment(db, fragmentClass);
+                db.delete(FragmentFingerprintTable.TABLE_NAME,
+                        FragmentFingerprintTable.FRAGMENT_CLASS + " = ?",
+                        new String[] {fragmentClass});
             }
-            // Rebuild the fts table.
-            db.execSQL(REBUILD_FTS_SQL);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
         }
     }
 
+    private static void deleteFragment(SQLiteDatabase db, String fragmentClass) {
+        final String[] whereArgs = {fragmentClass};
+        db.execSQL(DELETE_FRAGMENT_FTS_SQL, whereArgs);
+        db.delete(PreferenceIndexTable.TABLE_NAME,
+                PreferenceIndexTable.FRAGMENT_CLASS + " = ?", whereArgs);
+    }
+
+    private Map<String, Long> getStoredFingerprints() {
+        Map<String, Long> fingerprints = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().query(FragmentFingerprintTable.TABLE_NAME, null,
+                    null, null, null, null, null);
+            final int fragmentClassIndex =
+                    cursor.getColumnIndex(FragmentFingerprintTable.FRAGMENT_CLASS);
+            final int fingerprintIndex =
+                    cursor.getColumnIndex(FragmentFingerprintTable.FINGERPRINT);
+            while (cursor.moveToNext()) {
+                fingerprints.put(cursor.getString(fragmentClassIndex),
+                        cursor.getLong(fingerprintIndex));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return fingerprints;
+    }
+
     /**
-     * @param query the words to lookup
-     * @param targetFragments the fragments you are searching for
-     * @return the list of preferences that match the query
+     * Unranked: the preferences are returned in index order and without highlights.
      */
-    public List<PreferenceIndex> lookup(String query, List<String> targetFragments) {
+    @Override
+    public List<SearchResult> lookup(String query, List<String> targetFragments) {
         updateIndexIfNeeded();
         SQLiteDatabase db = getReadableDatabase();
         Cursor cursor = null;
         try {
             String[] selectionArgs = {query + "*"};
             cursor = db.rawQuery(buildLookupSQL(targetFragments), selectionArgs);
-            List<PreferenceIndex> preferenceIndexList = new ArrayList<>();
+            List<SearchResult> searchResults = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                searchResults.add(new SearchResult(PreferenceIndexTable.fromCursor(cursor)));
+            }
+            return searchResults;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @return all the indexed preferences, in insertion order, or {@code null} if the index could
+     * not be brought up to date, e.g. as the thread was interrupted
+     */
+    public List<PreferenceIndex> getAllPreferences() {
+        if (!updateIndexIfNeeded()) {
+            return null;
+        }
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = null;
+        try {
+            cursor = db.query(PreferenceIndexTable.TABLE_NAME, null, null, null, null, null,
+                    PreferenceIndexTable._ID);
+            List<PreferenceIndex> preferenceIndexList = new ArrayList<>(cursor.getCount());
             while (cursor.moveToNext()) {
                 preferenceIndexList.add(PreferenceIndexTable.fromCursor(cursor));
             }
@@ -114,6 +202,11 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
         }
     }
 
+    @Override
+    public boolean supportsNarrowing() {
+        return true;
+    }
+
     private String buildLookupSQL(List<String> targetFragments) {
         StringBuilder stringBuilder = new StringBuilder(LOOKUP_SQL);
         for (String fragment : targetFragments) {
@@ -125,12 +218,23 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
         return stringBuilder.toString();
     }
 
-    private void updateIndexIfNeeded() {
+    /**
+     * @return whether the index is up to date, it is not if updating it was interrupted
+     */
+    private synchronized boolean updateIndexIfNeeded() {
         if (shouldUpdateIndex()) {
-            updateIndex();
+            try {
+                updateIndex();
+            } catch (InterruptedException e) {
+                // Nothing of the interrupted crawl is committed, the next lookup resumes it.
+                Log.w(TAG, "Interrupted while updating the index", e);
+                Thread.currentThread().interrupt();
+                return false;
+            }
             sIndexed = true;
             mSharedPreferencesHelper.saveVersion();
         }
+        return true;
     }
 
     private boolean shouldUpdateIndex() {
@@ -145,11 +249,127 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
         }
     }
 
-    private void updateIndex() {
-        clearDatabase();
-        PreferenceCrawler preferenceCrawler = new PreferenceCrawler(mContext);
-        List<PreferenceIndex> preferenceIndexList = preferenceCrawler.doCrawl();
-        insertIndexablePreferences(preferenceIndexList);
+    /**
+     * Crawls only the fragments whose fingerprint differs from the stored one, and drops the
+     * rows of fragments that are no longer indexable. Fragments that fail to be crawled keep their
+     * previous rows and fingerprint.
+     */
+    private void updateIndex() throws InterruptedException {
+        Map<String, Long> storedFingerprints = getStoredFingerprints();
+        Map<String, Long> changedFingerprints = new HashMap<>();
+        List<BaseIndexableFragment> changedFragments = new ArrayList<>();
+        for (BaseIndexableFragment fragment : IndexableFragments.values()) {
+            final long fingerprint = fragment.getFingerprint(mContext);
+            final Long storedFingerprint = storedFingerprints.remove(fragment.fragmentName);
+            if (storedFingerprint == null || storedFingerprint != fingerprint) {
+                changedFingerprints.put(fragment.fragmentName, fingerprint);
+                changedFragments.add(fragment);
+            }
+        }
+        Log.d(TAG, "Fragments to re-index: " + changedFragments.size()
+                + ", fragments to remove: " + storedFingerprints.size());
+        if (!storedFingerprints.isEmpty()) {
+            removeFragments(new ArrayList<>(storedFingerprints.keySet()));
+        }
+        if (!changedFragments.isEmpty()) {
+            IndexWriter indexWriter = new IndexWriter(getWritableDatabase(), changedFingerprints);
+            try {
+                List<BaseIndexableFragment> fragmentsToCrawl =
+                        writePrebuiltFragments(changedFragments, indexWriter);
+                // Fragments are written as soon as they are crawled, so that inserting overlaps
+                // with parsing the remaining ones.
+                PreferenceCrawler preferenceCrawler = new PreferenceCrawler(mContext);
+                preferenceCrawler.doCrawlParallel(fragmentsToCrawl, indexWriter);
+                indexWriter.commit();
+            } finally {
+                indexWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the fragments that are covered by the {@link PrebuiltPreferenceIndex} of the current
+     * locale.
+     *
+     * @return the fragments that still have to be crawled
+     */
+    private List<BaseIndexableFragment> writePrebuiltFragments(
+            List<BaseIndexableFragment> fragments, IndexWriter indexWriter) {
+        PrebuiltPreferenceIndex prebuiltIndex = PrebuiltPreferenceIndex.load(mContext);
+        if (prebuiltIndex == null) {
+            return fragments;
+        }
+        List<BaseIndexableFragment> fragmentsToCrawl = new ArrayList<>();
+        for (BaseIndexableFragment fragment : fragments) {
+            List<PreferenceIndex> preferenceIndexList = fragment instanceof XmlIndexableFragment
+                    ? prebuiltIndex.get(mContext, (XmlIndexableFragment) fragment)
+                    : null;
+            if (preferenceIndexList != null) {
+                indexWriter.onFragmentCrawled(fragment, preferenceIndexList);
+            } else {
+                fragmentsToCrawl.add(fragment);
+            }
+        }
+        Log.d(TAG, "Fragments served by the prebuilt index: "
+                + (fragments.size() - fragmentsToCrawl.size()));
+        return fragmentsToCrawl;
+    }
+
+    /**
+     * Writes crawled fragments within a single transaction as they are handed to it. The
+     * previous rows of each fragment are replaced and the fts table is kept in sync with
+     * targeted deletes and inserts instead of being rebuilt.
+     */
+    private static class IndexWriter implements PreferenceCrawler.OnFragmentCrawledListener {
+        private final SQLiteDatabase mDb;
+        private final Map<String, Long> mFingerprints;
+        private final SQLiteStatement mInsertPreference;
+        private final SQLiteStatement mInsertFts;
+
+        /**
+         * @param fingerprints the new fingerprint of each fragment that is going to be written
+         */
+        IndexWriter(SQLiteDatabase db, Map<String, Long> fingerprints) {
+            mDb = db;
+            mFingerprints = fingerprints;
+            mInsertPreference = db.compileStatement(INSERT_PREFERENCE_SQL);
+            mInsertFts = db.compileStatement(INSERT_FRAGMENT_FTS_SQL);
+            mDb.beginTransaction();
+        }
+
+        @Override
+        public void onFragmentCrawled(BaseIndexableFragment indexableFragment,
+                List<PreferenceIndex> preferenceIndexList) {
+            final String fragmentClass = indexableFragment.fragmentName;
+            deleteFragment(mDb, fragmentClass);
+            for (PreferenceIndex preferenceIndex : preferenceIndexList) {
+                mInsertPreference.bindString(1, preferenceIndex.key);
+                mInsertPreference.bindString(2, preferenceIndex.title);
+                if (preferenceIndex.summary != null) {
+                    mInsertPreference.bindString(3, preferenceIndex.summary);
+                } else {
+                    mInsertPreference.bindNull(3);
+                }
+                mInsertPreference.bindString(4, preferenceIndex.fragmentClass);
+                mInsertPreference.executeInsert();
+            }
+            mInsertFts.bindString(1, fragmentClass);
+            mInsertFts.executeInsert();
+            mDb.insertWithOnConflict(FragmentFingerprintTable.TABLE_NAME, null,
+                    FragmentFingerprintTable.toContentValues(
+                            fragmentClass, mFingerprints.get(fragmentClass)),
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        }
+
+        void commit() {
+            mDb.setTransactionSuccessful();
+        }
+
+        void close() {
+            mInsertPreference.close();
+            mInsertFts.close();
+            mDb.endTransaction();
+        }
     }
 
     private static class PreferenceIndexTable {
@@ -162,6 +382,10 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
          * Title of preference.
          */
         private static final String TITLE = "title";
+        /**
+         * Summary of preference, may be null.
+         */
+        private static final String SUMMARY = "summary";
         /**
          * Class of fragment holding the preference.
          */
@@ -172,6 +396,7 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
             ContentValues contentValues = new ContentValues();
             contentValues.put(KEY, preferenceIndex.key);
             contentValues.put(TITLE, preferenceIndex.title);
+            contentValues.put(SUMMARY, preferenceIndex.summary);
             contentValues.put(FRAGMENT_CLASS, preferenceIndex.fragmentClass);
             return contentValues;
         }
@@ -179,17 +404,39 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
         static PreferenceIndex fromCursor(Cursor cursor) {
             final int INDEX_KEY = cursor.getColumnIndex(KEY);
             final int TITLE_INDEX = cursor.getColumnIndex(TITLE);
+            final int SUMMARY_INDEX = cursor.getColumnIndex(SUMMARY);
             final int FRAGMENT_CLASS_INDEX = cursor.getColumnIndex(FRAGMENT_CLASS);
             String key = cursor.getString(INDEX_KEY);
             String title = cursor.getString(TITLE_INDEX);
+            String summary = cursor.getString(SUMMARY_INDEX);
             String fragmentClass = cursor.getString(FRAGMENT_CLASS_INDEX);
-            return new PreferenceIndex(key, title, fragmentClass);
+            return new PreferenceIndex(key, title, summary, fragmentClass);
+        }
+    }
+
+    private static class FragmentFingerprintTable {
+        private static final String TABLE_NAME = "fragment_fingerprint";
+        /**
+         * Class of the indexed fragment.
+         */
+        private static final String FRAGMENT_CLASS = "fragment_class";
+        /**
+         * Fingerprint of the fragment content at the time it was crawled.
+         */
+        private static final String FINGERPRINT = "fingerprint";
+
+        static ContentValues toContentValues(String fragmentClass, long fingerprint) {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(FRAGMENT_CLASS, fragmentClass);
+            contentValues.put(FINGERPRINT, fingerprint);
+            return contentValues;
         }
     }
 
     /**
-     * It is full text search table. We indexed {@link PreferenceIndexTable#TITLE}
-     * so that we can have full text search on it.
+     * It is full text search table. We indexed {@link PreferenceIndexTable#TITLE},
+     * {@link PreferenceIndexTable#SUMMARY} and {@link PreferenceIndexTable#KEY}
+     * so that we can have full text search on them.
      */
     private static class PreferenceIndexFtsTable {
         private static final String TABLE_NAME = "preference_index_fts";
@@ -197,6 +444,11 @@ public class PreferenceIndexSqliteOpenHelper extends SQLiteOpenHelper {
          * It is the predefined column represents the id column in the table being indexed.
          */
         private static final String DOC_ID = "docid";
+        /**
+         * The indexed columns of {@link PreferenceIndexTable}.
+         */
+        private static final String COLUMNS = PreferenceIndexTable.TITLE + ", " +
+                PreferenceIndexTable.SUMMARY + ", " + PreferenceIndexTable.KEY;
     }
 
     /**
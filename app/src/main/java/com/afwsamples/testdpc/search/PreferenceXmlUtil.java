@@ -18,6 +18,11 @@ public class PreferenceXmlUtil {
         return getData(context, attrs, android.R.attr.title);
     }
 
+    public static String getDataSummary(Context context, AttributeSet attrs)
+            throws ReflectiveOperationException {
+        return getData(context, attrs, android.R.attr.summary);
+    }
+
     public static String getDataKey(Context context, AttributeSet attrs)
             throws ReflectiveOperationException {
         return getData(context, attrs, android.R.attr.key);
@@ -0,0 +1,25 @@
+package com.afwsamples.testdpc.search;
+
+import java.util.List;
+
+/**
+ * Engine that answers search queries against the preference index.
+ */
+public interface SearchBackend {
+    /**
+     * Every word of the query has to match a word of the title, summary or key of a preference,
+     * the last word may be the prefix of one. Backends may be more lenient, e.g. tolerate typos.
+     *
+     * @param query the words to lookup
+     * @param targetFragments the fragments you are searching for
+     * @return the preferences that match the query, the most relevant first
+     */
+    List<SearchResult> lookup(String query, List<String> targetFragments);
+
+    /**
+     * @return whether the result of a query that extends a previous query is always the
+     * previous result filtered with {@link SearchTokenizer#matches}, so that it can be computed
+     * without a lookup.
+     */
+    boolean supportsNarrowing();
+}
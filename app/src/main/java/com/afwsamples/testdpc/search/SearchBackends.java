@@ -0,0 +1,31 @@
+package com.afwsamples.testdpc.search;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Selects the {@link SearchBackend} used by {@link PolicySearchFragment}. The in-memory backend
+ * is used by default, the sqlite one stays available as a fallback.
+ */
+public class SearchBackends {
+    private static final String KEY_IN_MEMORY_SEARCH = "in_memory_search";
+
+    public static SearchBackend get(Context context) {
+        return isInMemoryEnabled(context)
+                ? InMemorySearchBackend.getInstance(context)
+                : PreferenceIndexSqliteOpenHelper.getInstance(context);
+    }
+
+    public static boolean isInMemoryEnabled(Context context) {
+        return getSharedPreferences(context).getBoolean(KEY_IN_MEMORY_SEARCH, true);
+    }
+
+    public static void setInMemoryEnabled(Context context, boolean enabled) {
+        getSharedPreferences(context).edit().putBoolean(KEY_IN_MEMORY_SEARCH, enabled).apply();
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+}
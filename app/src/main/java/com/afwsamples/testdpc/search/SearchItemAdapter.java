@@ -1,6 +1,11 @@
 package com.afwsamples.testdpc.search;
 
+import android.graphics.Typeface;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -16,7 +21,7 @@ import java.util.List;
  * Represent rows of search result in {@link PolicySearchFragment}.
  */
 public class SearchItemAdapter extends RecyclerView.Adapter<SearchItemViewHolder> {
-    private List<PreferenceIndex> mPreferenceIndexList = new ArrayList<>();
+    private List<SearchResult> mSearchResults = new ArrayList<>();
     private OnItemClickListener mOnItemClickListener;
 
     public SearchItemAdapter(OnItemClickListener onItemClickListener) {
@@ -32,31 +37,85 @@ public class SearchItemAdapter extends RecyclerView.Adapter<SearchItemViewHolder
 
     @Override
     public void onBindViewHolder(final SearchItemViewHolder holder, int position) {
-        final PreferenceIndex preferenceIndex = mPreferenceIndexList.get(position);
-        holder.textView.setText(preferenceIndex.title);
+        final SearchResult searchResult = mSearchResults.get(position);
+        holder.textView.setText(getHighlightedTitle(searchResult));
         holder.textView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 final int adapterPosition = holder.getAdapterPosition();
-                PreferenceIndex clickedItem = mPreferenceIndexList.get(adapterPosition);
-                mOnItemClickListener.onItemClick(clickedItem);
+                SearchResult clickedItem = mSearchResults.get(adapterPosition);
+                mOnItemClickListener.onItemClick(clickedItem.preferenceIndex);
             }
         });
     }
 
     @Override
     public int getItemCount() {
-        return mPreferenceIndexList.size();
+        return mSearchResults.size();
     }
 
-    public void setSearchResult(List<PreferenceIndex> list) {
-        mPreferenceIndexList = list;
+    private static CharSequence getHighlightedTitle(SearchResult searchResult) {
+        final String title = searchResult.preferenceIndex.title;
+        final int[] highlights = searchResult.titleHighlights;
+        if (highlights.length == 0) {
+            return title;
+        }
+        final SpannableString highlightedTitle = new SpannableString(title);
+        for (int i = 0; i + 1 < highlights.length; i += 2) {
+            highlightedTitle.setSpan(new StyleSpan(Typeface.BOLD), highlights[i],
+                    highlights[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return highlightedTitle;
+    }
+
+    /**
+     * Replaces the rows, notifying only the rows that were inserted, removed or moved.
+     */
+    public void setSearchResult(List<SearchResult> list) {
+        final DiffUtil.DiffResult diffResult =
+                DiffUtil.calculateDiff(new SearchResultDiffCallback(mSearchResults, list));
+        mSearchResults = list;
+        diffResult.dispatchUpdatesTo(this);
     }
 
     public interface OnItemClickListener {
         void onItemClick(PreferenceIndex preferenceIndex);
     }
 
+    private static class SearchResultDiffCallback extends DiffUtil.Callback {
+        private final List<SearchResult> mOldList;
+        private final List<SearchResult> mNewList;
+
+        SearchResultDiffCallback(List<SearchResult> oldList, List<SearchResult> newList) {
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            final PreferenceIndex oldItem = mOldList.get(oldItemPosition).preferenceIndex;
+            final PreferenceIndex newItem = mNewList.get(newItemPosition).preferenceIndex;
+            return oldItem.key.equals(newItem.key)
+                    && oldItem.fragmentClass.equals(newItem.fragmentClass);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldList.get(oldItemPosition).hasSameContents(
+                    mNewList.get(newItemPosition));
+        }
+    }
+
     public static class SearchItemViewHolder extends RecyclerView.ViewHolder {
         public TextView textView;
 
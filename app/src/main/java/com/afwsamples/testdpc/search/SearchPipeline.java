@@ -0,0 +1,162 @@
+package com.afwsamples.testdpc.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the queries typed in {@link PolicySearchFragment} against a {@link SearchBackend}.
+ * <ul>
+ * <li>Keystrokes are debounced, only the query typed last is looked up.</li>
+ * <li>A lookup that is superseded by a newer query is cancelled, and its result is dropped if it
+ * still arrives, so results are never delivered out of order.</li>
+ * <li>Recent results are kept in an LRU cache.</li>
+ * <li>When a query extends the previous one, its result is a subset of the previous result, which
+ * is then filtered instead of being looked up again, if the backend supports it.</li>
+ * </ul>
+ * All the methods must be called on the main thread, the callback is invoked on it as well.
+ */
+public class SearchPipeline {
+    private static final String TAG = "SearchPipeline";
+    private static final long DEBOUNCE_DELAY_MILLIS = 150;
+    private static final int CACHE_SIZE = 32;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<String, List<SearchResult>> mCache = new LruCache<>(CACHE_SIZE);
+    private final List<String> mTargetFragments;
+    private final Callback mCallback;
+
+    private SearchBackend mSearchBackend;
+    private Runnable mPendingSearch;
+    private Future<?> mInFlightSearch;
+    /**
+     * Incremented by every query, a result is only delivered if it is still the latest one.
+     */
+    private int mGeneration;
+    private String mLastQuery;
+    private List<SearchResult> mLastResult;
+
+    public SearchPipeline(SearchBackend searchBackend, List<String> targetFragments,
+            Callback callback) {
+        mSearchBackend = searchBackend;
+        mTargetFragments = targetFragments;
+        mCallback = callback;
+    }
+
+    /**
+     * Switches to another backend. Cached results are dropped as backends may rank differently.
+     */
+    public void setSearchBackend(SearchBackend searchBackend) {
+        mSearchBackend = searchBackend;
+        mCache.evictAll();
+        mLastQuery = null;
+        mLastResult = null;
+    }
+
+    /**
+     * Looks up the query once no other query has been submitted for a short while.
+     */
+    public void submit(final String query) {
+        cancelPendingSearch();
+        mPendingSearch = () -> {
+            mPendingSearch = null;
+            search(query);
+        };
+        mHandler.postDelayed(mPendingSearch, DEBOUNCE_DELAY_MILLIS);
+    }
+
+    /**
+     * Looks up the query right away.
+     */
+    public void submitNow(String query) {
+        cancelPendingSearch();
+        search(query);
+    }
+
+    /**
+     * Cancels pending and in-flight lookups and stops the worker thread once it is idle. An
+     * in-flight lookup is not interrupted, as it may be updating the index, and its result is
+     * dropped by the generation check.
+     */
+    public void release() {
+        cancelPendingSearch();
+        mGeneration++;
+        if (mInFlightSearch != null) {
+            mInFlightSearch.cancel(false);
+            mInFlightSearch = null;
+        }
+        mExecutor.shutdown();
+    }
+
+    private void search(final String query) {
+        final int generation = ++mGeneration;
+        if (mInFlightSearch != null) {
+            // Not interrupted, the lookup may be updating the index. Its result is dropped by
+            // the generation check.
+            mInFlightSearch.cancel(false);
+            mInFlightSearch = null;
+        }
+        final List<SearchResult> cachedResult = mCache.get(query);
+        if (cachedResult != null) {
+            deliver(query, cachedResult);
+            return;
+        }
+        final List<SearchResult> previousResult = mSearchBackend.supportsNarrowing()
+                && mLastQuery != null && query.startsWith(mLastQuery) ? mLastResult : null;
+        final SearchBackend searchBackend = mSearchBackend;
+        mInFlightSearch = mExecutor.submit(() -> {
+            final List<SearchResult> result = previousResult != null
+                    ? narrow(previousResult, query)
+                    : searchBackend.lookup(query, mTargetFragments);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            mHandler.post(() -> {
+                if (generation != mGeneration) {
+                    Log.v(TAG, "Dropping stale result of " + query);
+                    return;
+                }
+                mInFlightSearch = null;
+                mCache.put(query, result);
+                deliver(query, result);
+            });
+        });
+    }
+
+    private void deliver(String query, List<SearchResult> result) {
+        mLastQuery = query;
+        mLastResult = result;
+        mCallback.onSearchResult(result);
+    }
+
+    private static List<SearchResult> narrow(List<SearchResult> previousResult,
+            String query) {
+        final List<String> queryTokens = SearchTokenizer.tokenize(query);
+        final List<SearchResult> result = new ArrayList<>();
+        for (SearchResult searchResult : previousResult) {
+            if (SearchTokenizer.matches(queryTokens, searchResult.preferenceIndex)) {
+                result.add(searchResult);
+            }
+        }
+        return result;
+    }
+
+    private void cancelPendingSearch() {
+        if (mPendingSearch != null) {
+            mHandler.removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
+        }
+    }
+
+    public interface Callback {
+        void onSearchResult(List<SearchResult> result);
+    }
+}
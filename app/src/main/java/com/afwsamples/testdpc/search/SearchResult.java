@@ -0,0 +1,36 @@
+package com.afwsamples.testdpc.search;
+
+import java.util.Arrays;
+
+/**
+ * A preference matching a search query.
+ */
+public class SearchResult {
+    private static final int[] NO_HIGHLIGHTS = new int[0];
+
+    public final PreferenceIndex preferenceIndex;
+    /**
+     * Relevance of the preference, higher is better. Zero for unranked backends.
+     */
+    public final float score;
+    /**
+     * Ranges of the title to highlight, as consecutive pairs of start (inclusive) and end
+     * (exclusive) offsets.
+     */
+    public final int[] titleHighlights;
+
+    public SearchResult(PreferenceIndex preferenceIndex) {
+        this(preferenceIndex, 0, NO_HIGHLIGHTS);
+    }
+
+    public SearchResult(PreferenceIndex preferenceIndex, float score, int[] titleHighlights) {
+        this.preferenceIndex = preferenceIndex;
+        this.score = score;
+        this.titleHighlights = titleHighlights;
+    }
+
+    boolean hasSameContents(SearchResult other) {
+        return preferenceIndex.title.equals(other.preferenceIndex.title)
+                && Arrays.equals(titleHighlights, other.titleHighlights);
+    }
+}
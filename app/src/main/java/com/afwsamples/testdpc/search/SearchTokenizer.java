@@ -0,0 +1,81 @@
+package com.afwsamples.testdpc.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into lower case words, close to what the fts "simple" tokenizer does, so that the
+ * in-memory search matches the same preferences as the sqlite one.
+ */
+public class SearchTokenizer {
+
+    public static List<String> tokenize(String text) {
+        final int[] spans = spans(text);
+        List<String> tokens = new ArrayList<>(spans.length / 2);
+        for (int i = 0; i < spans.length; i += 2) {
+            tokens.add(text.substring(spans[i], spans[i + 1]).toLowerCase(Locale.ROOT));
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the start (inclusive) and end (exclusive) offset of every word of the text, as
+     * consecutive pairs
+     */
+    public static int[] spans(String text) {
+        if (text == null) {
+            return new int[0];
+        }
+        final int length = text.length();
+        int[] spans = new int[8];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            final boolean isTokenChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (isTokenChar && start < 0) {
+                start = i;
+            } else if (!isTokenChar && start >= 0) {
+                if (count + 2 > spans.length) {
+                    int[] grown = new int[spans.length * 2];
+                    System.arraycopy(spans, 0, grown, 0, count);
+                    spans = grown;
+                }
+                spans[count++] = start;
+                spans[count++] = i;
+                start = -1;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(spans, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Same rule as {@link SearchBackend#lookup}: every query word but the last one must be a
+     * word of the preference, the last one may also be the prefix of one.
+     *
+     * @param queryTokens the tokenized query
+     */
+    public static boolean matches(List<String> queryTokens, PreferenceIndex preferenceIndex) {
+        if (queryTokens.isEmpty()) {
+            return false;
+        }
+        final List<String> tokens = tokenize(preferenceIndex.title);
+        tokens.addAll(tokenize(preferenceIndex.summary));
+        tokens.addAll(tokenize(preferenceIndex.key));
+        final int lastIndex = queryTokens.size() - 1;
+        for (int i = 0; i < lastIndex; i++) {
+            if (!tokens.contains(queryTokens.get(i))) {
+                return false;
+            }
+        }
+        final String lastToken = queryTokens.get(lastIndex);
+        for (String token : tokens) {
+            if (token.startsWith(lastToken)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -7,10 +7,11 @@ import com.afwsamples.testdpc.policy.UserRestrictionsDisplayFragment;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
 
 public class UserRestrictionIndexableFragment extends BaseIndexableFragment {
     public UserRestrictionIndexableFragment() {
-        super(UserRestrictionsDisplayFragment.class);
+        super(UserRestrictionsDisplayFragment.class, UserRestrictionsDisplayFragment::new);
     }
 
     @Override
@@ -24,4 +25,14 @@ public class UserRestrictionIndexableFragment extends BaseIndexableFragment {
         }
         return preferenceIndices;
     }
+
+    @Override
+    public long getFingerprint(Context context) {
+        final CRC32 checksum = new CRC32();
+        for (UserRestriction userRestriction : UserRestriction.ALL_USER_RESTRICTIONS) {
+            updateChecksum(checksum, userRestriction.key);
+            updateChecksum(checksum, context.getText(userRestriction.titleResId));
+        }
+        return checksum.getValue();
+    }
 }
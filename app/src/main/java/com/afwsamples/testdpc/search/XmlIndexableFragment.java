@@ -1,6 +1,8 @@
 package com.afwsamples.testdpc.search;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
 import android.support.annotation.XmlRes;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -15,18 +17,20 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
 
 public class XmlIndexableFragment extends BaseIndexableFragment {
     private static final String NODE_NAME_PREFERENCE_SCREEN = "PreferenceScreen";
     private static final String NODE_NAME_PREFERENCE_CATEGORY = "PreferenceCategory";
     private static final String TAG = "PreferenceCrawler_Timer";
+    private static final String RESOURCE_TYPE_STRING = "string";
 
     public @XmlRes int xmlRes;
 
     public XmlIndexableFragment(
             Class<? extends BaseSearchablePolicyPreferenceFragment> fragmentClass,
-            @XmlRes int xmlRes) {
-        super(fragmentClass);
+            FragmentFactory fragmentFactory, @XmlRes int xmlRes) {
+        super(fragmentClass, fragmentFactory);
         this.xmlRes = xmlRes;
     }
 
@@ -65,8 +69,9 @@ public class XmlIndexableFragment extends BaseIndexableFragment {
                         || TextUtils.isEmpty(title)) {
                     continue;
                 }
+                String summary = PreferenceXmlUtil.getDataSummary(context, attrs);
                 PreferenceIndex indexablePreference =
-                        new PreferenceIndex(key, title, fragmentName);
+                        new PreferenceIndex(key, title, summary, fragmentName);
                 indexablePreferences.add(indexablePreference);
             }
         } catch (XmlPullParserException | IOException | ReflectiveOperationException ex) {
@@ -74,4 +79,51 @@ public class XmlIndexableFragment extends BaseIndexableFragment {
         }
         return indexablePreferences;
     }
+
+    /**
+     * Parses the xml preference file, which keeps it in the cache of recently loaded xml
+     * resources for when the fragment inflates it.
+     */
+    @Override
+    public void prewarm(Context context) {
+        try (XmlResourceParser parser = context.getResources().getXml(xmlRes)) {
+            while (parser.next() != XmlPullParser.END_DOCUMENT) {
+                // Read the whole document.
+            }
+        } catch (XmlPullParserException | IOException | Resources.NotFoundException ex) {
+            Log.e(TAG, "Error in prewarming a preference xml file", ex);
+        }
+    }
+
+    /**
+     * Checksums the structure of the xml preference file together with the strings it
+     * references, so that both a changed file and a changed translation alter the fingerprint.
+     * Unlike {@link #index(Context)}, no styled attributes are resolved.
+     */
+    @Override
+    public long getFingerprint(Context context) {
+        final Resources resources = context.getResources();
+        final CRC32 checksum = new CRC32();
+        try (XmlResourceParser parser = resources.getXml(xmlRes)) {
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                updateChecksum(checksum, parser.getName());
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    updateChecksum(checksum, parser.getAttributeName(i));
+                    updateChecksum(checksum, parser.getAttributeValue(i));
+                    final int resId = parser.getAttributeResourceValue(i, 0);
+                    if (resId != 0 && RESOURCE_TYPE_STRING.equals(
+                            resources.getResourceTypeName(resId))) {
+                        updateChecksum(checksum, resources.getText(resId));
+                    }
+                }
+            }
+        } catch (XmlPullParserException | IOException | Resources.NotFoundException ex) {
+            Log.e(TAG, "Error in fingerprinting a preference xml file", ex);
+        }
+        return checksum.getValue();
+    }
 }